@@ -1,60 +1,135 @@
 package ast;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
 import csem.Beta;
+import csem.Builtin;
 import csem.Delta;
+import csem.LexicalAddresser;
+import scanner.SymbolTable;
 
 public class AST{
   // The above code is declaring private instance variables in a Java class.
   private ASTNode root;
+  // A tree the parser built is kept flat, in an arena, rather than as ASTNode objects; root is then null
+  private NodeArena arena;
+  private int flatRoot;
+  private SymbolTable symbolTable;
   private ArrayDeque<PendingDeltaBody> pendingDeltaBodyQueue;
   private boolean standardized;
   private Delta currentDelta;
   private Delta rootDelta;
   private int deltaIndex;
+  private Map<ASTNode, List<ASTNode>> deltaBodyFragments;
+  // Set while the deltas of a flat tree are built lazily from it
+  private LexicalAddresser addresser;
 
-  public AST(ASTNode node){
+  public AST(ASTNode node, SymbolTable symbolTable){
     this.root = node;
+    this.symbolTable = symbolTable;
   }
-  public void print(){
-    preOrderPrint(root,"");
+
+  /**
+   * The constructor wraps a tree held flat in an arena. It is standardized in the arena, and objects
+   * are only made for its nodes when createDeltas turns them into delta body entries.
+   * 
+   * @param arena The arena the tree's nodes are in.
+   * @param root The root node of the tree.
+   * @param symbolTable The table the identifiers in the tree were interned into.
+   */
+  public AST(NodeArena arena, int root, SymbolTable symbolTable){
+    this.arena = arena;
+    this.flatRoot = root;
+    this.symbolTable = symbolTable;
   }
 
   /**
-   * The function recursively prints the details of an ASTNode in pre-order traversal.
+   * The constructor wraps a flat tree that may already have been standardized by its builder.
    * 
-   * @param node The current node in the AST (Abstract Syntax Tree) that we want to print.
-   * @param printPrefix The printPrefix parameter is a string that represents the prefix to be added to
-   * the printed details of each ASTNode. It is used to create a hierarchical structure in the printed
-   * output, indicating the level of nesting of each node in the tree.
+   * @param arena The arena the tree's nodes are in.
+   * @param root The root node of the tree.
+   * @param symbolTable The table the identifiers in the tree were interned into.
+   * @param standardized Whether the tree is already in standard form.
    */
-  private void preOrderPrint(ASTNode node, String printPrefix){
-    if(node==null)
-      return;
+  public AST(NodeArena arena, int root, SymbolTable symbolTable, boolean standardized){
+    this(arena, root, symbolTable);
+    this.standardized = standardized;
+  }
 
-    printASTNodeDetails(node, printPrefix);
-    preOrderPrint(node.getChild(),printPrefix+".");
-    preOrderPrint(node.getSibling(),printPrefix);
+  /**
+   * The constructor wraps a tree that may already have been standardized by its builder.
+   * 
+   * @param node The root of the tree.
+   * @param symbolTable The table the identifiers in the tree were interned into.
+   * @param standardized Whether the tree is already in standard form.
+   */
+  public AST(ASTNode node, SymbolTable symbolTable, boolean standardized){
+    this(node, symbolTable);
+    this.standardized = standardized;
   }
 
   /**
-   * The function prints the details of an ASTNode, including its type and value if it is an
-   * identifier, integer, or string.
+   * The function lets createDeltas share work with an earlier call on a tree that has subtrees in
+   * common with this one. Each key of the map is the root of a shared standardized subtree. A null
+   * value asks createDeltas to record the body entries it builds for that subtree; a recorded list is
+   * used in place of walking the subtree again. A reused list is copied, down to the deltas and Betas
+   * in it, and the copies renumbered, so their indices are the ones a fresh build would give
+   * and a machine built from the earlier tree never sees them laid out again.
    * 
-   * @param node The `node` parameter is an object of type `ASTNode`, which represents a node in an
-   * abstract syntax tree (AST). The ASTNode class likely has properties such as `type` and `value`
-   * that store information about the node.
-   * @param printPrefix The `printPrefix` parameter is a string that is used as a prefix when printing
-   * the details of the ASTNode. It is added before the type and value of the node when printing.
+   * @param fragments The body entries of shared subtrees, keyed by subtree root, or null to build
+   * every body from the tree.
    */
-  private void printASTNodeDetails(ASTNode node, String printPrefix){
-    if(node.getType() == ASTNodeType.IDENTIFIER || node.getType() == ASTNodeType.INTEGER || node.getType() == ASTNodeType.STRING){
-      System.out.printf(printPrefix+node.getType().getPrintName()+"\n",node.getValue());
-    }
+  public void setDeltaBodyFragments(Map<ASTNode, List<ASTNode>> fragments){
+    this.deltaBodyFragments = fragments;
+  }
+
+  /**
+   * The function returns the table that the identifiers in this tree were interned into.
+   * 
+   * @return The SymbolTable shared by the tree and the machine that evaluates it.
+   */
+  public SymbolTable getSymbolTable(){
+    return symbolTable;
+  }
+
+  // The arena of a flat tree and its root node, or null and NONE for a tree of ASTNode objects.
+  NodeArena getArena(){
+    return arena;
+  }
+
+  int getFlatRoot(){
+    return flatRoot;
+  }
+
+  /**
+   * The function prints the tree in pre-order, one node per line, each line indented by a dot for
+   * every level of depth.
+   */
+  public void print(){
+    if(arena!=null)
+      new TreePrinter().print(arena, flatRoot);
     else
-      System.out.println(printPrefix+node.getType().getPrintName());
+      new TreePrinter().print(root);
+  }
+
+  /**
+   * The function returns the tree as print() prints it.
+   * 
+   * @return The printed lines of the tree.
+   */
+  @Override
+  public String toString(){
+    StringBuilder printed = new StringBuilder();
+    if(arena!=null)
+      new TreePrinter(printed).print(arena, flatRoot);
+    else
+      new TreePrinter(printed).print(root);
+    return printed.toString();
   }
 
 
@@ -62,23 +137,99 @@ public class AST{
   * The function "standardize" recursively standardizes a binary tree starting from the root node.
   */
   public void standardize(){
-    standardize(root);
+    if(arena!=null)
+      standardize(arena, flatRoot);
+    else
+      standardize(root);
     standardized = true;
   }
 
+  /**
+   * The function standardizes the tree as standardize() does, splitting the work on a large tree
+   * between the threads of the common fork-join pool. The standardized tree is the same.
+   */
+  public void standardizeInParallel(){
+    standardizeInParallel(ParallelStandardizer.DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * The function standardizes the tree as standardize() does, standardizing subtrees of at least the
+   * given size at the same time as each other. The standardized tree is the same. With a single worker
+   * in the pool it simply standardizes the tree sequentially.
+   * 
+   * @param threshold The smallest number of nodes worth standardizing as a task of its own.
+   */
+  public void standardizeInParallel(int threshold){
+    if(!ParallelStandardizer.isWorthSplitting())
+      standardize();
+    else if(arena!=null)
+      ParallelStandardizer.standardize(arena, flatRoot, threshold);
+    else
+      ParallelStandardizer.standardize(root, threshold);
+    standardized = true;
+  }
+
+  // The same as below, for a flat tree.
+  private static void standardize(NodeArena arena, int root){
+    int[] nodes = new int[64];
+    int[] nextChildren = new int[64];
+    int depth = 0;
+    nodes[depth] = root;
+    nextChildren[depth++] = arena.getChild(root);
+    while(depth > 0){
+      int childNode = nextChildren[depth - 1];
+      if(childNode == NodeArena.NONE){
+        standardizeNode(arena, nodes[--depth]);
+        continue;
+      }
+      nextChildren[depth - 1] = arena.getSibling(childNode);
+      if(depth == nodes.length){
+        nodes = Arrays.copyOf(nodes, depth * 2);
+        nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+      }
+      nodes[depth] = childNode;
+      nextChildren[depth] = arena.getChild(childNode);
+      depth++;
+    }
+  }
+
  
-  private void standardize(ASTNode node){
-    // The above code is checking if the current node has a child. If it does, it assigns the child
-    // node to a variable called childNode. Then, it enters a while loop that iterates as long as
-    // childNode is not null. Inside the loop, it calls a method called standardize on the childNode.
-    // After that, it updates the childNode variable to the sibling of the current childNode. This
-    // process continues until there are no more siblings of the current childNode.
-    if(node.getChild()!=null){
-      for (ASTNode childNode = node.getChild(); childNode != null; childNode = childNode.getSibling()) {
-        standardize(childNode);
-    }    
+  /**
+   * The function standardizes every node of a tree once, children before their parent and siblings
+   * from left to right. Rather than recursing, it keeps the path from the root to the current node on
+   * a stack, each entry with the next of its children to visit, so no depth of nesting can overflow
+   * the Java stack. A node's own sibling is not changed by standardizing the node, so the next child
+   * can be read before the current one is standardized.
+   * 
+   * @param root The root of the tree to standardize in place.
+   */
+  private void standardize(ASTNode root){
+    ArrayList<ASTNode> nodes = new ArrayList<ASTNode>();
+    ArrayList<ASTNode> nextChildren = new ArrayList<ASTNode>();
+    nodes.add(root);
+    nextChildren.add(root.getChild());
+    while(!nodes.isEmpty()){
+      int top = nodes.size() - 1;
+      ASTNode childNode = nextChildren.get(top);
+      if(childNode == null){
+        nextChildren.remove(top);
+        standardizeNode(nodes.remove(top));
+        continue;
+      }
+      nextChildren.set(top, childNode.getSibling());
+      nodes.add(childNode);
+      nextChildren.add(childNode.getChild());
     }
-  
+  }
+
+  /**
+   * The function standardizes a single node whose children have already been standardized. It only
+   * relinks the node's children and changes the node's type, so a parent can be standardized as soon
+   * as its children are, without visiting them again.
+   * 
+   * @param node The node to standardize in place.
+   */
+  public static void standardizeNode(ASTNode node){
     switch(node.getType()){
       // The above code is a case statement in a Java switch statement. It is handling the case where
       // the node type is LET.
@@ -99,7 +250,8 @@ public class AST{
         getNode.setSibling(node.getChild());
         node.setChild(getNode);
         node.setType(ASTNodeType.LET);
-        standardize(node);
+        // The children are standardized already, so only the LET itself remains
+        standardizeNode(node);
         break;
      // The above code is a case statement in a Java switch statement. It is handling the case where
      // the node type is FCNFORM.
@@ -152,9 +304,28 @@ public class AST{
         ASTNode tauNode = new ASTNode();
         tauNode.setType(ASTNodeType.TAU);
         ASTNode childNode = node.getChild();
+        // The last name and the last value added, so that each binding is appended in constant time
+        ASTNode lastName = null;
+        ASTNode lastValue = null;
         while(childNode!=null){
-          populateCommaAndTauNode(childNode, commaNode, tauNode);
-          childNode = childNode.getSibling();
+          ASTNode nextNode = childNode.getSibling();
+          if(childNode.getType()!=ASTNodeType.EQUAL)
+            throw new StandardizeException("SIMULTDEF: one of the children is not EQUAL"); //safety
+          ASTNode name = childNode.getChild();
+          ASTNode value = name.getSibling();
+          if(lastName==null){
+            commaNode.setChild(name);
+            tauNode.setChild(value);
+          }
+          else{
+            lastName.setSibling(name);
+            lastValue.setSibling(value);
+          }
+          name.setSibling(null);
+          value.setSibling(null);
+          lastName = name;
+          lastValue = value;
+          childNode = nextNode;
         }
         commaNode.setSibling(tauNode);
         node.setChild(commaNode);
@@ -181,6 +352,7 @@ public class AST{
         xWithSiblingGamma.setSibling(gammaNode);
         xWithSiblingGamma.setType(x.getType());
         xWithSiblingGamma.setValue(x.getValue());
+        xWithSiblingGamma.setSymbol(x.getSymbol());
         node.setChild(xWithSiblingGamma);
         node.setType(ASTNodeType.EQUAL);
         break;
@@ -198,78 +370,409 @@ public class AST{
   }
 
   /**
-   * The function populates a comma node and a tau node with the child nodes of an equal node.
+   * The function standardizes a single node of a flat tree whose children have already been
+   * standardized, relinking nodes in the arena exactly as the function above relinks objects.
    * 
-   * @param equalNode The equalNode parameter is an ASTNode representing an EQUAL node in an abstract
-   * syntax tree.
-   * @param commaNode The `commaNode` parameter is an ASTNode representing a comma symbol in the
-   * abstract syntax tree.
-   * @param tauNode The tauNode parameter is an ASTNode object that represents the node where the "tau"
-   * value will be populated.
+   * @param arena The arena the tree's nodes are in.
+   * @param node The node to standardize in place.
    */
-  private void populateCommaAndTauNode(ASTNode equalNode, ASTNode commaNode, ASTNode tauNode){
-    if(equalNode.getType()!=ASTNodeType.EQUAL)
-      throw new StandardizeException("SIMULTDEF: one of the children is not EQUAL"); //safety
-    ASTNode x = equalNode.getChild();
-    ASTNode e = x.getSibling();
-    setChild(commaNode, x);
-    setChild(tauNode, e);
+  public static void standardizeNode(NodeArena arena, int node){
+    standardizeNode(arena, node, arena.reserve(addedNodeCount(arena, node)));
   }
 
   /**
-   * The function sets a child node for a given parent node, ensuring that the child node is added as a
-   * sibling to any existing child nodes.
+   * The function tells how many nodes standardizing a node of a flat tree adds to the arena. It
+   * depends only on the node's type and number of children, which standardizing the nodes under it
+   * does not change, so it can be counted before any of the tree is standardized.
    * 
-   * @param parentNode The parent node is the node to which the child node will be added as a child or
-   * sibling. It is an instance of the ASTNode class.
-   * @param childNode The childNode parameter is an ASTNode object that represents the node that you
-   * want to set as a child of the parentNode.
+   * @param arena The arena the tree's nodes are in.
+   * @param node The node that is to be standardized.
+   * @return The number of nodes standardizeNode adds for it.
    */
-  private void setChild(ASTNode parentNode, ASTNode childNode){
-    if(parentNode.getChild()==null)
-      parentNode.setChild(childNode);
-    else{
-      ASTNode lastSibling = parentNode.getChild();
-      while(lastSibling.getSibling()!=null)
-        lastSibling = lastSibling.getSibling();
-      lastSibling.setSibling(childNode);
+  static int addedNodeCount(NodeArena arena, int node){
+    switch(arena.getType(node)){
+      case AT:
+        return 1;
+      case WITHIN:
+      case SIMULTDEF:
+        return 2;
+      case REC:
+        return 4;
+      case FCNFORM:
+      case LAMBDA: {
+        // One lambda for each bound variable after the first
+        int childCount = 0;
+        for(int childNode = arena.getChild(node); childNode != NodeArena.NONE; childNode = arena.getSibling(childNode))
+          childCount++;
+        return Math.max(0, childCount - 2);
+      }
+      default:
+        return 0;
     }
-    childNode.setSibling(null);
   }
 
   /**
-   * The function constructs a chain of lambda nodes from a given ASTNode.
+   * The function standardizes a single node of a flat tree, placing the nodes it adds at indices
+   * already reserved in the arena, so that nodes of separate subtrees can be standardized at once.
    * 
-   * @param node The "node" parameter is an ASTNode object representing a node in an abstract syntax
-   * tree.
-   * @return The method is returning an ASTNode object.
+   * @param arena The arena the tree's nodes are in.
+   * @param node The node to standardize in place.
+   * @param firstNewNode The first of the addedNodeCount indices reserved for the node.
    */
-  private ASTNode constructLambdaChain(ASTNode node){
+  static void standardizeNode(NodeArena arena, int node, int firstNewNode){
+    int childNode = arena.getChild(node);
+    switch(arena.getType(node)){
+      case LET: {
+        if(arena.getType(childNode)!=ASTNodeType.EQUAL)
+          throw new StandardizeException("LET/WHERE: left child is not EQUAL");
+        int x = arena.getChild(childNode);
+        int e = arena.getSibling(x);
+        arena.setSibling(x, arena.getSibling(childNode));
+        arena.setSibling(childNode, e);
+        arena.setType(childNode, ASTNodeType.LAMBDA);
+        arena.setType(node, ASTNodeType.GAMMA);
+        break;
+      }
+      case WHERE: {
+        int dr = arena.getSibling(childNode);
+        arena.setSibling(childNode, NodeArena.NONE);
+        arena.setSibling(dr, childNode);
+        arena.setChild(node, dr);
+        arena.setType(node, ASTNodeType.LET);
+        standardizeNode(arena, node, firstNewNode);
+        break;
+      }
+      case FCNFORM:
+        arena.setSibling(childNode, constructLambdaChain(arena, arena.getSibling(childNode), firstNewNode));
+        arena.setType(node, ASTNodeType.EQUAL);
+        break;
+      case AT: {
+        int n = arena.getSibling(childNode);
+        int e2 = arena.getSibling(n);
+        int gammaNode = newNode(arena, firstNewNode, ASTNodeType.GAMMA);
+        arena.setChild(gammaNode, n);
+        arena.setSibling(n, childNode);
+        arena.setSibling(childNode, NodeArena.NONE);
+        arena.setSibling(gammaNode, e2);
+        arena.setChild(node, gammaNode);
+        arena.setType(node, ASTNodeType.GAMMA);
+        break;
+      }
+      case WITHIN: {
+        int second = arena.getSibling(childNode);
+        if(arena.getType(childNode)!=ASTNodeType.EQUAL || arena.getType(second)!=ASTNodeType.EQUAL)
+          throw new StandardizeException("WITHIN: one of the children is not EQUAL"); //safety
+        int x1 = arena.getChild(childNode);
+        int e1 = arena.getSibling(x1);
+        int x2 = arena.getChild(second);
+        int e2 = arena.getSibling(x2);
+        int lambdaNode = newNode(arena, firstNewNode, ASTNodeType.LAMBDA);
+        arena.setSibling(x1, e2);
+        arena.setChild(lambdaNode, x1);
+        arena.setSibling(lambdaNode, e1);
+        int gammaNode = newNode(arena, firstNewNode + 1, ASTNodeType.GAMMA);
+        arena.setChild(gammaNode, lambdaNode);
+        arena.setSibling(x2, gammaNode);
+        arena.setChild(node, x2);
+        arena.setType(node, ASTNodeType.EQUAL);
+        break;
+      }
+      case SIMULTDEF: {
+        int commaNode = newNode(arena, firstNewNode, ASTNodeType.COMMA);
+        int tauNode = newNode(arena, firstNewNode + 1, ASTNodeType.TAU);
+        int lastX = NodeArena.NONE;
+        int lastE = NodeArena.NONE;
+        for(; childNode != NodeArena.NONE; childNode = arena.getSibling(childNode)){
+          if(arena.getType(childNode)!=ASTNodeType.EQUAL)
+            throw new StandardizeException("SIMULTDEF: one of the children is not EQUAL"); //safety
+          int x = arena.getChild(childNode);
+          int e = arena.getSibling(x);
+          if(lastX == NodeArena.NONE){
+            arena.setChild(commaNode, x);
+            arena.setChild(tauNode, e);
+          }
+          else{
+            arena.setSibling(lastX, x);
+            arena.setSibling(lastE, e);
+          }
+          arena.setSibling(x, NodeArena.NONE);
+          arena.setSibling(e, NodeArena.NONE);
+          lastX = x;
+          lastE = e;
+        }
+        arena.setSibling(commaNode, tauNode);
+        arena.setChild(node, commaNode);
+        arena.setType(node, ASTNodeType.EQUAL);
+        break;
+      }
+      case REC: {
+        if(arena.getType(childNode)!=ASTNodeType.EQUAL)
+          throw new StandardizeException("REC: child is not EQUAL"); //safety
+        int x = arena.getChild(childNode);
+        int lambdaNode = newNode(arena, firstNewNode, ASTNodeType.LAMBDA);
+        arena.setChild(lambdaNode, x); //x is already attached to e
+        int yStarNode = newNode(arena, firstNewNode + 1, ASTNodeType.YSTAR);
+        arena.setSibling(yStarNode, lambdaNode);
+        int gammaNode = newNode(arena, firstNewNode + 2, ASTNodeType.GAMMA);
+        arena.setChild(gammaNode, yStarNode);
+        int xWithSiblingGamma = firstNewNode + 3; //same as x except the sibling is not e but gamma
+        arena.copy(x, xWithSiblingGamma);
+        arena.setSibling(xWithSiblingGamma, gammaNode);
+        arena.setChild(node, xWithSiblingGamma);
+        arena.setType(node, ASTNodeType.EQUAL);
+        break;
+      }
+      case LAMBDA:
+        arena.setSibling(childNode, constructLambdaChain(arena, arena.getSibling(childNode), firstNewNode));
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * The function constructs a chain of lambda nodes from a list of bound variables followed by a body:
+   * for v1 v2 ... vn e it gives lambda(v1, lambda(v2, ... lambda(vn, e))), and for a lone node the
+   * node itself. The chain is built from the outside in, in one pass over the list.
+   * 
+   * @param node The first of the bound variables, linked to the rest and the body as siblings.
+   * @return The outermost node of the chain.
+   */
+  private static ASTNode constructLambdaChain(ASTNode node){
     if(node.getSibling()==null)
       return node;
-    
-    ASTNode lambdaNode = new ASTNode();
-    lambdaNode.setType(ASTNodeType.LAMBDA);
-    lambdaNode.setChild(node);
-    if(node.getSibling().getSibling()!=null)
-      node.setSibling(constructLambdaChain(node.getSibling()));
-    return lambdaNode;
+
+    ASTNode outermost = new ASTNode();
+    outermost.setType(ASTNodeType.LAMBDA);
+    outermost.setChild(node);
+    // Each variable but the last is followed by the lambda of the next, the last by the body
+    ASTNode variable = node;
+    while(variable.getSibling().getSibling()!=null){
+      ASTNode nextVariable = variable.getSibling();
+      ASTNode lambdaNode = new ASTNode();
+      lambdaNode.setType(ASTNodeType.LAMBDA);
+      lambdaNode.setChild(nextVariable);
+      variable.setSibling(lambdaNode);
+      variable = nextVariable;
+    }
+    return outermost;
+  }
+
+  // The same as above, for a node of a flat tree, with the lambdas placed from firstNewNode on.
+  private static int constructLambdaChain(NodeArena arena, int node, int firstNewNode){
+    int sibling = arena.getSibling(node);
+    if(sibling==NodeArena.NONE)
+      return node;
+
+    int outermost = newNode(arena, firstNewNode++, ASTNodeType.LAMBDA);
+    arena.setChild(outermost, node);
+    int variable = node;
+    while(arena.getSibling(arena.getSibling(variable))!=NodeArena.NONE){
+      int nextVariable = arena.getSibling(variable);
+      int lambdaNode = newNode(arena, firstNewNode++, ASTNodeType.LAMBDA);
+      arena.setChild(lambdaNode, nextVariable);
+      arena.setSibling(variable, lambdaNode);
+      variable = nextVariable;
+    }
+    return outermost;
+  }
+
+  // A node reserved in the arena, given its type; it has no value, children or sibling yet.
+  private static int newNode(NodeArena arena, int node, ASTNodeType type){
+    arena.setType(node, type);
+    return node;
   }
 
  
+  /**
+   * The function folds the constant parts of a standardized flat tree in place: operators and builtins
+   * applied to literals, conditionals on literal truthvalues and names bound to literals. It must come
+   * before share(), and a tree of ASTNode objects is left as it is.
+   * 
+   * @return The folder, which reports the rewrites it made, or null if the tree was not folded.
+   */
+  public ConstantFolder foldConstants(){
+    if(arena==null || !standardized)
+      return null;
+    return ConstantFolder.fold(arena, flatRoot, symbolTable);
+  }
+
+  /**
+   * The function infers the types of a standardized flat tree, as TypeInferencer describes, and marks
+   * the operators and conditionals whose operand types it proves so that the CSE machine skips their
+   * checks. It must come after any other rewrite and before share(), and a tree of ASTNode objects is
+   * left as it is.
+   * 
+   * @return The inferencer, which reports the sites it specialized, or null if the tree was not typed.
+   */
+  public TypeInferencer inferTypes(){
+    if(arena==null || !standardized)
+      return null;
+    return TypeInferencer.infer(arena, flatRoot, symbolTable);
+  }
+
+  /**
+   * The function inlines the bindings of a standardized flat tree in place, as Inliner describes, with
+   * the default limits: lambdas of up to Inliner.DEFAULT_MAX_LAMBDA_SIZE nodes, and copies adding at
+   * most as many nodes as the tree has.
+   * 
+   * @return The inliner, which reports the rewrites it made, or null if the tree was not inlined.
+   */
+  public Inliner inline(){
+    return inline(Inliner.DEFAULT_MAX_LAMBDA_SIZE, -1);
+  }
+
+  /**
+   * The function inlines the bindings of a standardized flat tree in place. It must come before
+   * share(), and a tree of ASTNode objects is left as it is.
+   * 
+   * @param maxLambdaSize The most nodes a lambda may have to be copied to the places it is called.
+   * @param growthBudget The most nodes the copies may add to the tree in all, or a negative number for
+   * as many as the arena holds.
+   * @return The inliner, which reports the rewrites it made, or null if the tree was not inlined.
+   */
+  public Inliner inline(int maxLambdaSize, int growthBudget){
+    if(arena==null || !standardized)
+      return null;
+    return Inliner.inline(arena, flatRoot, symbolTable, maxLambdaSize,
+                          growthBudget < 0 ? arena.size() : growthBudget);
+  }
+
+  /**
+   * The function hash-conses a standardized flat tree, storing its structurally identical parts once
+   * in a new arena. The tree prints and evaluates as before; only its footprint changes. It must not
+   * be standardized again afterwards, and a tree of ASTNode objects is left as it is.
+   * 
+   * @return The interner, which reports how much was shared, or null if the tree was not interned.
+   */
+  public NodeInterner share(){
+    if(arena==null || !standardized)
+      return null;
+    NodeInterner interner = new NodeInterner();
+    flatRoot = interner.intern(arena, flatRoot);
+    arena = interner.getArena();
+    return interner;
+  }
+
  /**
-  * The function creates and processes delta objects for a given root object.
+  * The function creates and processes delta objects for a given root object, and gives every
+  * identifier in their bodies its lexical address, reporting an undeclared one.
+  * 
+  * The deltas of a flat tree in which no node is reached from two places are built lazily: the tree
+  * is resolved as it stands, and a delta's body is built from it only when the delta is first
+  * applied. The body is built once and shared by every closure of the delta, since the CSE machine
+  * changes neither a body nor a value. A lambda never applied never has a body built. The lambdas
+  * are numbered first, so each delta has the index it would have had if built eagerly.
   * 
   * @return The method is returning a Delta object.
   */
   public Delta createDeltas(){
+    Builtin[] builtins = Builtin.bySymbol(symbolTable);
+    if(arena!=null && !arena.sharesNodes(flatRoot)){
+      numberDeltas(arena, flatRoot);
+      addresser = LexicalAddresser.resolve(arena, flatRoot, builtins);
+      rootDelta = addresser.getRootDelta();
+      rootDelta.setBodySource(() -> buildFlatBody(flatRoot));
+      return rootDelta;
+    }
+    addresser = null;
     pendingDeltaBodyQueue = new ArrayDeque<PendingDeltaBody>();
     deltaIndex = 0;
-    currentDelta = createDelta(root);
-    processPendingDeltaStack();
+    if(arena!=null){
+      currentDelta = createDelta(flatRoot);
+      processPendingDeltaStack();
+    }
+    else{
+      currentDelta = createDelta(root);
+      processPendingDeltaStack();
+    }
+    LexicalAddresser.resolve(rootDelta, builtins);
     return rootDelta;
   }
 
+  // Builds the entries of the body under a node of a flat tree resolved by the addresser.
+  private Stack<ASTNode> buildFlatBody(int bodyNode){
+    Stack<ASTNode> body = new Stack<ASTNode>();
+    buildDeltaBodyEntries(bodyNode, body);
+    return body;
+  }
+
+  /**
+   * The function records on each lambda of a standardized flat tree the index createDeltas gives its
+   * delta, which is the number a printed closure shows. A pass that copies or removes lambdas
+   * numbers them first, and createDeltas keeps a recorded number, so the numbers stay those of the tree
+   * as written. A lambda already numbered keeps its number.
+   * 
+   * @param arena The arena the tree's nodes are in.
+   * @param root The root of the tree, whose delta is number 0.
+   */
+  static void numberDeltas(NodeArena arena, int root){
+    // Bodies are numbered in the order createDeltas builds them: each body's lambdas in the order its
+    // entries are built, a conditional's branches before its condition, and then the bodies of those
+    int index = 1;
+    int[] bodies = new int[64];
+    int bodyCount = 0;
+    bodies[bodyCount++] = root;
+    int[] pending = new int[64];
+    for(int b = 0; b < bodyCount; b++){
+      int pendingCount = 0;
+      pending[pendingCount++] = bodies[b];
+      while(pendingCount > 0){
+        int node = pending[--pendingCount];
+        if(pendingCount + 3 > pending.length)
+          pending = Arrays.copyOf(pending, pending.length * 2);
+        ASTNodeType type = arena.getType(node);
+        int childNode = arena.getChild(node);
+        if(type==ASTNodeType.LAMBDA){
+          if(arena.getDeltaIndex(node)==0)
+            arena.setDeltaIndex(node, index);
+          index++;
+          if(bodyCount == bodies.length)
+            bodies = Arrays.copyOf(bodies, bodyCount * 2);
+          bodies[bodyCount++] = arena.getSibling(childNode);
+        }
+        else if(type==ASTNodeType.CONDITIONAL){
+          int thenNode = arena.getSibling(childNode);
+          pending[pendingCount++] = childNode;
+          pending[pendingCount++] = arena.getSibling(thenNode);
+          pending[pendingCount++] = thenNode;
+        }
+        else{
+          int childCount = 0;
+          for(int c = childNode; c != NodeArena.NONE; c = arena.getSibling(c))
+            childCount++;
+          if(pendingCount + childCount > pending.length)
+            pending = Arrays.copyOf(pending, pendingCount + childCount + 64);
+          // Pushed last first, so that they are numbered in order
+          int c = childNode;
+          for(int i = pendingCount + childCount - 1; i >= pendingCount; i--){
+            pending[i] = c;
+            c = arena.getSibling(c);
+          }
+          pendingCount += childCount;
+        }
+      }
+    }
+  }
+
+  // The same as below, for a body that starts at a node of a flat tree.
+  private Delta createDelta(int startBodyNode){
+    PendingDeltaBody pendingDelta = new PendingDeltaBody();
+    pendingDelta.flatStartNode = startBodyNode;
+    pendingDelta.body = new Stack<ASTNode>();
+    pendingDeltaBodyQueue.add(pendingDelta);
+
+    Delta d = new Delta();
+    d.setBody(pendingDelta.body);
+    d.setIndex(deltaIndex++);
+    currentDelta = d;
+
+    if(startBodyNode==flatRoot)
+      rootDelta = currentDelta;
+
+    return d;
+  }
+
   /**
    * The function creates a new Delta object, sets its body and index, and assigns it as the
    * currentDelta.
@@ -302,25 +805,113 @@ public class AST{
   private void processPendingDeltaStack(){
     while(!pendingDeltaBodyQueue.isEmpty()){
       PendingDeltaBody pendingDeltaBody = pendingDeltaBodyQueue.pop();
-      buildDeltaBody(pendingDeltaBody.startNode, pendingDeltaBody.body);
+      if(pendingDeltaBody.reusedDelta!=null){
+        for(ASTNode entry : pendingDeltaBody.reusedDelta.getBody())
+          indexReusedDeltas(entry);
+      }
+      else if(arena!=null)
+        buildDeltaBodyEntries(pendingDeltaBody.flatStartNode, pendingDeltaBody.body);
+      else
+        buildDeltaBody(pendingDeltaBody.startNode, pendingDeltaBody.body);
+    }
+  }
+
+  /**
+   * The function numbers a delta reached through a reused body entry, and queues it so that the
+   * deltas in its own body are numbered in turn. Deltas are met in the order buildDeltaBody would have
+   * created them: a Beta's branches come before the entries after it.
+   * 
+   * @param entry A body entry that was built by an earlier call of createDeltas.
+   */
+  private void indexReusedDeltas(ASTNode entry){
+    if(entry.getType()==ASTNodeType.DELTA){
+      Delta d = (Delta) entry;
+      d.setIndex(deltaIndex++);
+      PendingDeltaBody pendingDelta = new PendingDeltaBody();
+      pendingDelta.reusedDelta = d;
+      pendingDeltaBodyQueue.add(pendingDelta);
+    }
+    else if(entry.getType()==ASTNodeType.BETA){
+      for(ASTNode thenEntry : ((Beta) entry).getThenBody())
+        indexReusedDeltas(thenEntry);
+      for(ASTNode elseEntry : ((Beta) entry).getElseBody())
+        indexReusedDeltas(elseEntry);
+    }
+  }
+
+  // Builds the body entries for a subtree, reusing or recording them when the subtree is shared.
+  private void buildDeltaBody(ASTNode node, Stack<ASTNode> body){
+    if(deltaBodyFragments==null || !deltaBodyFragments.containsKey(node)){
+      buildDeltaBodyEntries(node, body);
+      return;
     }
+    List<ASTNode> fragment = deltaBodyFragments.get(node);
+    if(fragment!=null){
+      for(ASTNode entry : fragment){
+        ASTNode copy = copyReusedEntry(entry);
+        body.push(copy);
+        indexReusedDeltas(copy);
+      }
+      return;
+    }
+    int start = body.size();
+    buildDeltaBodyEntries(node, body);
+    deltaBodyFragments.put(node, new ArrayList<ASTNode>(body.subList(start, body.size())));
   }
   
-  // The above code is a Java method called `buildDeltaBody` that takes an `ASTNode` object and a
+  /**
+   * The function copies a body entry recorded by an earlier call of createDeltas. The addresser lays
+   * out each delta it is given in place, and replaces the identifiers of its body with new variables,
+   * so the deltas and Betas of a reused entry, and those in their bodies, are copied first: the earlier
+   * ones may be running in a machine built from the earlier tree. Any other entry is never changed,
+   * and is shared.
+   * 
+   * @param entry A body entry that was built by an earlier call of createDeltas.
+   * @return The entry to use in this call's bodies.
+   */
+  private ASTNode copyReusedEntry(ASTNode entry){
+    if(entry.getType()==ASTNodeType.DELTA){
+      Delta reused = (Delta) entry;
+      Delta d = new Delta();
+      d.setSourceLineNumber(reused.getSourceLineNumber());
+      d.setBoundVars(reused.getBoundVars(), reused.getBoundSymbols());
+      d.setBody(copyReusedEntries(reused.getBody()));
+      return d;
+    }
+    if(entry.getType()==ASTNodeType.BETA){
+      Beta reused = (Beta) entry;
+      Beta betaNode = new Beta();
+      betaNode.setSpecialization(reused.getSpecialization());
+      betaNode.setSourceLineNumber(reused.getSourceLineNumber());
+      betaNode.setThenBody(copyReusedEntries(reused.getThenBody()));
+      betaNode.setElseBody(copyReusedEntries(reused.getElseBody()));
+      return betaNode;
+    }
+    return entry;
+  }
+
+  private Stack<ASTNode> copyReusedEntries(Stack<ASTNode> entries){
+    Stack<ASTNode> copies = new Stack<ASTNode>();
+    for(ASTNode entry : entries)
+      copies.push(copyReusedEntry(entry));
+    return copies;
+  }
+  
+  // The above code is a Java method called `buildDeltaBodyEntries` that takes an `ASTNode` object and a
   // `Stack<ASTNode>` object as parameters.
-  private void buildDeltaBody(ASTNode node, Stack<ASTNode> body){
+  private void buildDeltaBodyEntries(ASTNode node, Stack<ASTNode> body){
     if(node.getType()==ASTNodeType.LAMBDA){ 
       Delta d = createDelta(node.getChild().getSibling());
       if(node.getChild().getType()==ASTNodeType.COMMA){ 
         ASTNode commaNode = node.getChild();
         ASTNode childNode = commaNode.getChild();
         while(childNode!=null){
-          d.addBoundVars(childNode.getValue());
+          d.addBoundVars(childNode.getValue(), childNode.getSymbol());
           childNode = childNode.getSibling();
         }
       }
       else
-        d.addBoundVars(node.getChild().getValue());
+        d.addBoundVars(node.getChild().getValue(), node.getChild().getSymbol());
       body.push(d); 
       return;
     }
@@ -356,6 +947,131 @@ public class AST{
     }
   }
 
+  /**
+   * The function builds the body entries for a subtree of a flat tree, as the function above does for
+   * objects. Each node that becomes an entry is made into an ASTNode, linked to the objects of its
+   * children as in the tree, since the CSE machine counts the children of a tau on the control stack.
+   * An object is made for each place a node is reached from, not one per node: after share() one node
+   * may stand for many equal subtrees, and an object's sibling is that of the node in its one place.
+   * 
+   * Rather than recursing, it keeps the nodes still to be built on a stack, each with the object made
+   * for it and the body it goes into, so no depth of nesting can overflow the Java stack. A node is
+   * taken off with NONE when its object is only to be pushed, as a conditional's Beta is once its
+   * branches are built.
+   * 
+   * @param root The root of the subtree.
+   * @param body The body to push the entries onto.
+   */
+  private void buildDeltaBodyEntries(int root, Stack<ASTNode> body){
+    int[] nodes = new int[64];
+    ASTNode[] entries = new ASTNode[64];
+    ArrayList<Stack<ASTNode>> bodies = new ArrayList<Stack<ASTNode>>();
+    int depth = 0;
+    nodes[depth] = root;
+    entries[depth++] = null;
+    bodies.add(body);
+    while(depth > 0){
+      int node = nodes[--depth];
+      ASTNode entry = entries[depth];
+      entries[depth] = null;
+      body = bodies.remove(depth);
+      if(depth + 4 > nodes.length){
+        nodes = Arrays.copyOf(nodes, nodes.length * 2);
+        entries = Arrays.copyOf(entries, nodes.length);
+      }
+      if(node == NodeArena.NONE){
+        body.push(entry);
+        continue;
+      }
+      ASTNodeType type = arena.getType(node);
+      if(type==ASTNodeType.LAMBDA && addresser!=null){
+        Delta lambdaDelta = addresser.getDelta(node);
+        if(lambdaDelta.getBodySource()==null && lambdaDelta.getBody()==null){
+          int bodyNode = arena.getSibling(arena.getChild(node));
+          lambdaDelta.setBodySource(() -> buildFlatBody(bodyNode));
+        }
+        // The body holds the addresser's delta itself, which the machine only makes closures of
+        body.push(lambdaDelta);
+        continue;
+      }
+      if(type==ASTNodeType.LAMBDA){
+        int boundVariable = arena.getChild(node);
+        Delta d = createDelta(arena.getSibling(boundVariable));
+        // A lambda numbered before it was copied or moved keeps its number
+        if(arena.getDeltaIndex(node)!=0)
+          d.setIndex(arena.getDeltaIndex(node));
+        if(arena.getType(boundVariable)==ASTNodeType.COMMA){
+          for(int childNode = arena.getChild(boundVariable); childNode != NodeArena.NONE; childNode = arena.getSibling(childNode))
+            d.addBoundVars(arena.getValue(childNode), arena.getSymbol(childNode));
+        }
+        else
+          d.addBoundVars(arena.getValue(boundVariable), arena.getSymbol(boundVariable));
+        body.push(d);
+        continue;
+      }
+      else if(type==ASTNodeType.CONDITIONAL){
+        int conditionNode = arena.getChild(node);
+        int thenNode = arena.getSibling(conditionNode);
+        int elseNode = arena.getSibling(thenNode);
+
+        Beta betaNode = new Beta();
+        // The type a conditional was specialized for, if it was
+        betaNode.setSpecialization(arena.getSpecialization(node));
+        // Pushed last first: the then branch, the else branch, the Beta, then the condition after it
+        nodes[depth] = conditionNode;
+        bodies.add(body);
+        depth++;
+        nodes[depth] = NodeArena.NONE;
+        entries[depth] = betaNode;
+        bodies.add(body);
+        depth++;
+        nodes[depth] = elseNode;
+        bodies.add(betaNode.getElseBody());
+        depth++;
+        nodes[depth] = thenNode;
+        bodies.add(betaNode.getThenBody());
+        depth++;
+        continue;
+      }
+
+      if(entry==null)
+        entry = toEntry(node);
+      body.push(entry);
+      int childCount = 0;
+      ASTNode lastChild = null;
+      for(int childNode = arena.getChild(node); childNode != NodeArena.NONE; childNode = arena.getSibling(childNode)){
+        ASTNode childEntry = toEntry(childNode);
+        if(lastChild==null)
+          entry.setChild(childEntry);
+        else
+          lastChild.setSibling(childEntry);
+        lastChild = childEntry;
+        childCount++;
+      }
+      if(depth + childCount > nodes.length){
+        nodes = Arrays.copyOf(nodes, depth + childCount + 64);
+        entries = Arrays.copyOf(entries, nodes.length);
+      }
+      // Pushed last first, so that they are built in order
+      int childNode = arena.getChild(node);
+      ASTNode childEntry = entry.getChild();
+      for(int i = depth + childCount - 1; i >= depth; i--){
+        nodes[i] = childNode;
+        entries[i] = childEntry;
+        childNode = arena.getSibling(childNode);
+        childEntry = childEntry.getSibling();
+      }
+      for(int i = 0; i < childCount; i++)
+        bodies.add(body);
+      depth += childCount;
+    }
+  }
+
+  // The object for a node of a flat tree; a resolved identifier is made a Variable at once.
+  private ASTNode toEntry(int node){
+    return addresser!=null ? addresser.toEntry(node) : arena.toNode(node);
+  }
+
   /**
    * The class "PendingDeltaBody" is a private class that contains a stack of ASTNodes and a startNode,
    * and the class "isStandardized" is a public method that returns a boolean indicating whether the
@@ -364,6 +1080,10 @@ public class AST{
   private class PendingDeltaBody{
     Stack<ASTNode> body;
     ASTNode startNode;
+    // Set instead of the above for a body that starts at a node of a flat tree
+    int flatStartNode;
+    // Set instead of the above for a delta whose body was reused from an earlier call
+    Delta reusedDelta;
   }
 
   public boolean isStandardized(){
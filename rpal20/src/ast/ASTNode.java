@@ -1,11 +1,11 @@
 package ast;
 
-import csem.NodeCopier;
-
 public class ASTNode{
  // These are instance variables of the `ASTNode` class.
   private ASTNodeType type;
   private String value;
+  private int symbol;
+  private byte specialization;
   private ASTNode child;
   private ASTNode sibling;
   private int sourceLineNumber;
@@ -156,13 +156,39 @@ private void treeToStringHelper(StringBuilder sb, int indentLevel) {
     this.value = value;
   }
 
- /**
-  * The accept function is used to accept a NodeCopier and return a copied ASTNode.
-  * 
-  * @param nodeCopier The parameter "nodeCopier" is an object of type "NodeCopier".
-  * @return The method is returning an ASTNode object.
-  */
-  public ASTNode accept(NodeCopier nodeCopier){
-    return nodeCopier.copy(this);
-  }  
+  /**
+   * The function returns the interned id of an identifier's name.
+   * 
+   * @return The symbol id of the identifier, or SymbolTable.NONE if the node is not an identifier.
+   */
+  public int getSymbol(){
+    return symbol;
+  }
+
+  /**
+   * The function sets the interned id of an identifier's name.
+   * 
+   * @param symbol The symbol id that the identifier's value was interned to.
+   */
+  public void setSymbol(int symbol){
+    this.symbol = symbol;
+  }
+
+  /**
+   * The function returns the type of operand an operator or conditional node was proven to be given.
+   * 
+   * @return One of the TypeInferencer constants, TypeInferencer.UNTYPED if the node was not specialized.
+   */
+  public byte getSpecialization(){
+    return specialization;
+  }
+
+  /**
+   * The function sets the type of operand an operator or conditional node was proven to be given.
+   * 
+   * @param specialization The TypeInferencer constant for the operands' type.
+   */
+  public void setSpecialization(byte specialization){
+    this.specialization = specialization;
+  }
 }
\ No newline at end of file
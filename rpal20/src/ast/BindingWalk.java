@@ -0,0 +1,183 @@
+package ast;
+
+import java.util.Arrays;
+
+/**
+ * The BindingWalk class is the walk shared by the passes that learn something about each name of a
+ * standardized flat tree from the lambda that binds it. It walks the tree with an explicit stack,
+ * leaving each node after the nodes under it, and keeps for each symbol what the innermost lambda
+ * around the node being walked binds it to. The operand of a lambda applied where it stands, as a
+ * let's is, is walked before the lambda's body, so that what is known of the operand can be bound to
+ * the lambda's variables while the body is walked.
+ *
+ * A subclass says what a binding is and what to do at each node; the bindings a lambda makes are
+ * undone when the walk leaves it.
+ */
+abstract class BindingWalk{
+  // Walk phases of a node on the stack
+  private static final int ENTER = 0;
+  private static final int EXIT = 1;
+  private static final int EXIT_LAMBDA = 2;
+  private static final int BIND_LET = 3;
+  private static final int EXIT_LET = 4;
+
+  final NodeArena arena;
+  // For each symbol, what the innermost lambda around the node being walked binds it to
+  final int[] bindings;
+  // The bindings replaced on entering a lambda, as symbol and old binding pairs, restored on leaving it
+  private int[] savedBindings = new int[32];
+  private int savedCount;
+
+  /**
+   * @param arena The arena the tree's nodes are in.
+   * @param symbolCount The number of symbols the tree's identifiers were interned into.
+   * @param unbound The binding of a symbol that no lambda around binds.
+   */
+  BindingWalk(NodeArena arena, int symbolCount, int unbound){
+    this.arena = arena;
+    this.bindings = new int[symbolCount];
+    if(unbound != 0)
+      Arrays.fill(bindings, unbound);
+  }
+
+  final void walk(int root){
+    int[] nodes = new int[64];
+    int[] phases = new int[64];
+    // For a lambda or let being walked, how many bindings were saved before it bound its variables
+    int[] scopes = new int[64];
+    int depth = 0;
+    nodes[depth] = root;
+    phases[depth++] = ENTER;
+    while(depth > 0){
+      if(depth + 1 >= nodes.length){
+        nodes = Arrays.copyOf(nodes, nodes.length * 2);
+        phases = Arrays.copyOf(phases, nodes.length);
+        scopes = Arrays.copyOf(scopes, nodes.length);
+      }
+      int node = nodes[depth - 1];
+      int childNode = arena.getChild(node);
+      switch(phases[depth - 1]){
+        case ENTER: {
+          ASTNodeType type = arena.getType(node);
+          if(type == ASTNodeType.IDENTIFIER){
+            enterName(node);
+            depth--;
+            break;
+          }
+          if(type == ASTNodeType.LAMBDA){
+            scopes[depth - 1] = savedCount;
+            bind(childNode, NodeArena.NONE);
+            phases[depth - 1] = EXIT_LAMBDA;
+            nodes[depth] = arena.getSibling(childNode);
+            phases[depth++] = ENTER;
+            break;
+          }
+          if(type == ASTNodeType.GAMMA && arena.getType(childNode) == ASTNodeType.LAMBDA){
+            enterLet(node);
+            phases[depth - 1] = BIND_LET;
+            nodes[depth] = arena.getSibling(childNode);
+            phases[depth++] = ENTER;
+            break;
+          }
+          if(type == ASTNodeType.GAMMA)
+            enterApplication(node);
+          phases[depth - 1] = EXIT;
+          // Children are pushed last first, so that they are walked in order
+          int childCount = 0;
+          for(int c = childNode; c != NodeArena.NONE; c = arena.getSibling(c))
+            childCount++;
+          if(depth + childCount >= nodes.length){
+            nodes = Arrays.copyOf(nodes, depth + childCount + 64);
+            phases = Arrays.copyOf(phases, nodes.length);
+            scopes = Arrays.copyOf(scopes, nodes.length);
+          }
+          int c = childNode;
+          for(int i = depth + childCount - 1; i >= depth; i--){
+            nodes[i] = c;
+            phases[i] = ENTER;
+            c = arena.getSibling(c);
+          }
+          depth += childCount;
+          break;
+        }
+        case BIND_LET: {
+          // The operand is done: bind the lambda's variables to what it is, and walk the body
+          int variables = arena.getChild(childNode);
+          scopes[depth - 1] = savedCount;
+          bindLet(variables, arena.getSibling(childNode));
+          phases[depth - 1] = EXIT_LET;
+          nodes[depth] = arena.getSibling(variables);
+          phases[depth++] = ENTER;
+          break;
+        }
+        case EXIT_LET:
+          unbind(scopes[depth - 1]);
+          exitLet(node);
+          depth--;
+          break;
+        case EXIT_LAMBDA:
+          unbind(scopes[depth - 1]);
+          exitLambda(node);
+          depth--;
+          break;
+        default:
+          exitNode(node);
+          depth--;
+          break;
+      }
+    }
+  }
+
+  // Binds a symbol until the walk leaves the lambda that binds it.
+  final void bindSymbol(int symbol, int binding){
+    if(savedCount + 2 > savedBindings.length)
+      savedBindings = Arrays.copyOf(savedBindings, savedBindings.length * 2);
+    savedBindings[savedCount++] = symbol;
+    savedBindings[savedCount++] = bindings[symbol];
+    bindings[symbol] = binding;
+  }
+
+  // Restores the bindings replaced since the given number were saved, last first.
+  private void unbind(int saved){
+    while(savedCount > saved){
+      savedCount -= 2;
+      bindings[savedBindings[savedCount]] = savedBindings[savedCount + 1];
+    }
+  }
+
+  // Called for each identifier.
+  abstract void enterName(int node);
+
+  // Called for a gamma that does not apply a lambda where it stands, before the nodes under it.
+  void enterApplication(int gamma){
+  }
+
+  // Called for a gamma that applies a lambda where it stands, before its operand is walked.
+  void enterLet(int gamma){
+  }
+
+  /**
+   * Binds the variables of a lambda, with bindSymbol, while its body is walked.
+   *
+   * @param variables The lambda's bound variable, or the comma node of its bound variables.
+   * @param operand The operand the lambda is applied to, or NONE if it is not applied where it stands.
+   */
+  abstract void bind(int variables, int operand);
+
+  // Binds the variables of a lambda applied where it stands, once its operand has been walked.
+  void bindLet(int variables, int operand){
+    bind(variables, operand);
+  }
+
+  // Called for a lambda once its body has been walked and its bindings undone.
+  void exitLambda(int lambda){
+  }
+
+  // Called for a gamma that applies a lambda where it stands once the body has been walked and the
+  // lambda's bindings undone.
+  void exitLet(int gamma){
+  }
+
+  // Called for any other node once the nodes under it have been walked.
+  abstract void exitNode(int node);
+}
@@ -0,0 +1,401 @@
+package ast;
+
+import java.util.Arrays;
+
+import csem.Builtin;
+import scanner.SymbolTable;
+
+/**
+ * The ConstantFolder class simplifies a standardized flat tree before it is turned into deltas, doing
+ * at compile time what the CSE machine would otherwise do on every evaluation:
+ *
+ * - an operator applied to literals (2 ** 10, 'a' eq 'b', true & false, not false, -3) becomes its
+ *   result;
+ * - a builtin applied to literals (Stem 'abc', ItoS 42, Isinteger 7, Conc 'ab' 'cd', Order nil) becomes
+ *   its result, provided the builtin's name is not bound where it is used;
+ * - a conditional whose condition is a literal truthvalue becomes the branch it takes;
+ * - a name bound to a literal, by let, where or any other application of a lambda to a literal or to a
+ *   tuple of literals, is replaced by the literal wherever that binding is the one in scope.
+ *
+ * Each result is the value the machine would have made, down to its source line and to whether a
+ * truthvalue carries a value, so error messages and printed values stay as they were. Nothing is
+ * folded that would fail at run time. No lambda is ever removed, as the deltas are numbered in tree
+ * order and a printed closure shows its number, so the bindings of replaced names stay in place and a
+ * branch is only pruned if it holds no lambda. Nor is it pruned if it names something undeclared, which
+ * the machine reports before evaluating anything.
+ */
+public final class ConstantFolder extends BindingWalk{
+  // For each symbol while the tree is walked: the literal it is bound to, or one of these
+  private static final int UNBOUND = 0;
+  private static final int BOUND = -1;
+
+  private final Builtin[] builtins;
+
+  private int arithmeticFolds;
+  private int relationalFolds;
+  private int booleanFolds;
+  private int builtinFolds;
+  private int prunedConditionals;
+  private int propagatedConstants;
+
+  private ConstantFolder(NodeArena arena, SymbolTable symbolTable){
+    super(arena, symbolTable.size(), UNBOUND);
+    this.builtins = Builtin.bySymbol(symbolTable);
+  }
+
+  /**
+   * The function folds the constants of a standardized flat tree in place.
+   *
+   * @param arena The arena the tree's nodes are in.
+   * @param root The root of the tree.
+   * @param symbolTable The table the tree's identifiers were interned into.
+   * @return The folder, which reports the rewrites it made, or null if the tree shares nodes and was
+   * left as it was.
+   */
+  static ConstantFolder fold(NodeArena arena, int root, SymbolTable symbolTable){
+    if(arena.sharesNodes(root))
+      return null;
+    ConstantFolder folder = new ConstantFolder(arena, symbolTable);
+    folder.walk(root);
+    return folder;
+  }
+
+
+  /**
+   * The function binds the variables of a lambda while its body is walked: to the literals of the
+   * operand it is applied to where there are such, and otherwise to no known value.
+   *
+   * @param variables The lambda's bound variable, or the comma node of its bound variables.
+   * @param operand The operand the lambda is applied to, or NONE if it is not applied directly.
+   */
+  @Override
+  void bind(int variables, int operand){
+    if(arena.getType(variables) != ASTNodeType.COMMA){
+      bindSymbol(arena.getSymbol(variables), isLiteral(operand) ? operand : BOUND);
+      return;
+    }
+    // A tuple of literals binds the variables one to one only if there are as many of each
+    int variableCount = 0;
+    for(int variable = arena.getChild(variables); variable != NodeArena.NONE; variable = arena.getSibling(variable))
+      variableCount++;
+    boolean literals = operand != NodeArena.NONE && arena.getType(operand) == ASTNodeType.TAU;
+    int elementCount = 0;
+    for(int element = literals ? arena.getChild(operand) : NodeArena.NONE; element != NodeArena.NONE; element = arena.getSibling(element)){
+      literals &= isLiteral(element);
+      elementCount++;
+    }
+    literals &= elementCount == variableCount;
+    int element = literals ? arena.getChild(operand) : NodeArena.NONE;
+    for(int variable = arena.getChild(variables); variable != NodeArena.NONE; variable = arena.getSibling(variable)){
+      bindSymbol(arena.getSymbol(variable), literals ? element : BOUND);
+      if(literals)
+        element = arena.getSibling(element);
+    }
+  }
+
+  // Replaces a name bound to a literal by a copy of the literal, as looking the name up copies it.
+  @Override
+  void enterName(int node){
+    int binding = bindings[arena.getSymbol(node)];
+    if(binding > 0){
+      arena.copy(binding, node);
+      propagatedConstants++;
+    }
+  }
+
+  // Whether a node is a literal: a value the machine pushes as it is, without evaluating anything.
+  private boolean isLiteral(int node){
+    if(node == NodeArena.NONE)
+      return false;
+    switch(arena.getType(node)){
+      case INTEGER:
+      case STRING:
+      case TRUE:
+      case FALSE:
+      case DUMMY:
+      case NIL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private boolean isTruthvalue(int node){
+    return arena.getType(node) == ASTNodeType.TRUE || arena.getType(node) == ASTNodeType.FALSE;
+  }
+
+  // The literal integer a node holds, or null if it is not one Integer.parseInt accepts.
+  private Integer integerValue(int node){
+    if(arena.getType(node) != ASTNodeType.INTEGER)
+      return null;
+    try{
+      return Integer.parseInt(arena.getValue(node));
+    }
+    catch(NumberFormatException e){
+      return null; // The machine fails on it; leave that to the machine
+    }
+  }
+
+  /**
+   * The function folds a node whose children have been folded already, if it applies an operator or a
+   * builtin to literals or is a conditional on a literal truthvalue. Each node is folded after the
+   * nodes under it, so that results fold further up.
+   *
+   * @param node The node to fold.
+   */
+  @Override
+  void exitNode(int node){
+    int rand1 = arena.getChild(node);
+    int rand2 = rand1 == NodeArena.NONE ? NodeArena.NONE : arena.getSibling(rand1);
+    switch(arena.getType(node)){
+      case PLUS:
+      case MINUS:
+      case MULT:
+      case DIV:
+      case EXP:
+      case LS:
+      case LE:
+      case GR:
+      case GE:
+        foldArithmetic(node, integerValue(rand1), integerValue(rand2));
+        break;
+      case EQ:
+      case NE:
+        foldEquality(node, rand1, rand2);
+        break;
+      case OR:
+      case AND:
+        if(isTruthvalue(rand1) && isTruthvalue(rand2)){
+          boolean left = arena.getType(rand1) == ASTNodeType.TRUE;
+          boolean right = arena.getType(rand2) == ASTNodeType.TRUE;
+          // The machine's or and & make truthvalues without a value
+          setTruthvalue(node, arena.getType(node) == ASTNodeType.OR ? left || right : left && right, null);
+          booleanFolds++;
+        }
+        break;
+      case NOT:
+        if(isTruthvalue(rand1)){
+          boolean result = arena.getType(rand1) == ASTNodeType.FALSE;
+          setTruthvalue(node, result, Boolean.toString(result));
+          booleanFolds++;
+        }
+        break;
+      case NEG: {
+        Integer value = integerValue(rand1);
+        if(value != null){
+          setLiteral(node, ASTNodeType.INTEGER, Integer.toString(-1 * value), 0);
+          arithmeticFolds++;
+        }
+        break;
+      }
+      case CONDITIONAL:
+        foldConditional(node, rand1);
+        break;
+      case GAMMA:
+        foldBuiltin(node, rand1, rand2);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void foldArithmetic(int node, Integer left, Integer right){
+    if(left == null || right == null)
+      return;
+    int resultValue;
+    switch(arena.getType(node)){
+      case PLUS:
+        resultValue = left + right;
+        break;
+      case MINUS:
+        resultValue = left - right;
+        break;
+      case MULT:
+        resultValue = left * right;
+        break;
+      case DIV:
+        if(right == 0)
+          return; // The machine fails on it; leave that to the machine
+        resultValue = left / right;
+        break;
+      case EXP:
+        resultValue = (int) Math.pow(left, right);
+        break;
+      default: {
+        // The machine's comparisons make truthvalues without a value
+        int comparison = Integer.compare(left, right);
+        ASTNodeType type = arena.getType(node);
+        boolean result = type == ASTNodeType.LS ? comparison < 0 : type == ASTNodeType.LE ? comparison <= 0
+                         : type == ASTNodeType.GR ? comparison > 0 : comparison >= 0;
+        setTruthvalue(node, result, null);
+        relationalFolds++;
+        return;
+      }
+    }
+    setLiteral(node, ASTNodeType.INTEGER, Integer.toString(resultValue), 0);
+    arithmeticFolds++;
+  }
+
+  private void foldEquality(int node, int rand1, int rand2){
+    boolean equal;
+    if(isTruthvalue(rand1) && isTruthvalue(rand2))
+      equal = arena.getType(rand1) == arena.getType(rand2);
+    else if(arena.getType(rand1) == ASTNodeType.STRING && arena.getType(rand2) == ASTNodeType.STRING)
+      equal = arena.getValue(rand1).equals(arena.getValue(rand2));
+    else{
+      Integer left = integerValue(rand1);
+      Integer right = integerValue(rand2);
+      if(left == null || right == null)
+        return;
+      equal = left.intValue() == right.intValue();
+    }
+    boolean result = arena.getType(node) == ASTNodeType.EQ ? equal : !equal;
+    setTruthvalue(node, result, Boolean.toString(result));
+    relationalFolds++;
+  }
+
+  // A conditional on a literal becomes the branch it takes, unless the other branch must be kept.
+  private void foldConditional(int node, int condition){
+    if(!isTruthvalue(condition))
+      return;
+    int thenNode = arena.getSibling(condition);
+    int elseNode = arena.getSibling(thenNode);
+    boolean taken = arena.getType(condition) == ASTNodeType.TRUE;
+    if(mustKeep(taken ? elseNode : thenNode))
+      return;
+    arena.copy(taken ? thenNode : elseNode, node);
+    prunedConditionals++;
+  }
+
+  // Whether a branch holds a lambda, or a name that is undeclared and must still be reported as such.
+  private boolean mustKeep(int root){
+    int[] pending = new int[16];
+    int pendingCount = 0;
+    pending[pendingCount++] = root;
+    while(pendingCount > 0){
+      int node = pending[--pendingCount];
+      if(arena.getType(node) == ASTNodeType.LAMBDA)
+        return true;
+      // With no lambda in the branch, a name in it is bound outside it or not at all
+      if(arena.getType(node) == ASTNodeType.IDENTIFIER && bindings[arena.getSymbol(node)] == UNBOUND
+         && builtinOf(node) == null)
+        return true;
+      for(int childNode = arena.getChild(node); childNode != NodeArena.NONE; childNode = arena.getSibling(childNode)){
+        if(pendingCount == pending.length)
+          pending = Arrays.copyOf(pending, pendingCount * 2);
+        pending[pendingCount++] = childNode;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The function folds a builtin applied to a literal, or Conc applied to two. The rator must be a name
+   * that no enclosing lambda binds, since only then does the machine take it for the builtin.
+   */
+  private void foldBuiltin(int node, int rator, int rand){
+    if(arena.getType(rator) == ASTNodeType.GAMMA){
+      // Conc s t is gamma(gamma(Conc, s), t)
+      int innerRator = arena.getChild(rator);
+      int innerRand = arena.getSibling(innerRator);
+      if(builtinOf(innerRator) == Builtin.CONC && arena.getType(innerRand) == ASTNodeType.STRING
+         && arena.getType(rand) == ASTNodeType.STRING){
+        setLiteral(node, ASTNodeType.STRING, arena.getValue(innerRand) + arena.getValue(rand), 0);
+        builtinFolds++;
+      }
+      return;
+    }
+    Builtin builtin = builtinOf(rator);
+    if(builtin == null || !isLiteral(rand))
+      return;
+    ASTNodeType randType = arena.getType(rand);
+    // The type of the value the machine makes of the literal: nil makes an empty tuple
+    ASTNodeType valueType = randType == ASTNodeType.NIL ? ASTNodeType.TUPLE : randType;
+    String value = arena.getValue(rand);
+    switch(builtin){
+      case ISINTEGER:
+        setTruthvalue(node, valueType == ASTNodeType.INTEGER, null);
+        break;
+      case ISSTRING:
+        setTruthvalue(node, valueType == ASTNodeType.STRING, null);
+        break;
+      case ISDUMMY:
+        setTruthvalue(node, valueType == ASTNodeType.DUMMY, null);
+        break;
+      case ISFUNCTION:
+        setTruthvalue(node, false, null);
+        break;
+      case ISTUPLE:
+        setTruthvalue(node, valueType == ASTNodeType.TUPLE, null);
+        break;
+      case ISTRUTHVALUE:
+        setTruthvalue(node, isTruthvalue(rand), null);
+        break;
+      case STEM:
+        // Stem, Stern and ItoS change their operand and give it back, so it keeps its line
+        if(randType != ASTNodeType.STRING)
+          return;
+        setLiteral(node, ASTNodeType.STRING, value.isEmpty() ? "" : value.substring(0, 1), arena.getSourceLineNumber(rand));
+        break;
+      case STERN:
+        if(randType != ASTNodeType.STRING)
+          return;
+        setLiteral(node, ASTNodeType.STRING, value.length() <= 1 ? "" : value.substring(1), arena.getSourceLineNumber(rand));
+        break;
+      case ITOS:
+        if(randType != ASTNodeType.INTEGER)
+          return;
+        setLiteral(node, ASTNodeType.STRING, value, arena.getSourceLineNumber(rand));
+        break;
+      case ORDER:
+        if(randType != ASTNodeType.NIL)
+          return;
+        setLiteral(node, ASTNodeType.INTEGER, "0", 0);
+        break;
+      case NULL:
+        if(randType != ASTNodeType.NIL)
+          return;
+        setTruthvalue(node, true, "true");
+        break;
+      default:
+        return; // Print has an effect, and the others are not applied to one literal
+    }
+    builtinFolds++;
+  }
+
+  private Builtin builtinOf(int node){
+    if(arena.getType(node) != ASTNodeType.IDENTIFIER)
+      return null;
+    int symbol = arena.getSymbol(node);
+    if(symbol >= builtins.length || bindings[symbol] != UNBOUND)
+      return null;
+    return builtins[symbol];
+  }
+
+  private void setTruthvalue(int node, boolean result, String value){
+    // The checks the builtins make give truthvalues with a value
+    if(value == null && arena.getType(node) == ASTNodeType.GAMMA)
+      value = Boolean.toString(result);
+    setLiteral(node, result ? ASTNodeType.TRUE : ASTNodeType.FALSE, value, 0);
+  }
+
+  private void setLiteral(int node, ASTNodeType type, String value, int sourceLineNumber){
+    arena.setType(node, type);
+    arena.setValue(node, value);
+    arena.setChild(node, NodeArena.NONE);
+    arena.setSourceLineNumber(node, sourceLineNumber);
+  }
+
+  /**
+   * The function reports the rewrites the folder made, by kind.
+   *
+   * @return A line counting each kind of rewrite.
+   */
+  @Override
+  public String toString(){
+    return String.format("Folded %d arithmetic, %d relational, %d boolean and %d builtin applications; "
+                         + "pruned %d conditionals; propagated %d constants",
+                         arithmeticFolds, relationalFolds, booleanFolds, builtinFolds, prunedConditionals,
+                         propagatedConstants);
+  }
+}
@@ -0,0 +1,409 @@
+package ast;
+
+import java.util.Arrays;
+
+import csem.Builtin;
+import scanner.SymbolTable;
+
+/**
+ * The Inliner class removes lets from a standardized flat tree. A let, a where or a function
+ * definition standardizes to gamma(lambda x. body, arg), which costs the CSE machine a closure, a frame
+ * and a control stack of its own. Innermost first, each such binding of a single name is:
+ *
+ * - dropped, if the name is never used and the argument has no effect when evaluated;
+ * - beta-reduced, if the argument is a literal or a name, by putting the argument at every use;
+ * - beta-reduced, if the argument is a lambda used once, by moving the lambda to the use;
+ * - otherwise, if the argument is a lambda of at most the size limit, inlined at each call of the name,
+ *   so that the call applies the lambda where it stands, and dropped once no use is left.
+ *
+ * Only values are moved: a literal, a name or a lambda, whose evaluation can neither fail nor print,
+ * so every effect and error happens as and when it did. A value is never put where a lambda around
+ * the use binds one of its free names. Inlining a call turns it into a binding in its own right, which
+ * the next round can reduce in turn; rounds go on until one changes nothing, and copies stop once the
+ * growth budget of copied nodes is spent. A binding made by rec is left alone, since its argument is
+ * not a lambda, so a recursive function is never inlined into itself.
+ *
+ * Each lambda first records the number its delta has in the tree as written, so the closures a program
+ * prints are numbered as before however many lambdas are copied or removed. A program with an
+ * undeclared name is left as it is, so that the error is still reported.
+ */
+public final class Inliner{
+  // Lambdas with more nodes than this are not copied to their calls.
+  public static final int DEFAULT_MAX_LAMBDA_SIZE = 32;
+  // The most rounds over the tree, each of which may reduce the calls the one before inlined.
+  private static final int MAX_ROUNDS = 4;
+
+  private final NodeArena arena;
+  private final Builtin[] builtins;
+  private final int maxLambdaSize;
+  private int growthBudget;
+  // For each symbol while a part of the tree is walked: how many lambdas around the current node bind it
+  private int[] binders;
+
+  private int substitutedBindings;
+  private int inlinedCalls;
+  private int removedBindings;
+  private int copiedNodes;
+
+  private Inliner(NodeArena arena, SymbolTable symbolTable, int maxLambdaSize, int growthBudget){
+    this.arena = arena;
+    this.builtins = Builtin.bySymbol(symbolTable);
+    this.binders = new int[symbolTable.size()];
+    this.maxLambdaSize = maxLambdaSize;
+    this.growthBudget = growthBudget;
+  }
+
+  /**
+   * The function inlines the bindings of a standardized flat tree in place.
+   *
+   * @param arena The arena the tree's nodes are in.
+   * @param root The root of the tree.
+   * @param symbolTable The table the tree's identifiers were interned into.
+   * @param maxLambdaSize The most nodes a lambda may have to be copied to its calls.
+   * @param growthBudget The most nodes copying lambdas may add to the tree.
+   * @return The inliner, which reports the rewrites it made, or null if the tree shares nodes or uses
+   * an undeclared name and was left as it was.
+   */
+  static Inliner inline(NodeArena arena, int root, SymbolTable symbolTable, int maxLambdaSize, int growthBudget){
+    if(arena.sharesNodes(root))
+      return null;
+    Inliner inliner = new Inliner(arena, symbolTable, maxLambdaSize, growthBudget);
+    if(inliner.hasUndeclaredName(root))
+      return null;
+    AST.numberDeltas(arena, root);
+    for(int round = 0; round < MAX_ROUNDS && inliner.inlineBindings(root); round++)
+      ;
+    return inliner;
+  }
+
+  // Whether an identifier that no lambda binds and that names no builtin is used anywhere.
+  private boolean hasUndeclaredName(int root){
+    Walk walk = new Walk(root);
+    for(int node = walk.next(); node != NodeArena.NONE; node = walk.next()){
+      if(arena.getType(node) == ASTNodeType.IDENTIFIER && isFree(node)){
+        int symbol = arena.getSymbol(node);
+        if(symbol >= builtins.length || builtins[symbol] == null)
+          return true;
+      }
+    }
+    return false;
+  }
+
+  // Whether no lambda around a node being walked binds it.
+  private boolean isFree(int identifier){
+    return binders[arena.getSymbol(identifier)] == 0;
+  }
+
+  /**
+   * The function makes one round over the tree, reducing its bindings innermost first. A binding's
+   * body and argument are reduced before it, and a rewrite only changes nodes under the binding, so
+   * the bindings listed before a round are all still in place when they are reached.
+   *
+   * @return Whether anything was rewritten.
+   */
+  private boolean inlineBindings(int root){
+    int[] bindings = new int[64];
+    int bindingCount = 0;
+    int[] pending = new int[64];
+    boolean[] expanded = new boolean[64];
+    int pendingCount = 0;
+    pending[pendingCount++] = root;
+    while(pendingCount > 0){
+      int node = pending[pendingCount - 1];
+      if(expanded[pendingCount - 1]){
+        pendingCount--;
+        if(isBinding(node)){
+          if(bindingCount == bindings.length)
+            bindings = Arrays.copyOf(bindings, bindingCount * 2);
+          bindings[bindingCount++] = node;
+        }
+        continue;
+      }
+      expanded[pendingCount - 1] = true;
+      for(int childNode = arena.getChild(node); childNode != NodeArena.NONE; childNode = arena.getSibling(childNode)){
+        if(pendingCount == pending.length){
+          pending = Arrays.copyOf(pending, pendingCount * 2);
+          expanded = Arrays.copyOf(expanded, pending.length);
+        }
+        expanded[pendingCount] = false;
+        pending[pendingCount++] = childNode;
+      }
+    }
+
+    boolean changed = false;
+    for(int i = 0; i < bindingCount; i++)
+      changed |= inlineBinding(bindings[i]);
+    return changed;
+  }
+
+  // Whether a node is gamma(lambda x. body, arg) for a single name x.
+  private boolean isBinding(int node){
+    if(arena.getType(node) != ASTNodeType.GAMMA)
+      return false;
+    int rator = arena.getChild(node);
+    return arena.getType(rator) == ASTNodeType.LAMBDA
+           && arena.getType(arena.getChild(rator)) == ASTNodeType.IDENTIFIER;
+  }
+
+  /**
+   * The function reduces one binding as far as it can.
+   *
+   * @param binding The gamma node of the binding; if the binding is removed it becomes its body.
+   * @return Whether anything was rewritten.
+   */
+  private boolean inlineBinding(int binding){
+    int lambda = arena.getChild(binding);
+    int variable = arena.getChild(lambda);
+    int body = arena.getSibling(variable);
+    int argument = arena.getSibling(lambda);
+    ASTNodeType argumentType = arena.getType(argument);
+
+    int[] freeSymbols = freeSymbols(argument);
+    Uses uses = findUses(body, arena.getSymbol(variable), freeSymbols);
+    if(uses.count == 0){
+      if(!isValue(argument))
+        return false;
+      arena.copy(body, binding);
+      removedBindings++;
+      return true;
+    }
+
+    boolean trivial = argumentType == ASTNodeType.IDENTIFIER || isLiteral(argumentType);
+    if(trivial || (argumentType == ASTNodeType.LAMBDA && uses.count == 1)){
+      if(uses.capturedCount > 0)
+        return false;
+      // The last use takes the argument itself; a name or literal is a single node, copied to the others
+      for(int i = 0; i < uses.count; i++)
+        arena.copy(argument, uses.nodes[i]);
+      arena.copy(body, binding);
+      substitutedBindings++;
+      return true;
+    }
+
+    if(argumentType != ASTNodeType.LAMBDA)
+      return false;
+    int size = size(argument);
+    if(size > maxLambdaSize)
+      return false;
+    int inlined = 0;
+    for(int i = 0; i < uses.count; i++){
+      if(!uses.calls[i] || uses.captured[i] || growthBudget < size)
+        continue;
+      arena.copy(copyTree(argument), uses.nodes[i]);
+      growthBudget -= size;
+      copiedNodes += size;
+      inlined++;
+    }
+    inlinedCalls += inlined;
+    if(inlined == uses.count){
+      arena.copy(body, binding);
+      removedBindings++;
+    }
+    return inlined > 0;
+  }
+
+  private static boolean isLiteral(ASTNodeType type){
+    switch(type){
+      case INTEGER:
+      case STRING:
+      case TRUE:
+      case FALSE:
+      case DUMMY:
+      case NIL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // Whether evaluating a node can neither fail nor have an effect: a literal, a name, a lambda, or a
+  // tuple of such. Names are known to be declared.
+  private boolean isValue(int node){
+    ASTNodeType type = arena.getType(node);
+    if(type == ASTNodeType.TAU){
+      for(int element = arena.getChild(node); element != NodeArena.NONE; element = arena.getSibling(element))
+        if(!isValue(element))
+          return false;
+      return true;
+    }
+    return type == ASTNodeType.IDENTIFIER || type == ASTNodeType.LAMBDA || isLiteral(type);
+  }
+
+  // The symbols of the names a subtree uses that no lambda inside it binds, each once.
+  private int[] freeSymbols(int root){
+    int[] free = new int[8];
+    int freeCount = 0;
+    Walk walk = new Walk(root);
+    for(int node = walk.next(); node != NodeArena.NONE; node = walk.next()){
+      if(arena.getType(node) != ASTNodeType.IDENTIFIER || !isFree(node))
+        continue;
+      int symbol = arena.getSymbol(node);
+      boolean seen = false;
+      for(int i = 0; i < freeCount && !seen; i++)
+        seen = free[i] == symbol;
+      if(seen)
+        continue;
+      if(freeCount == free.length)
+        free = Arrays.copyOf(free, freeCount * 2);
+      free[freeCount++] = symbol;
+    }
+    return Arrays.copyOf(free, freeCount);
+  }
+
+  // The uses of a name in a binding's body, and for each whether it is called and whether a lambda
+  // around it binds one of the argument's free names.
+  private static class Uses{
+    int count;
+    int capturedCount;
+    int[] nodes = new int[4];
+    boolean[] calls = new boolean[4];
+    boolean[] captured = new boolean[4];
+
+    void add(int node, boolean call, boolean capture){
+      if(count == nodes.length){
+        nodes = Arrays.copyOf(nodes, count * 2);
+        calls = Arrays.copyOf(calls, count * 2);
+        captured = Arrays.copyOf(captured, count * 2);
+      }
+      nodes[count] = node;
+      calls[count] = call;
+      captured[count++] = capture;
+      if(capture)
+        capturedCount++;
+    }
+  }
+
+  private Uses findUses(int body, int symbol, int[] freeSymbols){
+    Uses uses = new Uses();
+    Walk walk = new Walk(body);
+    for(int node = walk.next(); node != NodeArena.NONE; node = walk.next()){
+      if(arena.getType(node) != ASTNodeType.IDENTIFIER || arena.getSymbol(node) != symbol || !isFree(node))
+        continue;
+      boolean capture = false;
+      for(int i = 0; i < freeSymbols.length && !capture; i++)
+        capture = binders[freeSymbols[i]] > 0;
+      int parent = walk.parent();
+      boolean call = parent != NodeArena.NONE && arena.getType(parent) == ASTNodeType.GAMMA
+                     && arena.getChild(parent) == node;
+      uses.add(node, call, capture);
+    }
+    return uses;
+  }
+
+  private int size(int root){
+    int size = 0;
+    Walk walk = new Walk(root);
+    while(walk.next() != NodeArena.NONE)
+      size++;
+    return size;
+  }
+
+  // Copies a subtree into new nodes of the arena, lambdas keeping the numbers of their deltas.
+  private int copyTree(int root){
+    int rootCopy = copyNode(root);
+    int[] pending = new int[64];
+    int[] copies = new int[64];
+    int pendingCount = 0;
+    pending[pendingCount] = root;
+    copies[pendingCount++] = rootCopy;
+    while(pendingCount > 0){
+      int node = pending[--pendingCount];
+      int copy = copies[pendingCount];
+      int lastCopy = NodeArena.NONE;
+      for(int childNode = arena.getChild(node); childNode != NodeArena.NONE; childNode = arena.getSibling(childNode)){
+        int childCopy = copyNode(childNode);
+        if(lastCopy == NodeArena.NONE)
+          arena.setChild(copy, childCopy);
+        else
+          arena.setSibling(lastCopy, childCopy);
+        lastCopy = childCopy;
+        if(pendingCount == pending.length){
+          pending = Arrays.copyOf(pending, pendingCount * 2);
+          copies = Arrays.copyOf(copies, pending.length);
+        }
+        pending[pendingCount] = childNode;
+        copies[pendingCount++] = childCopy;
+      }
+    }
+    return rootCopy;
+  }
+
+  // Adds a copy of a node with no children or sibling.
+  private int copyNode(int node){
+    int copy = arena.add(arena.getType(node), arena.getValue(node), arena.getSymbol(node),
+                         arena.getSourceLineNumber(node));
+    arena.setDeltaIndex(copy, arena.getDeltaIndex(node));
+    return copy;
+  }
+
+  /**
+   * A pre-order walk of a subtree that keeps the binders array counting the lambdas around the node
+   * it has reached. The bound variables of a lambda are not visited as uses.
+   */
+  private class Walk{
+    private int[] path = new int[64];
+    private int[] nextChildren = new int[64];
+    private int depth;
+    private int next;
+
+    Walk(int root){
+      next = root;
+    }
+
+    // The node after the last one returned, or NONE once the walk is done and binders are restored.
+    int next(){
+      while(next == NodeArena.NONE){
+        if(depth == 0)
+          return NodeArena.NONE;
+        int node = path[depth - 1];
+        next = nextChildren[depth - 1];
+        if(next == NodeArena.NONE){
+          depth--;
+          if(arena.getType(node) == ASTNodeType.LAMBDA)
+            bind(arena.getChild(node), -1);
+        }
+        else
+          nextChildren[depth - 1] = arena.getSibling(next);
+      }
+      int node = next;
+      if(depth == path.length){
+        path = Arrays.copyOf(path, depth * 2);
+        nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+      }
+      path[depth] = node;
+      nextChildren[depth++] = arena.getChild(node);
+      if(arena.getType(node) == ASTNodeType.LAMBDA){
+        int variables = arena.getChild(node);
+        bind(variables, 1);
+        nextChildren[depth - 1] = arena.getSibling(variables);
+      }
+      next = NodeArena.NONE;
+      return node;
+    }
+
+    // The parent of the node last returned, or NONE for the root of the walk.
+    int parent(){
+      return depth < 2 ? NodeArena.NONE : path[depth - 2];
+    }
+
+    private void bind(int variables, int change){
+      if(arena.getType(variables) == ASTNodeType.IDENTIFIER)
+        binders[arena.getSymbol(variables)] += change;
+      else if(arena.getType(variables) == ASTNodeType.COMMA){
+        for(int variable = arena.getChild(variables); variable != NodeArena.NONE; variable = arena.getSibling(variable))
+          binders[arena.getSymbol(variable)] += change;
+      }
+    }
+  }
+
+  /**
+   * The function reports the rewrites the inliner made, by kind.
+   *
+   * @return A line counting each kind of rewrite.
+   */
+  @Override
+  public String toString(){
+    return String.format("Substituted %d bindings, inlined %d calls (%d nodes copied) and removed %d "
+                         + "unused bindings", substitutedBindings, inlinedCalls, copiedNodes, removedBindings);
+  }
+}
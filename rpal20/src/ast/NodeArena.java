@@ -0,0 +1,414 @@
+package ast;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The NodeArena class holds a tree of AST nodes as parallel arrays of primitives rather than as one
+ * ASTNode object per node. A node is an index into the arrays: its type ordinal, its first child, its
+ * next sibling, the index of its value in a pool of Strings, its symbol id, its source line, the type
+ * its operands were proven to have (see TypeInferencer) and, for a lambda, the index of its delta.
+ * Equal values share one entry of the pool.
+ *
+ * Node 0 ({@link #NONE}) is never assigned, so a child or sibling of 0 means there is none, as null
+ * does for an ASTNode, and the arrays need no filling.
+ */
+public class NodeArena{
+  public static final int NONE = 0;
+  private static final ASTNodeType[] NODE_TYPES = ASTNodeType.values();
+
+  private byte[] types;
+  private int[] children;
+  private int[] siblings;
+  private int[] values;
+  private int[] symbols;
+  private int[] sourceLineNumbers;
+  private byte[] specializations;
+  // The index of a lambda's delta, or 0 if it has not been numbered; 0 is the root delta's alone
+  private int[] deltaIndices;
+  private int size;
+
+  // The pool of values; index 0 stands for no value
+  private String[] valuePool;
+  private int valueCount;
+  private HashMap<String, Integer> valueIndices;
+
+  public NodeArena(){
+    this(256);
+  }
+
+  public NodeArena(int capacity){
+    capacity = Math.max(capacity, 4);
+    types = new byte[capacity];
+    children = new int[capacity];
+    siblings = new int[capacity];
+    values = new int[capacity];
+    symbols = new int[capacity];
+    sourceLineNumbers = new int[capacity];
+    specializations = new byte[capacity];
+    deltaIndices = new int[capacity];
+    size = 1;
+    valuePool = new String[64];
+    valueCount = 1;
+    valueIndices = new HashMap<String, Integer>();
+  }
+
+  /**
+   * Adds a node with no children and no sibling.
+   *
+   * @param type The type of the node.
+   * @param value The value of the node, or null.
+   * @param symbol The symbol id of an identifier, or SymbolTable.NONE.
+   * @param sourceLineNumber The line of the source the node comes from.
+   * @return The index of the new node.
+   */
+  public int add(ASTNodeType type, String value, int symbol, int sourceLineNumber){
+    if(size == types.length)
+      grow();
+    int node = size++;
+    types[node] = (byte) type.ordinal();
+    values[node] = value == null ? 0 : poolValue(value);
+    symbols[node] = symbol;
+    sourceLineNumbers[node] = sourceLineNumber;
+    return node;
+  }
+
+  /**
+   * Adds a node of the given type, with no value, children or sibling, as the standardizer makes them.
+   *
+   * @param type The type of the node.
+   * @return The index of the new node.
+   */
+  public int add(ASTNodeType type){
+    return add(type, null, 0, 0);
+  }
+
+  /**
+   * Hands out a run of node indices at once, for nodes whose types are set later. The nodes start
+   * with no value, children or sibling. Once a caller has reserved every node it will add, the arrays
+   * do not grow while it fills them, so separate threads may fill separate nodes.
+   *
+   * @param count The number of nodes to reserve.
+   * @return The first index of the run.
+   */
+  public int reserve(int count){
+    while(size + count > types.length)
+      grow();
+    int first = size;
+    size += count;
+    return first;
+  }
+
+  /**
+   * Makes a node into a copy of another, with the same type, value, symbol, line, specialization, delta
+   * index and first child. Its sibling is left as it is.
+   *
+   * @param node The node to copy.
+   * @param copy The node to make the copy, usually one just reserved.
+   */
+  public void copy(int node, int copy){
+    types[copy] = types[node];
+    children[copy] = children[node];
+    values[copy] = values[node];
+    symbols[copy] = symbols[node];
+    sourceLineNumbers[copy] = sourceLineNumbers[node];
+    specializations[copy] = specializations[node];
+    deltaIndices[copy] = deltaIndices[node];
+  }
+
+  private void grow(){
+    int capacity = types.length * 2;
+    types = Arrays.copyOf(types, capacity);
+    children = Arrays.copyOf(children, capacity);
+    siblings = Arrays.copyOf(siblings, capacity);
+    values = Arrays.copyOf(values, capacity);
+    symbols = Arrays.copyOf(symbols, capacity);
+    sourceLineNumbers = Arrays.copyOf(sourceLineNumbers, capacity);
+    specializations = Arrays.copyOf(specializations, capacity);
+    deltaIndices = Arrays.copyOf(deltaIndices, capacity);
+  }
+
+  private int poolValue(String value){
+    Integer index = valueIndices.get(value);
+    if(index != null)
+      return index;
+    if(valueCount == valuePool.length)
+      valuePool = Arrays.copyOf(valuePool, valueCount * 2);
+    valuePool[valueCount] = value;
+    valueIndices.put(value, valueCount);
+    return valueCount++;
+  }
+
+  // The number of node indices handed out so far, counting the unused index 0.
+  public int size(){
+    return size;
+  }
+
+  public ASTNodeType getType(int node){
+    return NODE_TYPES[types[node]];
+  }
+
+  public void setType(int node, ASTNodeType type){
+    types[node] = (byte) type.ordinal();
+  }
+
+  public int getChild(int node){
+    return children[node];
+  }
+
+  public void setChild(int node, int child){
+    children[node] = child;
+  }
+
+  public int getSibling(int node){
+    return siblings[node];
+  }
+
+  public void setSibling(int node, int sibling){
+    siblings[node] = sibling;
+  }
+
+  public String getValue(int node){
+    return valuePool[values[node]];
+  }
+
+  public void setValue(int node, String value){
+    values[node] = value == null ? 0 : poolValue(value);
+  }
+
+  public int getSymbol(int node){
+    return symbols[node];
+  }
+
+  public int getSourceLineNumber(int node){
+    return sourceLineNumbers[node];
+  }
+
+  public void setSourceLineNumber(int node, int sourceLineNumber){
+    sourceLineNumbers[node] = sourceLineNumber;
+  }
+
+  public byte getSpecialization(int node){
+    return specializations[node];
+  }
+
+  public void setSpecialization(int node, byte specialization){
+    specializations[node] = specialization;
+  }
+
+  public int getDeltaIndex(int node){
+    return deltaIndices[node];
+  }
+
+  public void setDeltaIndex(int node, int deltaIndex){
+    deltaIndices[node] = deltaIndex;
+  }
+
+  /**
+   * Writes the nodes and the value pool in the layout ProgramCache stores them in: the node count, the
+   * six arrays one after another, then the pool. Specializations and delta indices are not written, as
+   * a typed tree is never cached and lambdas are numbered after the tree is stored.
+   *
+   * @param out The stream to write to.
+   * @throws IOException If the stream cannot be written.
+   */
+  void write(DataOutputStream out) throws IOException{
+    out.writeInt(size);
+    out.write(types, 0, size);
+    writeInts(out, children);
+    writeInts(out, siblings);
+    writeInts(out, values);
+    writeInts(out, symbols);
+    writeInts(out, sourceLineNumbers);
+    out.writeInt(valueCount);
+    for(int i = 1; i < valueCount; i++)
+      ProgramCache.writeString(out, valuePool[i]);
+  }
+
+  private void writeInts(DataOutputStream out, int[] array) throws IOException{
+    ByteBuffer bytes = ByteBuffer.allocate(size * 4);
+    bytes.asIntBuffer().put(array, 0, size);
+    out.write(bytes.array());
+  }
+
+  /**
+   * Reads an arena written by write, copying each array out of the buffer in one bulk get. Every link,
+   * type, value and symbol read is checked to be one the arena can hold, and the child and sibling
+   * links are checked to form no cycle, so that a damaged file is rejected here rather than failing or
+   * looping forever wherever the tree is used.
+   *
+   * @param in The buffer, positioned at the start of the arena.
+   * @param symbolCount The number of ids in the symbol table the tree was interned into.
+   * @return The arena read.
+   * @throws IllegalArgumentException If a node refers to something the arena or table does not have,
+   * or is reached again by following links from itself.
+   */
+  static NodeArena read(ByteBuffer in, int symbolCount){
+    int size = in.getInt();
+    if(size < 1 || size * 21L > in.remaining())
+      throw new IllegalArgumentException("An arena of " + size + " nodes does not fit what is left");
+    NodeArena arena = new NodeArena(size);
+    in.get(arena.types, 0, size);
+    readInts(in, arena.children, size);
+    readInts(in, arena.siblings, size);
+    readInts(in, arena.values, size);
+    readInts(in, arena.symbols, size);
+    readInts(in, arena.sourceLineNumbers, size);
+    arena.size = size;
+    int valueCount = in.getInt();
+    for(int i = 1; i < valueCount; i++)
+      arena.poolValue(ProgramCache.readString(in));
+    if(arena.valueCount != Math.max(valueCount, 1))
+      throw new IllegalArgumentException("The value pool holds a value twice");
+    for(int node = 1; node < size; node++){
+      if(arena.types[node] < 0 || arena.types[node] >= NODE_TYPES.length
+         || arena.children[node] < 0 || arena.children[node] >= size
+         || arena.siblings[node] < 0 || arena.siblings[node] >= size
+         || arena.values[node] < 0 || arena.values[node] >= arena.valueCount
+         || arena.symbols[node] < 0 || arena.symbols[node] >= symbolCount)
+        throw new IllegalArgumentException("Node " + node + " refers to something the arena does not hold");
+    }
+    arena.checkAcyclic();
+    return arena;
+  }
+
+  /**
+   * Checks that no node can be reached from itself through child and sibling links. A node may be
+   * reached from two places, as a bound variable that standardizing 'rec' shares is, but a cycle
+   * would keep every walk of the tree going forever. Each node is visited once, depth first, and a
+   * link to a node whose links are still being followed closes a cycle.
+   *
+   * @throws IllegalArgumentException If the links form a cycle.
+   */
+  private void checkAcyclic(){
+    // For each node: 0 if not yet visited, 1 while its links are followed, 2 once they all have been
+    byte[] states = new byte[size];
+    int[] path = new int[64];
+    // For each node on the path, the links followed so far: none, its child, or both
+    byte[] followed = new byte[64];
+    for(int start = 1; start < size; start++){
+      if(states[start] != 0)
+        continue;
+      int depth = 0;
+      path[depth] = start;
+      followed[depth++] = 0;
+      states[start] = 1;
+      while(depth > 0){
+        int node = path[depth - 1];
+        if(followed[depth - 1] == 2){
+          states[node] = 2;
+          depth--;
+          continue;
+        }
+        int next = followed[depth - 1]++ == 0 ? children[node] : siblings[node];
+        if(next == NONE || states[next] == 2)
+          continue;
+        if(states[next] == 1)
+          throw new IllegalArgumentException("Node " + next + " is reached again from itself");
+        if(depth == path.length){
+          path = Arrays.copyOf(path, depth * 2);
+          followed = Arrays.copyOf(followed, depth * 2);
+        }
+        path[depth] = next;
+        followed[depth++] = 0;
+        states[next] = 1;
+      }
+    }
+  }
+
+  private static void readInts(ByteBuffer in, int[] array, int count){
+    in.asIntBuffer().get(array, 0, count);
+    in.position(in.position() + count * 4);
+  }
+
+  /**
+   * Whether a node of the tree under the given root is reached from two places, bound variables aside.
+   * NodeInterner stores equal subtrees once, so after share() most trees do; standardizing 'rec'
+   * shares only a bound variable. The passes that rewrite or annotate a tree node by node, inlining,
+   * folding and typing, and the lazy building of delta bodies, need every place to be a node of its
+   * own, and leave a tree for which this is true as it is.
+   *
+   * @param root The root of the tree.
+   * @return True if some node other than a bound variable is reached from two places.
+   */
+  public boolean sharesNodes(int root){
+    boolean[] reached = new boolean[size];
+    int[] pending = new int[64];
+    int pendingCount = 0;
+    pending[pendingCount++] = root;
+    while(pendingCount > 0){
+      int node = pending[--pendingCount];
+      if(reached[node])
+        return true;
+      reached[node] = true;
+      int childNode = children[node];
+      // Bound variables are never entered
+      if(getType(node) == ASTNodeType.LAMBDA)
+        childNode = siblings[childNode];
+      for(; childNode != NONE; childNode = siblings[childNode]){
+        if(pendingCount == pending.length)
+          pending = Arrays.copyOf(pending, pendingCount * 2);
+        pending[pendingCount++] = childNode;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Makes an ASTNode of a single node, with no children or sibling.
+   *
+   * @param node The node to make an object of.
+   * @return A new ASTNode with the node's type, value, symbol, line and specialization.
+   */
+  public ASTNode toNode(int node){
+    ASTNode object = new ASTNode();
+    object.setType(getType(node));
+    object.setValue(getValue(node));
+    object.setSymbol(symbols[node]);
+    object.setSourceLineNumber(sourceLineNumbers[node]);
+    object.setSpecialization(specializations[node]);
+    return object;
+  }
+
+  /**
+   * Makes the tree under the given root into ASTNode objects, linked as the nodes are. The root's own
+   * sibling is not followed, and a node shared by two parents, as standardizing 'rec' leaves, becomes
+   * one object. The tree is walked with an explicit stack, so that no depth of nesting can overflow
+   * the Java stack.
+   *
+   * @param root The root of the tree.
+   * @return The objects, indexed by node; entries for nodes outside the tree are null.
+   */
+  public ASTNode[] toNodes(int root){
+    ASTNode[] objects = new ASTNode[size];
+    int[] pending = new int[64];
+    int pendingCount = 0;
+    objects[root] = toNode(root);
+    pending[pendingCount++] = root;
+    while(pendingCount > 0){
+      int node = pending[--pendingCount];
+      if(pendingCount + 2 > pending.length)
+        pending = Arrays.copyOf(pending, pending.length * 2);
+      int child = children[node];
+      if(child != NONE){
+        if(objects[child] == null){
+          objects[child] = toNode(child);
+          pending[pendingCount++] = child;
+        }
+        objects[node].setChild(objects[child]);
+      }
+      int sibling = siblings[node];
+      if(node != root && sibling != NONE){
+        if(objects[sibling] == null){
+          objects[sibling] = toNode(sibling);
+          pending[pendingCount++] = sibling;
+        }
+        objects[node].setSibling(objects[sibling]);
+      }
+    }
+    return objects;
+  }
+}
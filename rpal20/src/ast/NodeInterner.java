@@ -0,0 +1,150 @@
+package ast;
+
+import java.util.Arrays;
+
+/**
+ * The NodeInterner class hash-conses a flat tree: it copies the tree into a new arena in which
+ * structurally identical parts are stored once. In an arena a node is linked to its first child and to
+ * its next sibling, so what is shared is a node together with everything under it and every sibling
+ * after it. Equal leaves at the end of their sibling lists, equal subtrees and equal tails of argument
+ * lists all become one node, and two of them are equal exactly when their indices are equal.
+ *
+ * Nodes are compared by type, value, symbol, specialization, delta index, child and sibling, but not
+ * by source line: a shared node keeps the line it was first met on. Standardizing relinks nodes in place, so only
+ * a tree that will not be standardized again may be interned.
+ */
+public final class NodeInterner{
+  private final NodeArena arena;
+  // Open addressing on node indices of the new arena; NodeArena.NONE marks an empty slot
+  private int[] table;
+  private int nodeCount;
+
+  public NodeInterner(){
+    arena = new NodeArena();
+    table = new int[1024];
+  }
+
+  /**
+   * The function interns a tree, children and siblings first, so that each node is looked up with the
+   * indices its child and sibling were given. The tree is walked with an explicit stack. A node the
+   * tree reaches from two places is interned once.
+   *
+   * @param from The arena the tree is in.
+   * @param root The root of the tree; its own sibling is not followed.
+   * @return The index of the root in the new arena.
+   */
+  public int intern(NodeArena from, int root){
+    int[] interned = new int[from.size()];
+    int[] pending = new int[64];
+    // Whether a pending node's child and sibling have been pushed
+    boolean[] expanded = new boolean[64];
+    int pendingCount = 0;
+    pending[pendingCount++] = root;
+    while(pendingCount > 0){
+      int node = pending[pendingCount - 1];
+      if(interned[node] != NodeArena.NONE){
+        pendingCount--;
+        continue;
+      }
+      int child = from.getChild(node);
+      int sibling = node == root ? NodeArena.NONE : from.getSibling(node);
+      if(!expanded[pendingCount - 1]){
+        expanded[pendingCount - 1] = true;
+        if(pendingCount + 2 > pending.length){
+          pending = Arrays.copyOf(pending, pending.length * 2);
+          expanded = Arrays.copyOf(expanded, pending.length);
+        }
+        if(sibling != NodeArena.NONE && interned[sibling] == NodeArena.NONE){
+          expanded[pendingCount] = false;
+          pending[pendingCount++] = sibling;
+        }
+        if(child != NodeArena.NONE && interned[child] == NodeArena.NONE){
+          expanded[pendingCount] = false;
+          pending[pendingCount++] = child;
+        }
+        continue;
+      }
+      pendingCount--;
+      nodeCount++;
+      interned[node] = intern(from, node, interned[child], interned[sibling]);
+    }
+    return interned[root];
+  }
+
+  // Interns one node whose child and sibling are already in the new arena (interned[0] is NONE).
+  private int intern(NodeArena from, int node, int child, int sibling){
+    ASTNodeType type = from.getType(node);
+    String value = from.getValue(node);
+    int symbol = from.getSymbol(node);
+    byte specialization = from.getSpecialization(node);
+    int deltaIndex = from.getDeltaIndex(node);
+    int mask = table.length - 1;
+    int slot = hash(type, value, symbol, child, sibling) & mask;
+    for(int candidate = table[slot]; candidate != NodeArena.NONE; candidate = table[slot]){
+      if(arena.getType(candidate) == type && arena.getSymbol(candidate) == symbol
+         && arena.getSpecialization(candidate) == specialization && arena.getDeltaIndex(candidate) == deltaIndex
+         && arena.getChild(candidate) == child && arena.getSibling(candidate) == sibling
+         && (value == null ? arena.getValue(candidate) == null : value.equals(arena.getValue(candidate))))
+        return candidate;
+      slot = (slot + 1) & mask;
+    }
+    int copy = arena.add(type, value, symbol, from.getSourceLineNumber(node));
+    arena.setSpecialization(copy, specialization);
+    arena.setDeltaIndex(copy, deltaIndex);
+    arena.setChild(copy, child);
+    arena.setSibling(copy, sibling);
+    table[slot] = copy;
+    // Keep the table at most half full
+    if(2 * arena.size() > table.length)
+      rehash();
+    return copy;
+  }
+
+  private static int hash(ASTNodeType type, String value, int symbol, int child, int sibling){
+    int hash = type.ordinal();
+    hash = 31 * hash + (value == null ? 0 : value.hashCode());
+    hash = 31 * hash + symbol;
+    hash = 31 * hash + child;
+    hash = 31 * hash + sibling;
+    return hash ^ (hash >>> 16);
+  }
+
+  private void rehash(){
+    table = new int[table.length * 2];
+    int mask = table.length - 1;
+    for(int node = 1; node < arena.size(); node++){
+      int slot = hash(arena.getType(node), arena.getValue(node), arena.getSymbol(node),
+                      arena.getChild(node), arena.getSibling(node)) & mask;
+      while(table[slot] != NodeArena.NONE)
+        slot = (slot + 1) & mask;
+      table[slot] = node;
+    }
+  }
+
+  // The arena the interned nodes are in.
+  public NodeArena getArena(){
+    return arena;
+  }
+
+  // The number of nodes interned, counting each node once however many places share it.
+  public int getNodeCount(){
+    return nodeCount;
+  }
+
+  // The number of distinct nodes stored for them.
+  public int getStoredNodeCount(){
+    return arena.size() - 1;
+  }
+
+  /**
+   * The function reports how much sharing interning achieved.
+   *
+   * @return A line giving the nodes interned, the nodes stored for them and the share saved.
+   */
+  @Override
+  public String toString(){
+    int saved = nodeCount - getStoredNodeCount();
+    return String.format("Shared %d of %d nodes: %d stored (%.1f%% fewer)", saved, nodeCount,
+                         getStoredNodeCount(), nodeCount == 0 ? 0.0 : 100.0 * saved / nodeCount);
+  }
+}
@@ -0,0 +1,259 @@
+package ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The ParallelStandardizer class standardizes a large tree on the common fork-join pool, standardizing
+ * separate subtrees at the same time and each node once the subtrees under it are done.
+ *
+ * The nodes are first listed in the order the sequential pass standardizes them, children before their
+ * parent, together with the size of the subtree under each. A subtree is then the run of the list that
+ * ends at its root, and the subtrees under a node are the runs just before it, so work is split by
+ * cutting a run of whole subtrees in two. A run smaller than the threshold is standardized by one task
+ * in list order. Standardizing a node changes only the node and the nodes under it, so two tasks never
+ * change the same node.
+ *
+ * In a flat tree the nodes the rewrites add are reserved in the arena before any task starts. How many
+ * a node adds depends only on its type and number of children, so each node is given the indices the
+ * sequential pass would give it, and the arena is left exactly as the sequential pass leaves it. If
+ * standardizing fails, the error raised is the one the sequential pass would have stopped at.
+ */
+final class ParallelStandardizer{
+  // Trees smaller than this are not worth splitting at all.
+  static final int DEFAULT_THRESHOLD = 8 * 1024;
+
+  private final NodeArena arena;
+  // The nodes in the order the sequential pass standardizes them: flatNodes for a flat tree, else nodes
+  private final int[] flatNodes;
+  private final ASTNode[] nodes;
+  // For each entry of the list: the size of the subtree it is the root of
+  private final int[] sizes;
+  // For each entry of a flat tree's list: the first of the nodes reserved for its rewrite
+  private final int[] firstNewNodes;
+  private final int threshold;
+
+  private ParallelStandardizer(NodeArena arena, int[] flatNodes, ASTNode[] nodes, int[] sizes, int threshold){
+    this.arena = arena;
+    this.flatNodes = flatNodes;
+    this.nodes = nodes;
+    this.sizes = sizes;
+    this.threshold = Math.max(threshold, 1);
+    this.firstNewNodes = arena == null ? null : new int[sizes.length];
+  }
+
+  /**
+   * Tells whether there is more than one worker to split the work between.
+   *
+   * @return true if standardizing in parallel can be faster than the sequential pass.
+   */
+  static boolean isWorthSplitting(){
+    return ForkJoinPool.getCommonPoolParallelism() > 1;
+  }
+
+  /**
+   * Standardizes a flat tree, as AST.standardize does, with subtrees of at least the threshold size
+   * split between the workers of the common pool.
+   *
+   * @param arena The arena the tree's nodes are in.
+   * @param root The root of the tree.
+   * @param threshold The smallest number of nodes worth handing to a task of its own.
+   */
+  static void standardize(NodeArena arena, int root, int threshold){
+    // The list is built as in AST.standardize: a stack of the path to the current node, each entry
+    // with its next child to visit and the length the list had when it was reached
+    int[] list = new int[64];
+    int[] sizes = new int[64];
+    int count = 0;
+    int[] path = new int[64];
+    int[] nextChildren = new int[64];
+    int[] listStarts = new int[64];
+    int depth = 0;
+    path[depth] = root;
+    nextChildren[depth] = arena.getChild(root);
+    listStarts[depth++] = 0;
+    while(depth > 0){
+      int childNode = nextChildren[depth - 1];
+      if(childNode == NodeArena.NONE){
+        depth--;
+        if(count == list.length){
+          list = Arrays.copyOf(list, count * 2);
+          sizes = Arrays.copyOf(sizes, count * 2);
+        }
+        list[count] = path[depth];
+        sizes[count] = count - listStarts[depth] + 1;
+        count++;
+        continue;
+      }
+      nextChildren[depth - 1] = arena.getSibling(childNode);
+      if(depth == path.length){
+        path = Arrays.copyOf(path, depth * 2);
+        nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+        listStarts = Arrays.copyOf(listStarts, depth * 2);
+      }
+      path[depth] = childNode;
+      nextChildren[depth] = arena.getChild(childNode);
+      listStarts[depth++] = count;
+    }
+
+    ParallelStandardizer standardizer = new ParallelStandardizer(arena, Arrays.copyOf(list, count), null,
+                                                                 Arrays.copyOf(sizes, count), threshold);
+    // The sequential pass adds each node's new nodes when it reaches the node, so they follow in list order
+    int newNodeCount = 0;
+    for(int i = 0; i < count; i++){
+      standardizer.firstNewNodes[i] = newNodeCount;
+      newNodeCount += AST.addedNodeCount(arena, list[i]);
+    }
+    int firstNewNode = arena.reserve(newNodeCount);
+    for(int i = 0; i < count; i++)
+      standardizer.firstNewNodes[i] += firstNewNode;
+    standardizer.run();
+  }
+
+  /**
+   * Standardizes a tree of ASTNode objects, as AST.standardize does, with subtrees of at least the
+   * threshold size split between the workers of the common pool.
+   *
+   * @param root The root of the tree.
+   * @param threshold The smallest number of nodes worth handing to a task of its own.
+   */
+  static void standardize(ASTNode root, int threshold){
+    ArrayList<ASTNode> list = new ArrayList<ASTNode>();
+    int[] sizes = new int[64];
+    ArrayList<ASTNode> path = new ArrayList<ASTNode>();
+    ArrayList<ASTNode> nextChildren = new ArrayList<ASTNode>();
+    ArrayList<Integer> listStarts = new ArrayList<Integer>();
+    path.add(root);
+    nextChildren.add(root.getChild());
+    listStarts.add(0);
+    while(!path.isEmpty()){
+      int top = path.size() - 1;
+      ASTNode childNode = nextChildren.get(top);
+      if(childNode == null){
+        nextChildren.remove(top);
+        if(list.size() == sizes.length)
+          sizes = Arrays.copyOf(sizes, sizes.length * 2);
+        sizes[list.size()] = list.size() - listStarts.remove(top) + 1;
+        list.add(path.remove(top));
+        continue;
+      }
+      nextChildren.set(top, childNode.getSibling());
+      path.add(childNode);
+      nextChildren.add(childNode.getChild());
+      listStarts.add(list.size());
+    }
+    new ParallelStandardizer(null, null, list.toArray(new ASTNode[list.size()]),
+                             Arrays.copyOf(sizes, list.size()), threshold).run();
+  }
+
+  private void run(){
+    Run whole = new Run(0, sizes.length - 1);
+    if(sizes.length < threshold)
+      whole.compute();
+    else
+      ForkJoinPool.commonPool().invoke(whole);
+    if(whole.error != null)
+      throw whole.error;
+  }
+
+  /**
+   * A run of whole sibling subtrees of the list, from first to last. Unlike the sequential pass it
+   * carries on after an error, but it never standardizes a node with an error under it, and it keeps
+   * the error that comes first in the list.
+   */
+  private class Run extends RecursiveAction{
+    private static final long serialVersionUID = 1L;
+
+    private final int first;
+    private final int last;
+    private RuntimeException error;
+    private int errorIndex = Integer.MAX_VALUE;
+
+    Run(int first, int last){
+      this.first = first;
+      this.last = last;
+    }
+
+    @Override
+    protected void compute(){
+      // Roots whose subtrees are being worked on here, outermost first, and the runs forked under them
+      int[] roots = new int[16];
+      int rootCount = 0;
+      ArrayList<Run> forks = new ArrayList<Run>();
+      // For each fork: how many roots were waiting when it was forked
+      int[] forkDepths = new int[16];
+
+      int from = first;
+      int to = last;
+      while(to - from + 1 >= threshold){
+        int count = to - from + 1;
+        if(sizes[to] == count){
+          // A single subtree: its root waits until the subtrees under it are done
+          if(rootCount == roots.length)
+            roots = Arrays.copyOf(roots, rootCount * 2);
+          roots[rootCount++] = to;
+          to--;
+          continue;
+        }
+        // Several subtrees: take whole subtrees from the right until about half of the run is taken
+        int split = to + 1;
+        while(to - split + 1 < count / 2 && split - sizes[split - 1] > from)
+          split -= sizes[split - 1];
+        if(split - from >= threshold && to - split + 1 >= threshold){
+          Run left = new Run(from, split - 1);
+          left.fork();
+          if(forks.size() == forkDepths.length)
+            forkDepths = Arrays.copyOf(forkDepths, forks.size() * 2);
+          forkDepths[forks.size()] = rootCount;
+          forks.add(left);
+          from = split;
+        }
+        else if(split - from < to - split + 1){
+          standardizeList(from, split - 1);
+          from = split;
+        }
+        else{
+          standardizeList(split, to);
+          to = split - 1;
+        }
+      }
+      standardizeList(from, to);
+
+      // Standardize the waiting roots from the innermost out, each once the forks under it are joined
+      for(int i = rootCount - 1; i >= -1; i--){
+        while(!forks.isEmpty() && forkDepths[forks.size() - 1] > i){
+          Run fork = forks.remove(forks.size() - 1);
+          fork.join();
+          keepError(fork.error, fork.errorIndex);
+        }
+        if(i >= 0 && (errorIndex > roots[i] || errorIndex <= roots[i] - sizes[roots[i]]))
+          standardizeList(roots[i], roots[i]);
+      }
+    }
+
+    // Standardizes the entries from first to last in list order, as the sequential pass does
+    private void standardizeList(int from, int to){
+      for(int i = from; i <= to; i++){
+        try{
+          if(arena != null)
+            AST.standardizeNode(arena, flatNodes[i], firstNewNodes[i]);
+          else
+            AST.standardizeNode(nodes[i]);
+        }
+        catch(RuntimeException e){
+          keepError(e, i);
+          return;
+        }
+      }
+    }
+
+    private void keepError(RuntimeException e, int index){
+      if(e != null && index < errorIndex){
+        error = e;
+        errorIndex = index;
+      }
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package ast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import scanner.SymbolTable;
+
+/**
+ * The ProgramCache class keeps the standardized tree of a program in a file next to its source, so
+ * that running an unchanged program again skips scanning, parsing and standardizing. The file holds
+ * the format version, a SHA-256 hash of the source, the symbol table and the tree's arena, followed by
+ * a CRC-32 of all of those, and is read back with one bulk read. A file written by another version or
+ * for another source is ignored and written again, and so is a damaged one: the checksum must match,
+ * and each node of the arena must refer only to nodes, values and symbols the file holds.
+ *
+ * Only a tree as the parser builds it is kept. A tree shared by NodeInterner is not, since inlining,
+ * folding and typing cannot rewrite it, and the format version was raised past those that held one.
+ *
+ * The deltas are not kept: createDeltas builds them from the loaded tree in one walk.
+ */
+public final class ProgramCache{
+  public static final String EXTENSION = ".rpalc";
+  // "RPLC"
+  private static final int MAGIC = 0x52504C43;
+  private static final int FORMAT_VERSION = 3;
+  private static final int HASH_LENGTH = 32;
+
+  private ProgramCache(){
+  }
+
+  /**
+   * The function returns the path of the cache file kept for a source file.
+   *
+   * @param sourceFile The path of the source file.
+   * @return The path of its cache file.
+   */
+  public static Path cacheFileFor(String sourceFile){
+    return Paths.get(sourceFile + EXTENSION);
+  }
+
+  /**
+   * The function loads the standardized tree of a source from its cache file.
+   *
+   * @param sourceFile The path of the source file.
+   * @param source The bytes of the source as it is now, between the buffer's position and limit.
+   * @return The standardized AST, or null if there is no usable cache file for this source.
+   */
+  public static AST load(String sourceFile, ByteBuffer source){
+    byte[] bytes;
+    try{
+      bytes = Files.readAllBytes(cacheFileFor(sourceFile));
+    }
+    catch(IOException e){
+      return null; // Not cached yet, or not readable
+    }
+    try{
+      int length = bytes.length - 4;
+      if(length < 0 || ByteBuffer.wrap(bytes, length, 4).getInt() != checksum(bytes, length))
+        return null;
+      ByteBuffer in = ByteBuffer.wrap(bytes, 0, length);
+      if(in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION)
+        return null;
+      byte[] hash = new byte[HASH_LENGTH];
+      in.get(hash);
+      if(!Arrays.equals(hash, hash(source)))
+        return null;
+      SymbolTable symbolTable = new SymbolTable();
+      int symbolCount = in.getInt();
+      // Ids are handed out in order, so interning the names in order gives each its old id again
+      for(int id = symbolTable.size(); id < symbolCount; id++){
+        if(symbolTable.intern(readString(in)) != id)
+          return null;
+      }
+      NodeArena arena = NodeArena.read(in, symbolTable.size());
+      int root = in.getInt();
+      if(in.hasRemaining() || root <= NodeArena.NONE || root >= arena.size())
+        return null;
+      return new AST(arena, root, symbolTable, true);
+    }
+    catch(RuntimeException e){
+      return null; // A damaged file; the caller builds the tree again and replaces it
+    }
+  }
+
+  /**
+   * The function writes the cache file for a source. The file is written under another name and then
+   * moved into place, so that a run reading it at the same time never sees half of it. A cache that
+   * cannot be written is simply not kept.
+   *
+   * @param sourceFile The path of the source file.
+   * @param source The bytes of the source the tree was built from, between the buffer's position and
+   * limit.
+   * @param ast The standardized tree, as built by the parser.
+   */
+  public static void store(String sourceFile, ByteBuffer source, AST ast){
+    if(ast.getArena() == null || !ast.isStandardized())
+      return;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(DataOutputStream out = new DataOutputStream(bytes)){
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.write(hash(source));
+      SymbolTable symbolTable = ast.getSymbolTable();
+      out.writeInt(symbolTable.size());
+      for(int id = new SymbolTable().size(); id < symbolTable.size(); id++)
+        writeString(out, symbolTable.getName(id));
+      ast.getArena().write(out);
+      out.writeInt(ast.getFlatRoot());
+      out.flush();
+      out.writeInt(checksum(bytes.toByteArray(), bytes.size()));
+    }
+    catch(IOException e){
+      throw new IllegalStateException(e); // Writing to memory does not fail
+    }
+    Path file = cacheFileFor(sourceFile);
+    Path temporary = null;
+    try{
+      temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+      Files.write(temporary, bytes.toByteArray());
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch(IOException e){
+      try{
+        if(temporary != null)
+          Files.deleteIfExists(temporary);
+      }
+      catch(IOException ignored){
+      }
+    }
+  }
+
+  // The CRC-32 of the first length bytes, which the file ends with.
+  private static int checksum(byte[] bytes, int length){
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, length);
+    return (int) crc.getValue();
+  }
+
+  // The hash of a source, read from a duplicate of its buffer so that the buffer's position is kept.
+  private static byte[] hash(ByteBuffer source){
+    try{
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(source.duplicate());
+      return digest.digest();
+    }
+    catch(NoSuchAlgorithmException e){
+      throw new IllegalStateException(e); // Every Java platform provides SHA-256
+    }
+  }
+
+  // Strings are kept as a length and their UTF-8 bytes, which unlike writeUTF allows any length.
+  static void writeString(DataOutputStream out, String value) throws IOException{
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(ByteBuffer in){
+    int length = in.getInt();
+    String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+    in.position(in.position() + length);
+    return value;
+  }
+}
@@ -0,0 +1,157 @@
+package ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The TreePrinter class prints a tree in the -ast/-st format: one line per node in pre-order, each
+ * indented by one dot per level of depth. It walks the tree with an explicit stack, so no depth of
+ * nesting can overflow the Java stack, and it takes the dots of each line from one reusable buffer
+ * rather than building a longer prefix String at every level.
+ *
+ * Lines are gathered in a large buffer that is handed to System.out a chunk at a time, instead of
+ * each line being written, and flushed, on its own. The bytes printed are the ones printf and println
+ * printed line by line: a node with a value ends its line with '\n', any other node with the line
+ * separator.
+ */
+final class TreePrinter{
+  // Gathered output is written out once it grows past this many chars.
+  private static final int CHUNK = 64 * 1024;
+  private static final ASTNodeType[] NODE_TYPES = ASTNodeType.values();
+  private static final String[] BEFORE_VALUES = new String[NODE_TYPES.length];
+  private static final String[] AFTER_VALUES = new String[NODE_TYPES.length];
+  static{
+    // A print name such as "<ID:%s>" is split around where the value goes
+    for(ASTNodeType type : NODE_TYPES){
+      String printName = type.getPrintName();
+      int value = printName.indexOf("%s");
+      if(hasValue(type) && value >= 0){
+        BEFORE_VALUES[type.ordinal()] = printName.substring(0, value);
+        AFTER_VALUES[type.ordinal()] = printName.substring(value + 2) + "\n";
+      }
+      else
+        BEFORE_VALUES[type.ordinal()] = printName + System.lineSeparator();
+    }
+  }
+
+  private final StringBuilder out;
+  // False for a printer that only gathers the lines, for the caller to read from its buffer
+  private final boolean printing;
+  private char[] dots = new char[64];
+
+  TreePrinter(){
+    this(new StringBuilder(CHUNK + 256), true);
+  }
+
+  // A printer that appends the lines to the given buffer instead of printing them.
+  TreePrinter(StringBuilder out){
+    this(out, false);
+  }
+
+  private TreePrinter(StringBuilder out, boolean printing){
+    this.out = out;
+    this.printing = printing;
+    Arrays.fill(dots, '.');
+  }
+
+  private static boolean hasValue(ASTNodeType type){
+    return type == ASTNodeType.IDENTIFIER || type == ASTNodeType.INTEGER || type == ASTNodeType.STRING;
+  }
+
+  /**
+   * Prints the tree of ASTNode objects under a node, and the trees of the node's siblings after it.
+   *
+   * @param node The first node to print.
+   */
+  void print(ASTNode node){
+    // The siblings still to print once the subtree being printed is done, with their depths
+    ArrayList<ASTNode> pending = new ArrayList<ASTNode>();
+    int[] pendingDepths = new int[64];
+    int depth = 0;
+    while(node != null){
+      printLine(node.getType(), node.getValue(), depth);
+      ASTNode sibling = node.getSibling();
+      if(node.getChild() != null){
+        if(sibling != null){
+          if(pending.size() == pendingDepths.length)
+            pendingDepths = Arrays.copyOf(pendingDepths, pending.size() * 2);
+          pendingDepths[pending.size()] = depth;
+          pending.add(sibling);
+        }
+        node = node.getChild();
+        depth++;
+      }
+      else if(sibling != null)
+        node = sibling;
+      else if(!pending.isEmpty()){
+        depth = pendingDepths[pending.size() - 1];
+        node = pending.remove(pending.size() - 1);
+      }
+      else
+        node = null;
+    }
+    flush();
+  }
+
+  /**
+   * Prints the tree under a node of a flat tree, and the trees of the node's siblings after it.
+   *
+   * @param arena The arena the tree's nodes are in.
+   * @param node The first node to print.
+   */
+  void print(NodeArena arena, int node){
+    int[] pending = new int[64];
+    int[] pendingDepths = new int[64];
+    int pendingCount = 0;
+    int depth = 0;
+    while(node != NodeArena.NONE){
+      printLine(arena.getType(node), arena.getValue(node), depth);
+      int child = arena.getChild(node);
+      int sibling = arena.getSibling(node);
+      if(child != NodeArena.NONE){
+        if(sibling != NodeArena.NONE){
+          if(pendingCount == pending.length){
+            pending = Arrays.copyOf(pending, pendingCount * 2);
+            pendingDepths = Arrays.copyOf(pendingDepths, pendingCount * 2);
+          }
+          pending[pendingCount] = sibling;
+          pendingDepths[pendingCount++] = depth;
+        }
+        node = child;
+        depth++;
+      }
+      else if(sibling != NodeArena.NONE)
+        node = sibling;
+      else if(pendingCount > 0){
+        node = pending[--pendingCount];
+        depth = pendingDepths[pendingCount];
+      }
+      else
+        node = NodeArena.NONE;
+    }
+    flush();
+  }
+
+  private void printLine(ASTNodeType type, String value, int depth){
+    if(depth > dots.length){
+      dots = new char[Math.max(depth, dots.length * 2)];
+      Arrays.fill(dots, '.');
+    }
+    out.append(dots, 0, depth).append(BEFORE_VALUES[type.ordinal()]);
+    String afterValue = AFTER_VALUES[type.ordinal()];
+    if(afterValue != null)
+      out.append(value).append(afterValue);
+    if(printing && out.length() >= CHUNK){
+      System.out.print(out);
+      out.setLength(0);
+    }
+  }
+
+  private void flush(){
+    if(!printing)
+      return;
+    System.out.print(out);
+    out.setLength(0);
+    System.out.flush();
+  }
+}
@@ -0,0 +1,591 @@
+package ast;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import csem.Builtin;
+import scanner.SymbolTable;
+
+/**
+ * The TypeInferencer class infers the types of a standardized flat tree, Hindley-Milner style, so that
+ * the CSE machine can skip the type checks of the operations whose operand types are proven. Lets are
+ * polymorphic; a lambda's variable has one type. Tuples are not typed: a tuple, and anything taken
+ * out of one, has the dynamic type, as has an operand that is bound to a tuple of several names.
+ *
+ * The dynamic type stands for values of any type, so whatever is equated with it becomes dynamic too,
+ * and so does a type that would have to be two things at once, as a name used both as an integer and
+ * as a string is. The types of a function that becomes dynamic become dynamic in turn, since it may be
+ * called with anything. A site is only specialized if its operands' types are still known at the end,
+ * so every value that can reach it has that type, and its check could never fail:
+ *
+ * - an arithmetic or relational operator, or neg, whose operands are integers;
+ * - eq or ne, whose operands are both integers, both strings or both truthvalues;
+ * - or, &amp; or not, whose operands are truthvalues;
+ * - a conditional whose condition is a truthvalue.
+ *
+ * The type an operation is specialized for is recorded as the specialization of its node, in the
+ * arena and in the CSE machine's control structures; its value is left alone. Conc is only typed where it is applied to both its operands at once, as the CSE machine
+ * evaluates it.
+ */
+public final class TypeInferencer extends BindingWalk{
+  // The specializations recorded on nodes: the type of their operands, or none
+  public static final byte UNTYPED = 0;
+  public static final byte INTEGER = 1;
+  public static final byte STRING = 2;
+  public static final byte TRUTHVALUE = 3;
+
+  // Kinds of type
+  private static final int VAR = 0;
+  private static final int INT = 1;
+  private static final int STR = 2;
+  private static final int BOOL = 3;
+  private static final int DYN = 4;
+  private static final int ARROW = 5;
+  // The level of a variable that a let has generalized
+  private static final int GENERIC = Integer.MAX_VALUE;
+  // For each symbol while the tree is walked when no lambda around binds it
+  private static final int UNBOUND = -1;
+  // The most lines of dynamic sites listed in the report
+  private static final int MAX_LINES_REPORTED = 10;
+
+  // Site categories, in the order they are reported
+  private static final int ARITHMETIC = 0;
+  private static final int RELATIONAL = 1;
+  private static final int EQUALITY = 2;
+  private static final int BOOLEAN = 3;
+  private static final int CONDITIONAL = 4;
+  private static final String[] CATEGORY_NAMES = {"arithmetic", "relational", "equality", "boolean", "conditional"};
+
+  private final Builtin[] builtins;
+  // The type of each node once it is walked, and of each bound variable
+  private final int[] nodeTypes;
+  // The identifiers of Conc applied to both its operands at once
+  private final boolean[] concSites;
+  // The number of lets whose operand is being walked
+  private int level;
+
+  // Types, each a union-find node of a kind, with the operand and result of an arrow
+  private int[] kinds = new int[256];
+  private int[] links = new int[256];
+  private int[] operands = new int[256];
+  private int[] results = new int[256];
+  private int[] levels = new int[256];
+  private int typeCount;
+  // Scratch space for walking types: a mark per type, the copy an instantiation made of it, a stack
+  private int[] marks = new int[256];
+  private int[] copies = new int[256];
+  private int epoch;
+  private int[] work = new int[64];
+  private int workCount;
+
+  // The sites met, and for each category how many there were and how many were specialized
+  private int[] sites = new int[64];
+  private int siteCount;
+  private final int[] siteCounts = new int[CATEGORY_NAMES.length];
+  private final int[] specializedCounts = new int[CATEGORY_NAMES.length];
+  private final TreeSet<Integer> dynamicLines = new TreeSet<Integer>();
+
+  private TypeInferencer(NodeArena arena, SymbolTable symbolTable){
+    super(arena, symbolTable.size(), UNBOUND);
+    this.builtins = Builtin.bySymbol(symbolTable);
+    this.nodeTypes = new int[arena.size()];
+    this.concSites = new boolean[arena.size()];
+  }
+
+  /**
+   * The function infers the types of a standardized flat tree and records, as the specialization of
+   * each operator and conditional node whose operand types are proven, the type it is specialized for.
+   *
+   * @param arena The arena the tree's nodes are in.
+   * @param root The root of the tree.
+   * @param symbolTable The table the tree's identifiers were interned into.
+   * @return The inferencer, which reports the sites it specialized, or null if the tree shares nodes
+   * and was left as it was.
+   */
+  static TypeInferencer infer(NodeArena arena, int root, SymbolTable symbolTable){
+    if(arena.sharesNodes(root))
+      return null;
+    TypeInferencer inferencer = new TypeInferencer(arena, symbolTable);
+    inferencer.walk(root);
+    inferencer.specialize();
+    return inferencer;
+  }
+
+  // A name has an instance of its binding's type, or the type of the builtin it names.
+  @Override
+  void enterName(int node){
+    nodeTypes[node] = typeOfName(node);
+  }
+
+  @Override
+  void enterApplication(int gamma){
+    markConc(arena.getChild(gamma));
+  }
+
+  // A let's operand is typed one level in, so that the variables it makes can be generalized.
+  @Override
+  void enterLet(int gamma){
+    level++;
+  }
+
+  // The operand of a let is done: the lambda's variables are bound to its generalized type.
+  @Override
+  void bindLet(int variables, int operand){
+    level--;
+    generalize(nodeTypes[operand]);
+    bind(variables, operand);
+  }
+
+  // A let has the type of its body.
+  @Override
+  void exitLet(int gamma){
+    int variables = arena.getChild(arena.getChild(gamma));
+    nodeTypes[gamma] = nodeTypes[arena.getSibling(variables)];
+  }
+
+  @Override
+  void exitLambda(int lambda){
+    int variables = arena.getChild(lambda);
+    nodeTypes[lambda] = newType(ARROW, nodeTypes[variables], nodeTypes[arena.getSibling(variables)]);
+  }
+
+  @Override
+  void exitNode(int node){
+    typeNode(node);
+  }
+
+  /**
+   * The function binds the variables of a lambda while its body is walked. A single variable gets the
+   * type of the operand the lambda is applied to where it stands, else a new type variable; variables
+   * bound to the parts of a tuple are dynamic, and the tuple's type with them.
+   *
+   * @param variables The lambda's bound variable, or the comma node of its bound variables.
+   * @param operand The operand the lambda is applied to, or NONE if it is not applied where it stands.
+   */
+  @Override
+  void bind(int variables, int operand){
+    ASTNodeType type = arena.getType(variables);
+    if(type == ASTNodeType.IDENTIFIER){
+      nodeTypes[variables] = operand != NodeArena.NONE ? nodeTypes[operand] : newType(VAR, 0, 0);
+      bindSymbol(arena.getSymbol(variables), nodeTypes[variables]);
+      return;
+    }
+    nodeTypes[variables] = newType(DYN, 0, 0);
+    if(type != ASTNodeType.COMMA)
+      return;
+    if(operand != NodeArena.NONE)
+      unify(nodeTypes[operand], nodeTypes[variables]);
+    for(int variable = arena.getChild(variables); variable != NodeArena.NONE; variable = arena.getSibling(variable))
+      bindSymbol(arena.getSymbol(variable), newType(DYN, 0, 0));
+  }
+
+  // Notes the Conc of a gamma that applies Conc to its first operand and is applied to the second.
+  private void markConc(int rator){
+    if(arena.getType(rator) != ASTNodeType.GAMMA)
+      return;
+    int name = arena.getChild(rator);
+    if(arena.getType(name) == ASTNodeType.IDENTIFIER && builtinOf(name) == Builtin.CONC)
+      concSites[name] = true;
+  }
+
+  // The builtin an identifier names where it is used, or null.
+  private Builtin builtinOf(int node){
+    int symbol = arena.getSymbol(node);
+    if(bindings[symbol] != UNBOUND || symbol >= builtins.length)
+      return null;
+    return builtins[symbol];
+  }
+
+  // The type of a name: an instance of its binding's type, or the type of the builtin it names.
+  private int typeOfName(int node){
+    int binding = bindings[arena.getSymbol(node)];
+    if(binding != UNBOUND)
+      return instantiate(binding);
+    Builtin builtin = builtinOf(node);
+    if(builtin == null)
+      return newType(DYN, 0, 0);
+    switch(builtin){
+      case ISINTEGER:
+      case ISSTRING:
+      case ISTUPLE:
+      case ISDUMMY:
+      case ISTRUTHVALUE:
+      case ISFUNCTION:
+        return newType(ARROW, newType(VAR, 0, 0), newType(BOOL, 0, 0));
+      case ITOS:
+        return newType(ARROW, newType(INT, 0, 0), newType(STR, 0, 0));
+      case ORDER:
+        return newType(ARROW, newType(DYN, 0, 0), newType(INT, 0, 0));
+      case NULL:
+        return newType(ARROW, newType(DYN, 0, 0), newType(BOOL, 0, 0));
+      case STEM:
+      case STERN:
+        return newType(ARROW, newType(STR, 0, 0), newType(STR, 0, 0));
+      case CONC:
+        if(!concSites[node])
+          return newType(DYN, 0, 0);
+        return newType(ARROW, newType(STR, 0, 0), newType(ARROW, newType(STR, 0, 0), newType(STR, 0, 0)));
+      case PRINT:
+        return newType(ARROW, newType(VAR, 0, 0), newType(DYN, 0, 0));
+      default:
+        return newType(DYN, 0, 0);
+    }
+  }
+
+  // Types a node other than a name or a lambda from the types of the nodes under it.
+  private void typeNode(int node){
+    int rand1 = arena.getChild(node);
+    int rand2 = rand1 == NodeArena.NONE ? NodeArena.NONE : arena.getSibling(rand1);
+    int type;
+    switch(arena.getType(node)){
+      case INTEGER:
+        type = newType(INT, 0, 0);
+        break;
+      case STRING:
+        type = newType(STR, 0, 0);
+        break;
+      case TRUE:
+      case FALSE:
+        type = newType(BOOL, 0, 0);
+        break;
+      case YSTAR: {
+        // (t -> t) -> t
+        int t = newType(VAR, 0, 0);
+        type = newType(ARROW, newType(ARROW, t, t), t);
+        break;
+      }
+      case GAMMA:
+        type = newType(VAR, 0, 0);
+        unify(nodeTypes[rand1], newType(ARROW, nodeTypes[rand2], type));
+        break;
+      case PLUS:
+      case MINUS:
+      case MULT:
+      case DIV:
+      case EXP:
+        type = operands(node, ARITHMETIC, INT, rand1, rand2, INT);
+        break;
+      case LS:
+      case LE:
+      case GR:
+      case GE:
+        type = operands(node, RELATIONAL, INT, rand1, rand2, BOOL);
+        break;
+      case EQ:
+      case NE:
+        unify(nodeTypes[rand1], nodeTypes[rand2]);
+        addSite(node);
+        type = newType(BOOL, 0, 0);
+        break;
+      case OR:
+      case AND:
+        type = operands(node, BOOLEAN, BOOL, rand1, rand2, BOOL);
+        break;
+      case NOT:
+        type = operands(node, BOOLEAN, BOOL, rand1, NodeArena.NONE, BOOL);
+        break;
+      case NEG:
+        type = operands(node, ARITHMETIC, INT, rand1, NodeArena.NONE, INT);
+        break;
+      case CONDITIONAL:
+        unify(nodeTypes[rand1], newType(BOOL, 0, 0));
+        addSite(node);
+        type = nodeTypes[rand2];
+        unify(type, nodeTypes[arena.getSibling(rand2)]);
+        break;
+      default:
+        // A tuple, aug, nil, dummy or anything else is dynamic, and so is what goes into it
+        for(int c = rand1; c != NodeArena.NONE; c = arena.getSibling(c))
+          escape(nodeTypes[c]);
+        type = newType(DYN, 0, 0);
+        break;
+    }
+    nodeTypes[node] = type;
+  }
+
+  // Types the operands of an operator as the kind it takes, and notes the site.
+  private int operands(int node, int category, int operandKind, int rand1, int rand2, int resultKind){
+    unify(nodeTypes[rand1], newType(operandKind, 0, 0));
+    if(rand2 != NodeArena.NONE)
+      unify(nodeTypes[rand2], newType(operandKind, 0, 0));
+    addSite(node);
+    return newType(resultKind, 0, 0);
+  }
+
+  private void addSite(int node){
+    if(siteCount == sites.length)
+      sites = Arrays.copyOf(sites, siteCount * 2);
+    sites[siteCount++] = node;
+  }
+
+  /**
+   * The function records on each site whose operand types are known at the end the type it is
+   * specialized for, and counts the sites of each category.
+   */
+  private void specialize(){
+    for(int i = 0; i < siteCount; i++){
+      int node = sites[i];
+      int rand1 = arena.getChild(node);
+      int rand2 = arena.getSibling(rand1);
+      int kind = kinds[find(nodeTypes[rand1])];
+      int category;
+      switch(arena.getType(node)){
+        case LS:
+        case LE:
+        case GR:
+        case GE:
+          category = RELATIONAL;
+          break;
+        case EQ:
+        case NE:
+          category = EQUALITY;
+          if(kinds[find(nodeTypes[rand2])] != kind)
+            kind = DYN;
+          break;
+        case OR:
+        case AND:
+        case NOT:
+          category = BOOLEAN;
+          break;
+        case CONDITIONAL:
+          category = CONDITIONAL;
+          break;
+        default:
+          category = ARITHMETIC;
+          break;
+      }
+      // Binary operators other than eq and ne were given one kind for both operands
+      if(category != EQUALITY && category != CONDITIONAL && rand2 != NodeArena.NONE
+         && kinds[find(nodeTypes[rand2])] != kind)
+        kind = DYN;
+      siteCounts[category]++;
+      byte specializedFor = kind == INT ? INTEGER : kind == STR ? STRING : kind == BOOL ? TRUTHVALUE : UNTYPED;
+      if(specializedFor == UNTYPED){
+        dynamicLines.add(arena.getSourceLineNumber(node));
+        continue;
+      }
+      arena.setSpecialization(node, specializedFor);
+      specializedCounts[category]++;
+    }
+  }
+
+  private int newType(int kind, int operand, int result){
+    if(typeCount == kinds.length){
+      int length = typeCount * 2;
+      kinds = Arrays.copyOf(kinds, length);
+      links = Arrays.copyOf(links, length);
+      operands = Arrays.copyOf(operands, length);
+      results = Arrays.copyOf(results, length);
+      levels = Arrays.copyOf(levels, length);
+      marks = Arrays.copyOf(marks, length);
+      copies = Arrays.copyOf(copies, length);
+    }
+    kinds[typeCount] = kind;
+    links[typeCount] = typeCount;
+    operands[typeCount] = operand;
+    results[typeCount] = result;
+    levels[typeCount] = level;
+    return typeCount++;
+  }
+
+  // The type a type has been equated with, shortening the path to it.
+  private int find(int type){
+    int root = type;
+    while(links[root] != root)
+      root = links[root];
+    while(links[type] != root){
+      int next = links[type];
+      links[type] = root;
+      type = next;
+    }
+    return root;
+  }
+
+  private void push(int type){
+    if(workCount == work.length)
+      work = Arrays.copyOf(work, workCount * 2);
+    work[workCount++] = type;
+  }
+
+  /**
+   * The function equates two types. Where they cannot be equal, or one is dynamic, both become
+   * dynamic, and so do the types inside them.
+   */
+  private void unify(int a, int b){
+    int base = workCount;
+    push(a);
+    push(b);
+    while(workCount > base){
+      b = find(work[--workCount]);
+      a = find(work[--workCount]);
+      if(a == b)
+        continue;
+      int kindA = kinds[a];
+      int kindB = kinds[b];
+      if(kindA == DYN || kindB == DYN){
+        collapse(a);
+        collapse(b);
+        links[a] = b;
+      }
+      else if(kindA == VAR)
+        bindVariable(a, b);
+      else if(kindB == VAR)
+        bindVariable(b, a);
+      else if(kindA == ARROW && kindB == ARROW){
+        links[a] = b;
+        push(operands[a]);
+        push(operands[b]);
+        push(results[a]);
+        push(results[b]);
+      }
+      else if(kindA == kindB)
+        links[a] = b;
+      else{
+        collapse(a);
+        collapse(b);
+        links[a] = b;
+      }
+    }
+  }
+
+  // Equates a variable with a type, which then lives as long as the variable's let does; a type that
+  // would have to contain itself becomes dynamic.
+  private void bindVariable(int variable, int type){
+    boolean occurs = false;
+    int base = workCount;
+    epoch++;
+    push(type);
+    while(workCount > base){
+      int t = find(work[--workCount]);
+      if(marks[t] == epoch)
+        continue;
+      marks[t] = epoch;
+      if(t == variable)
+        occurs = true;
+      else if(kinds[t] == VAR)
+        levels[t] = Math.min(levels[t], levels[variable]);
+      else if(kinds[t] == ARROW){
+        push(operands[t]);
+        push(results[t]);
+      }
+    }
+    if(occurs)
+      collapse(type);
+    links[variable] = find(type);
+  }
+
+  // Makes a type dynamic, and the types inside it.
+  private void collapse(int type){
+    int base = workCount;
+    push(type);
+    while(workCount > base){
+      int t = find(work[--workCount]);
+      if(kinds[t] == DYN)
+        continue;
+      if(kinds[t] == ARROW){
+        push(operands[t]);
+        push(results[t]);
+      }
+      kinds[t] = DYN;
+    }
+  }
+
+  // Makes a type dynamic unless it is already known to be an integer, a string or a truthvalue: a value
+  // that goes where it can be taken out as anything, and a function called with anything.
+  private void escape(int type){
+    int kind = kinds[find(type)];
+    if(kind != INT && kind != STR && kind != BOOL)
+      collapse(type);
+  }
+
+  // Marks the variables of a let's operand type that no enclosing scope can see as generic.
+  private void generalize(int type){
+    int base = workCount;
+    epoch++;
+    push(type);
+    while(workCount > base){
+      int t = find(work[--workCount]);
+      if(marks[t] == epoch)
+        continue;
+      marks[t] = epoch;
+      if(kinds[t] == VAR && levels[t] > level)
+        levels[t] = GENERIC;
+      else if(kinds[t] == ARROW){
+        push(operands[t]);
+        push(results[t]);
+      }
+    }
+  }
+
+  /**
+   * The function makes an instance of a type for a use of a name, with a new variable for each generic
+   * one. Only the arrows around generic variables are copied: the rest is shared with the binding, so
+   * a use that makes part of it dynamic makes the name's type dynamic there too.
+   */
+  private int instantiate(int type){
+    type = find(type);
+    if(kinds[type] != ARROW && !(kinds[type] == VAR && levels[type] == GENERIC))
+      return type;
+    int base = workCount;
+    epoch++;
+    push(type);
+    while(workCount > base){
+      int t = find(work[workCount - 1]);
+      if(marks[t] == epoch){
+        workCount--;
+        continue;
+      }
+      if(kinds[t] == ARROW){
+        int operand = find(operands[t]);
+        int result = find(results[t]);
+        if(marks[operand] != epoch || marks[result] != epoch){
+          if(marks[operand] != epoch)
+            push(operand);
+          if(marks[result] != epoch)
+            push(result);
+          continue;
+        }
+        int copy = t;
+        if(copies[operand] != operand || copies[result] != result)
+          copy = newType(ARROW, copies[operand], copies[result]);
+        copies[t] = copy;
+      }
+      else
+        copies[t] = kinds[t] == VAR && levels[t] == GENERIC ? newType(VAR, 0, 0) : t;
+      marks[t] = epoch;
+      workCount--;
+    }
+    return copies[type];
+  }
+
+  @Override
+  public String toString(){
+    int sites = 0;
+    int specialized = 0;
+    StringBuilder counts = new StringBuilder();
+    for(int category = 0; category < CATEGORY_NAMES.length; category++){
+      sites += siteCounts[category];
+      specialized += specializedCounts[category];
+      counts.append(category == 0 ? "" : category == CATEGORY_NAMES.length - 1 ? " and " : ", ")
+            .append(specializedCounts[category]).append(" of ").append(siteCounts[category])
+            .append(' ').append(CATEGORY_NAMES[category]);
+    }
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("Typed %d of %d sites: %s", specialized, sites, counts));
+    if(!dynamicLines.isEmpty()){
+      report.append("; dynamic on line");
+      if(dynamicLines.size() > 1)
+        report.append('s');
+      int listed = 0;
+      for(int line : dynamicLines){
+        if(listed == MAX_LINES_REPORTED){
+          report.append(" and ").append(dynamicLines.size() - listed).append(" more");
+          break;
+        }
+        report.append(listed == 0 ? " " : ", ").append(line);
+        listed++;
+      }
+    }
+    return report.toString();
+  }
+}
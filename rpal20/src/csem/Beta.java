@@ -19,15 +19,6 @@ public class Beta extends ASTNode{
   }
   
 
-   //Accepts a NodeCopier visitor and returns a copied instance of this Beta node.
-   //nodeCopier The NodeCopier visitor used for copying nodes.
-   //A new Beta node that is a copy of this node.
-
-
-  public Beta accept(NodeCopier nodeCopier){
-    return nodeCopier.copy(this);
-  }
-
   //Gets the 'thenBody' of this Beta node.
   //The 'thenBody' stack containing ASTNodes.
   public Stack<ASTNode> getThenBody(){
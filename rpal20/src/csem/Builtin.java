@@ -0,0 +1,49 @@
+package csem;
+
+import scanner.SymbolTable;
+
+// The Builtin enum lists the reserved identifiers that the CSE machine evaluates itself, together with
+// the spellings each one is known by. The machine maps symbol ids to these constants once, so applying
+// a builtin is an array lookup instead of a switch over Strings.
+
+public enum Builtin{
+  ISINTEGER("Isinteger"),
+  ISSTRING("Isstring"),
+  ISTUPLE("Istuple"),
+  ISDUMMY("Isdummy"),
+  ISTRUTHVALUE("Istruthvalue"),
+  ISFUNCTION("Isfunction"),
+  ITOS("ItoS"),
+  ORDER("Order"),
+  CONC("Conc", "conc"), // Typing errors
+  STERN("Stern"),
+  STEM("Stem"),
+  NULL("Null"),
+  PRINT("Print", "print"), // Typing errors
+  NEG("neg");
+
+  private String[] names;
+
+  private Builtin(String... names){
+    this.names = names;
+  }
+
+  /**
+   * The function builds a table that maps every symbol id to the builtin it names, interning the
+   * builtin names into the given symbol table if the program never mentioned them.
+   *
+   * @param symbolTable The table the program's identifiers were interned into.
+   * @return An array indexed by symbol id, holding null for ids that do not name a builtin.
+   */
+  public static Builtin[] bySymbol(SymbolTable symbolTable){
+    for(Builtin builtin : values())
+      for(String name : builtin.names)
+        symbolTable.intern(name);
+
+    Builtin[] table = new Builtin[symbolTable.size()];
+    for(Builtin builtin : values())
+      for(String name : builtin.names)
+        table[symbolTable.intern(name)] = builtin;
+    return table;
+  }
+}
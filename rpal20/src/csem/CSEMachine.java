@@ -1,24 +1,27 @@
 package csem;
 
-import java.util.Arrays;
-import java.util.List;
 import java.util.Stack;
 import ast.AST;
 import ast.ASTNode;
 import ast.ASTNodeType;
+import ast.TypeInferencer;
 
 public class CSEMachine{
 
   private Stack<ASTNode> valueStack;
   private Delta rootDelta;
+  // Maps a symbol id to the builtin it names, or to null.
+  private Builtin[] builtins;
 
   // The above code is defining a constructor for a class called CSEMachine. The constructor takes an
   // AST (Abstract Syntax Tree) as a parameter.
   public CSEMachine(AST ast){
     if(!ast.isStandardized())
       throw new RuntimeException("AST has NOT been standardized!"); 
+    // Every identifier is given its lexical address, and an undeclared one is reported, before evaluation
     rootDelta = ast.createDeltas();
-    rootDelta.setLinkedEnv(new Environment()); 
+    builtins = Builtin.bySymbol(ast.getSymbolTable());
+    rootDelta.setLinkedEnv(new Environment(null, rootDelta.getFrameSize())); 
     valueStack = new Stack<ASTNode>();
   }
 
@@ -80,8 +83,8 @@ public class CSEMachine{
                 applyGamma(currentDelta, node, currentEnv, currentControlStack);
                 break;
             case DELTA:
-                ((Delta) node).setLinkedEnv(currentEnv); // RULE 2
-                // Fallthrough to default case
+                valueStack.push(closeDelta((Delta) node, currentEnv)); // RULE 2
+                break;
             default:
                 valueStack.push(node);
                 break;
@@ -90,6 +93,22 @@ public class CSEMachine{
 }
 
 
+  /**
+   * The function makes the closure of a delta on the control stack, linked to its environment, to be
+   * pushed onto the value stack. A closure keeps only the values its body uses from outside, not the
+   * environment it is made in; a merged delta binds its variables in the environment it is pushed in.
+   * The delta in the body is left as it is, since the body may be running in other environments too.
+   * 
+   * @param delta The delta on the control stack.
+   * @param currentEnv The environment it is pushed in.
+   * @return The closure.
+   */
+  private Delta closeDelta(Delta delta, Environment currentEnv){
+    if(delta.isMerged())
+      return delta.close(currentEnv);
+    return delta.close(currentEnv.capture(delta.getCaptureDepths(), delta.getCaptureSlots()));
+  }
+
   // RULE 6
   /**
    * The function applies a binary operation based on the type of the given ASTNode and returns true if
@@ -110,15 +129,15 @@ public class CSEMachine{
         case LE:
         case GR:
         case GE:
-            binaryArithmeticOp(rator.getType());
+            binaryArithmeticOp(rator.getType(), rator.getSpecialization() != TypeInferencer.UNTYPED);
             break;
         case EQ:
         case NE:
-            binaryLogicalEqNeOp(rator.getType());
+            binaryLogicalEqNeOp(rator.getType(), rator.getSpecialization());
             break;
         case OR:
         case AND:
-            binaryLogicalOrAndOp(rator.getType());
+            binaryLogicalOrAndOp(rator.getType(), rator.getSpecialization() != TypeInferencer.UNTYPED);
             break;
         case AUG:
             augTuples();
@@ -137,11 +156,12 @@ public class CSEMachine{
    * @param type The parameter `type` is of type `ASTNodeType`, which is an enumeration representing
    * different types of AST nodes. It is used to determine the specific binary arithmetic operation to
    * perform.
+   * @param typed Whether type inference proved both operands integers, so they are not checked.
    */
-  private void binaryArithmeticOp(ASTNodeType type) {
+  private void binaryArithmeticOp(ASTNodeType type, boolean typed) {
     ASTNode rand1 = valueStack.pop();
     ASTNode rand2 = valueStack.pop();
-    if (rand1.getType() != ASTNodeType.INTEGER || rand2.getType() != ASTNodeType.INTEGER) {
+    if (!typed && (rand1.getType() != ASTNodeType.INTEGER || rand2.getType() != ASTNodeType.INTEGER)) {
         EvaluationError.printError(rand1.getSourceLineNumber(),
                 "Expected two integers; was given \"" + rand1.getValue() + "\", \"" + rand2.getValue() + "\"");
     }
@@ -208,11 +228,26 @@ private ASTNode getFalseNode() {
    * @param type The parameter "type" is of type ASTNodeType, which is an enumeration representing
    * different types of AST nodes. It is used to determine the type of binary logical equality or
    * inequality operation being performed.
+   * @param typed The type inference proved both operands to have, or TypeInferencer.UNTYPED.
    */
-  private void binaryLogicalEqNeOp(ASTNodeType type) {
+  private void binaryLogicalEqNeOp(ASTNodeType type, byte typed) {
     ASTNode rand1 = valueStack.pop();
     ASTNode rand2 = valueStack.pop();
 
+    if (typed != TypeInferencer.UNTYPED) {
+        switch (typed) {
+            case TypeInferencer.INTEGER:
+                compareIntegers(rand1, rand2, type);
+                return;
+            case TypeInferencer.STRING:
+                compareStrings(rand1, rand2, type);
+                return;
+            default:
+                compareTruthValues(rand1, rand2, type);
+                return;
+        }
+    }
+
     if (rand1.getType() == ASTNodeType.TRUE || rand1.getType() == ASTNodeType.FALSE) {
         if (rand2.getType() != ASTNodeType.TRUE && rand2.getType() != ASTNodeType.FALSE) {
             EvaluationError.printError(rand1.getSourceLineNumber(),
@@ -315,12 +350,13 @@ private ASTNode getFalseNode() {
    * 
    * @param type The parameter "type" is of type ASTNodeType, which is an enumeration representing
    * different types of AST nodes.
+   * @param typed Whether type inference proved both operands truthvalues, so they are not checked.
    */
-  private void binaryLogicalOrAndOp(ASTNodeType type) {
+  private void binaryLogicalOrAndOp(ASTNodeType type, boolean typed) {
     ASTNode rand1 = valueStack.pop();
     ASTNode rand2 = valueStack.pop();
 
-    if ((rand1.getType() == ASTNodeType.TRUE || rand1.getType() == ASTNodeType.FALSE) &&
+    if (typed || (rand1.getType() == ASTNodeType.TRUE || rand1.getType() == ASTNodeType.FALSE) &&
         (rand2.getType() == ASTNodeType.TRUE || rand2.getType() == ASTNodeType.FALSE)) {
         orAndTruthValues(rand1, rand2, type);
     } else {
@@ -350,8 +386,8 @@ private ASTNode getFalseNode() {
 
 
   /**
-   * The function `augTuples` augments two tuples by adding the second tuple as a sibling to the first
-   * tuple.
+   * The function `augTuples` augments a tuple with a value, making a new tuple of the first tuple's
+   * elements followed by the value. Neither operand is changed.
    */
   private void augTuples() {
     ASTNode rand1 = valueStack.pop();
@@ -362,18 +398,16 @@ private ASTNode getFalseNode() {
                 "Cannot augment a non-tuple \"" + rand1.getValue() + "\"");
     }
 
-    ASTNode childNode = rand1.getChild();
-    if (childNode == null) {
-        rand1.setChild(rand2);
-    } else {
-        while (childNode.getSibling() != null) {
-            childNode = childNode.getSibling();
-        }
-        childNode.setSibling(rand2);
+    Tuple tuple = (Tuple) rand1;
+    ASTNode[] elements = new ASTNode[tuple.size() + 1];
+    for (int i = 0; i < tuple.size(); i++) {
+        elements[i] = tuple.getElement(i);
     }
-    rand2.setSibling(null);
+    elements[tuple.size()] = rand2;
 
-    valueStack.push(rand1);
+    Tuple result = new Tuple(elements);
+    result.setSourceLineNumber(rand1.getSourceLineNumber());
+    valueStack.push(result);
 }
 
 
@@ -391,19 +425,19 @@ private ASTNode getFalseNode() {
   private boolean applyUnaryOperation(ASTNode rator){
     switch(rator.getType()){
       case NOT:
-        not();
+        not(rator.getSpecialization() != TypeInferencer.UNTYPED);
         return true;
       case NEG:
-        neg();
+        neg(rator.getSpecialization() != TypeInferencer.UNTYPED);
         return true;
       default:
         return false;
     }
   }
 
-  private void not(){
+  private void not(boolean typed){
     ASTNode rand = valueStack.pop();
-    if(rand.getType()!=ASTNodeType.TRUE && rand.getType()!=ASTNodeType.FALSE)
+    if(!typed && rand.getType()!=ASTNodeType.TRUE && rand.getType()!=ASTNodeType.FALSE)
       EvaluationError.printError(rand.getSourceLineNumber(), "Expecting a truthvalue; was given \""+rand.getValue()+"\"");
 
     if(rand.getType()==ASTNodeType.TRUE)
@@ -415,10 +449,12 @@ private ASTNode getFalseNode() {
   /**
    * The neg() function takes a value from the valueStack, checks if it is an integer, and if so,
    * negates it by multiplying it by -1 and pushes the result back onto the valueStack.
+   * 
+   * @param typed Whether type inference proved the operand an integer, so it is not checked.
    */
-  private void neg() {
+  private void neg(boolean typed) {
     ASTNode rand = valueStack.pop();
-    if (rand.getType() != ASTNodeType.INTEGER) {
+    if (!typed && rand.getType() != ASTNodeType.INTEGER) {
         EvaluationError.printError(rand.getSourceLineNumber(),
                 "Expecting an integer; was given \"" + rand.getValue() + "\"");
     }
@@ -455,20 +491,23 @@ private ASTNode getFalseNode() {
 
     if(rator.getType()==ASTNodeType.DELTA){
       Delta nextDelta = (Delta) rator;
-      Environment newEnv = new Environment();
-      newEnv.setParent(nextDelta.getLinkedEnv());
+      int[] boundSymbols = nextDelta.getBoundSymbols();
+      // A merged delta binds its variables in the frame it was pushed in
+      Environment newEnv = nextDelta.isMerged() ? nextDelta.getLinkedEnv()
+                           : new Environment(nextDelta.getLinkedEnv(), nextDelta.getFrameSize());
+      int slot = nextDelta.getFrameOffset();
       
       //RULE 4
-      if(nextDelta.getBoundVars().size()==1){
-        newEnv.addMapping(nextDelta.getBoundVars().get(0), rand);
+      if(boundSymbols.length==1){
+        newEnv.bind(slot, rand);
       }
       //RULE 11
       else{
         if(rand.getType()!=ASTNodeType.TUPLE)
           EvaluationError.printError(rand.getSourceLineNumber(), "Expected a tuple; was given \""+rand.getValue()+"\"");
         
-        for(int i = 0; i < nextDelta.getBoundVars().size(); i++){
-          newEnv.addMapping(nextDelta.getBoundVars().get(i), getNthTupleChild((Tuple)rand, i+1)); 
+        for(int i = 0; i < boundSymbols.length; i++){
+          newEnv.bind(slot + i, getNthTupleChild((Tuple)rand, i+1)); 
         }
       }
       
@@ -518,52 +557,52 @@ private ASTNode getFalseNode() {
    * @return The method returns a boolean value.
    */
   private boolean evaluateReservedIdentifiers(ASTNode rator, ASTNode rand, Stack<ASTNode> currentControlStack) {
-    String ratorValue = rator.getValue();
-    switch (ratorValue) {
-        case "Isinteger":
+    Builtin builtin = getBuiltin(rator);
+    if (builtin == null)
+        return false;
+    switch (builtin) {
+        case ISINTEGER:
             checkTypeAndPushTrueOrFalse(rand, ASTNodeType.INTEGER);
             return true;
-        case "Isstring":
+        case ISSTRING:
             checkTypeAndPushTrueOrFalse(rand, ASTNodeType.STRING);
             return true;
-        case "Isdummy":
+        case ISDUMMY:
             checkTypeAndPushTrueOrFalse(rand, ASTNodeType.DUMMY);
             return true;
-        case "Isfunction":
+        case ISFUNCTION:
             checkTypeAndPushTrueOrFalse(rand, ASTNodeType.DELTA);
             return true;
-        case "Istuple":
+        case ISTUPLE:
             checkTypeAndPushTrueOrFalse(rand, ASTNodeType.TUPLE);
             return true;
-        case "Istruthvalue":
+        case ISTRUTHVALUE:
             if (rand.getType() == ASTNodeType.TRUE || rand.getType() == ASTNodeType.FALSE) {
                 pushTrueNode();
             } else {
                 pushFalseNode();
             }
             return true;
-        case "Stem":
+        case STEM:
             stem(rand);
             return true;
-        case "Stern":
+        case STERN:
             stern(rand);
             return true;
-        case "Conc":
-        case "conc": // Typing errors
+        case CONC:
             conc(rand, currentControlStack);
             return true;
-        case "Print":
-        case "print": // Typing errors
+        case PRINT:
             printNodeValue(rand);
             pushDummyNode();
             return true;
-        case "ItoS":
+        case ITOS:
             itos(rand);
             return true;
-        case "Order":
+        case ORDER:
             order(rand);
             return true;
-        case "Null":
+        case NULL:
             isNullTuple(rand);
             return true;
         default:
@@ -571,6 +610,18 @@ private ASTNode getFalseNode() {
     }
 }
 
+  /**
+   * The function returns the builtin that an identifier node names.
+   * 
+   * @param node The node to check. Only identifiers carry a symbol id.
+   * @return The builtin named by the node, or null if the node does not name one.
+   */
+  private Builtin getBuiltin(ASTNode node){
+    if(node.getType()!=ASTNodeType.IDENTIFIER)
+      return null;
+    return builtins[node.getSymbol()];
+  }
+
 
   /**
    * The function checks the type of a given ASTNode and pushes a true or false node based on the
@@ -615,8 +666,8 @@ private ASTNode getFalseNode() {
   }
 
   /**
-   * The function takes an ASTNode as input, checks if it is a string, trims it to the first character
-   * if it is not empty, and pushes it onto a value stack.
+   * The function takes an ASTNode as input, checks if it is a string, and pushes a new string of its
+   * first character, or an empty one if it is empty, onto a value stack.
    * 
    * @param rand The parameter "rand" is an ASTNode object.
    */
@@ -625,11 +676,9 @@ private ASTNode getFalseNode() {
       EvaluationError.printError(rand.getSourceLineNumber(), "Expected a string; was given \""+rand.getValue()+"\"");
     
     if(rand.getValue().isEmpty())
-      rand.setValue("");
+      pushString(rand, "");
     else
-      rand.setValue(rand.getValue().substring(0,1));
-    
-    valueStack.push(rand);
+      pushString(rand, rand.getValue().substring(0,1));
   }
 
   private void stern(ASTNode rand){
@@ -637,11 +686,24 @@ private ASTNode getFalseNode() {
       EvaluationError.printError(rand.getSourceLineNumber(), "Expected a string; was given \""+rand.getValue()+"\"");
     
     if(rand.getValue().isEmpty() || rand.getValue().length()==1)
-      rand.setValue("");
+      pushString(rand, "");
     else
-      rand.setValue(rand.getValue().substring(1));
-    
-    valueStack.push(rand);
+      pushString(rand, rand.getValue().substring(1));
+  }
+
+  /**
+   * The function pushes a new string made from an operand onto a value stack, leaving the operand,
+   * which may be bound to variables or held in tuples, as it is.
+   * 
+   * @param rand The operand the string is made from, whose source line number it keeps.
+   * @param value The string.
+   */
+  private void pushString(ASTNode rand, String value){
+    ASTNode result = new ASTNode();
+    result.setType(ASTNodeType.STRING);
+    result.setValue(value);
+    result.setSourceLineNumber(rand.getSourceLineNumber());
+    valueStack.push(result);
   }
 
   /**
@@ -669,8 +731,7 @@ private ASTNode getFalseNode() {
     if(rand.getType()!=ASTNodeType.INTEGER)
       EvaluationError.printError(rand.getSourceLineNumber(), "Expected an integer; was given \""+rand.getValue()+"\"");
     
-    rand.setType(ASTNodeType.STRING); 
-    valueStack.push(rand);
+    pushString(rand, rand.getValue());
   }
 
   private void order(ASTNode rand){
@@ -679,7 +740,7 @@ private ASTNode getFalseNode() {
 
     ASTNode result = new ASTNode();
     result.setType(ASTNodeType.INTEGER);
-    result.setValue(Integer.toString(getNumChildren(rand)));
+    result.setValue(Integer.toString(((Tuple)rand).size()));
     
     valueStack.push(result);
   }
@@ -688,7 +749,7 @@ private ASTNode getFalseNode() {
     if(rand.getType()!=ASTNodeType.TUPLE)
       EvaluationError.printError(rand.getSourceLineNumber(), "Expected a tuple; was given \""+rand.getValue()+"\"");
 
-    if(getNumChildren(rand)==0)
+    if(((Tuple)rand).size()==0)
       pushTrueNode();
     else
       pushFalseNode();
@@ -716,55 +777,39 @@ private ASTNode getFalseNode() {
 
 
   private ASTNode getNthTupleChild(Tuple tupleNode, int n){
-    ASTNode childNode = tupleNode.getChild();
-    for(int i=1;i<n;++i){ 
-      if(childNode==null)
-        break;
-      childNode = childNode.getSibling();
-    }
-    return childNode;
+    if(tupleNode.size()==0 || n>tupleNode.size())
+      return null;
+    // An index below 1 selects the first element
+    return tupleNode.getElement(Math.max(n, 1) - 1);
   }
 
   private void handleIdentifiers(ASTNode node, Environment currentEnv){
-    if(currentEnv.lookup(node.getValue())!=null) // RULE 1
-      valueStack.push(currentEnv.lookup(node.getValue()));
-    else if(isReservedIdentifier(node.getValue()))
+    if(!(node instanceof Variable)){
+      // LexicalAddresser left only builtins unresolved
       valueStack.push(node);
+      return;
+    }
+    Variable variable = (Variable) node;
+    ASTNode value = currentEnv.lookup(variable.getDepth(), variable.getSlot());
+    if(value!=null) // RULE 1
+      valueStack.push(value);
     else
       EvaluationError.printError(node.getSourceLineNumber(), "Undeclared identifier \""+node.getValue()+"\"");
   }
 
   //RULE 9
   /**
-   * The function creates a tuple node and populates it with child nodes from the value stack.
+   * The function creates a tuple node of as many values from the value stack as the node has children.
+   * The values are shared with the tuple, not linked into it, so they are left as they are.
    * 
    * @param node The parameter "node" is an ASTNode object, which represents a node in an abstract
    * syntax tree.
    */
   private void createTuple(ASTNode node){
-    int numChildren = getNumChildren(node);
-    Tuple tupleNode = new Tuple();
-    if(numChildren==0){
-      valueStack.push(tupleNode);
-      return;
-    }
-
-    ASTNode childNode = null, tempNode = null;
-    for(int i=0;i<numChildren;++i){
-      if(childNode==null)
-        childNode = valueStack.pop();
-      else if(tempNode==null){
-        tempNode = valueStack.pop();
-        childNode.setSibling(tempNode);
-      }
-      else{
-        tempNode.setSibling(valueStack.pop());
-        tempNode = tempNode.getSibling();
-      }
-    }
-    tempNode.setSibling(null);
-    tupleNode.setChild(childNode);
-    valueStack.push(tupleNode);
+    ASTNode[] elements = new ASTNode[getNumChildren(node)];
+    for(int i=0;i<elements.length;++i)
+      elements[i] = valueStack.pop();
+    valueStack.push(new Tuple(elements));
   }
 
   // RULE 8
@@ -780,7 +825,8 @@ private ASTNode getFalseNode() {
   private void handleBeta(Beta node, Stack<ASTNode> currentControlStack){
     ASTNode conditionResultNode = valueStack.pop();
 
-    if(conditionResultNode.getType()!=ASTNodeType.TRUE && conditionResultNode.getType()!=ASTNodeType.FALSE)
+    // A conditional type inference proved to test a truthvalue is specialized for truthvalues
+    if(node.getSpecialization()==TypeInferencer.UNTYPED && conditionResultNode.getType()!=ASTNodeType.TRUE && conditionResultNode.getType()!=ASTNodeType.FALSE)
       EvaluationError.printError(conditionResultNode.getSourceLineNumber(), "Expecting a truthvalue; found \""+conditionResultNode.getValue()+"\"");
 
     if(conditionResultNode.getType()==ASTNodeType.TRUE)
@@ -806,16 +852,4 @@ private ASTNode getFalseNode() {
     System.out.print(evaluationResult);
   }
 
-  // The above code is defining a private method called `isReservedIdentifier` in Java. This method
-  // takes a string parameter called `value` and checks if it is a reserved identifier.
-private boolean isReservedIdentifier(String value) {
-    List<String> reservedIdentifiers = Arrays.asList(
-        "Isinteger", "Isstring", "Istuple", "Isdummy", "Istruthvalue", "Isfunction",
-        "ItoS", "Order", "Conc", "conc", "Stern", "Stem", "Null", "Print", "print", "neg"
-    );
-
-    return reservedIdentifiers.contains(value);
-}
-
-
 }
@@ -1,8 +1,10 @@
 package csem;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Stack;
+import java.util.function.Supplier;
 
 import ast.ASTNode;
 import ast.ASTNodeType;
@@ -13,20 +15,51 @@ import ast.ASTNodeType;
 
 public class Delta extends ASTNode{
   private List<String> boundVars;
+  private int[] boundSymbols;
   private Environment linkedEnv;
   private Stack<ASTNode> body;
+  // Builds the body the first time it is asked for, for a delta made before its body was
+  private Supplier<Stack<ASTNode>> bodySource;
   private int index;
+  // How the delta's variables are laid out in environment frames; see LexicalAddresser
+  private boolean merged;
+  private int frameOffset;
+  private int frameSize;
+  // Where each value a closure of the delta captures comes from, in the environment it is made in
+  private int[] captureDepths;
+  private int[] captureSlots;
   
   // The `public Delta()` method is a constructor for the `Delta` class. 
-  // It initializes the `boundVars` list as an empty `ArrayList<String>`. 
-  // It also sets the type of the `Delta` object to`ASTNodeType.DELTA`.
+  // It initializes the `boundVars` list as an empty `ArrayList<String>` and the matching array of
+  // symbol ids as empty. It also sets the type of the `Delta` object to`ASTNodeType.DELTA`.
   public Delta(){
     setType(ASTNodeType.DELTA);
     boundVars = new ArrayList<String>();
+    boundSymbols = new int[0];
+    captureDepths = new int[0];
+    captureSlots = new int[0];
   }
   
-  public Delta accept(NodeCopier nodeCopier){
-    return nodeCopier.copy(this);
+  // A closure of the delta: a delta like it, linked to the environment it is made in. The delta in a
+  // body is never linked itself, so a body can run in many environments at once, and the closures of
+  // a delta share its body, which is built at most once.
+  public Delta close(Environment linkedEnv){
+    Delta closure = new Delta();
+    closure.setSourceLineNumber(getSourceLineNumber());
+    closure.boundVars = boundVars;
+    closure.boundSymbols = boundSymbols;
+    if(bodySource!=null)
+      closure.bodySource = this::getBody;
+    else
+      closure.body = body;
+    closure.index = index;
+    closure.merged = merged;
+    closure.frameOffset = frameOffset;
+    closure.frameSize = frameSize;
+    closure.captureDepths = captureDepths;
+    closure.captureSlots = captureSlots;
+    closure.linkedEnv = linkedEnv;
+    return closure;
   }
   
 
@@ -41,15 +74,28 @@ public class Delta extends ASTNode{
     return boundVars;
   }
   
-  public void addBoundVars(String boundVar){
+  // The symbol ids of the bound variables, in the same order as their names. The environment is keyed
+  // by these ids, so binding and looking up a variable never compares Strings.
+  public int[] getBoundSymbols(){
+    return boundSymbols;
+  }
+
+  public void addBoundVars(String boundVar, int boundSymbol){
     boundVars.add(boundVar);
+    boundSymbols = Arrays.copyOf(boundSymbols, boundSymbols.length + 1);
+    boundSymbols[boundSymbols.length - 1] = boundSymbol;
   }
   
-  public void setBoundVars(List<String> boundVars){
+  public void setBoundVars(List<String> boundVars, int[] boundSymbols){
     this.boundVars = boundVars;
+    this.boundSymbols = boundSymbols;
   }
   
   public Stack<ASTNode> getBody(){
+    if(bodySource!=null){
+      body = bodySource.get();
+      bodySource = null;
+    }
     return body;
   }
   
@@ -57,6 +103,15 @@ public class Delta extends ASTNode{
     this.body = body;
   }
   
+  // What builds the body when it is first asked for, or null once the body is there.
+  public Supplier<Stack<ASTNode>> getBodySource(){
+    return bodySource;
+  }
+
+  public void setBodySource(Supplier<Stack<ASTNode>> bodySource){
+    this.bodySource = bodySource;
+  }
+
   public int getIndex(){
     return index;
   }
@@ -65,6 +120,53 @@ public class Delta extends ASTNode{
     this.index = index;
   }
 
+  // Whether the delta binds its variables in the frame it is applied in rather than in a new frame of
+  // its own. Only a lambda applied where it stands, as a let is, is merged this way.
+  public boolean isMerged(){
+    return merged;
+  }
+
+  // The slot of the delta's first variable in the frame it binds them in.
+  public int getFrameOffset(){
+    return frameOffset;
+  }
+
+  // The number of slots in a new frame for the delta: its variables and those of the lets merged into it.
+  public int getFrameSize(){
+    return frameSize;
+  }
+
+  public void setFrame(boolean merged, int frameOffset, int frameSize){
+    this.merged = merged;
+    this.frameOffset = frameOffset;
+    this.frameSize = frameSize;
+  }
+
+  // For each value a closure of the delta captures: the frame it is read from, 0 for the frame the
+  // closure is made in and 1 for that frame's own captures, and its slot there.
+  public int[] getCaptureDepths(){
+    return captureDepths;
+  }
+
+  public int[] getCaptureSlots(){
+    return captureSlots;
+  }
+
+  public void setCaptures(int[] captureDepths, int[] captureSlots){
+    this.captureDepths = captureDepths;
+    this.captureSlots = captureSlots;
+  }
+
+  // Adds a value for closures of the delta to capture, and returns its slot among the captured values.
+  public int addCapture(int depth, int slot){
+    int capture = captureDepths.length;
+    captureDepths = Arrays.copyOf(captureDepths, capture + 1);
+    captureSlots = Arrays.copyOf(captureSlots, capture + 1);
+    captureDepths[capture] = depth;
+    captureSlots[capture] = slot;
+    return capture;
+  }
+
   public Environment getLinkedEnv(){
     return linkedEnv;
   }
@@ -1,49 +1,52 @@
 package csem;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import ast.ASTNode;
 
 
-//The Environment class represents a scope in a programming language and stores the mapping of
-//variable names to their corresponding values.
+//The Environment class represents a scope in a programming language and stores the values of the
+//variables it binds. Every variable was given a lexical address before evaluation, so a scope is just
+//an array frame indexed by slot, and a lookup follows a known number of parent links instead of
+//searching each scope for the name. A frame also holds the slots of the lets merged into it.
+//
+//A closure does not keep the frame it is made in. It keeps a flat frame of just the values its body
+//uses from outside, which becomes the parent of each frame the closure is applied in, so a variable
+//is at most one link away and a closure holds on to nothing it does not need.
 
 public class Environment{
   private Environment parent;
-  private Map<String, ASTNode> nameValueMap;
-  
-  public Environment(){
-    nameValueMap = new HashMap<String, ASTNode>();
+  private ASTNode[] values;
+
+  public Environment(Environment parent, int size){
+    this.parent = parent;
+    values = new ASTNode[size];
   }
 
   public Environment getParent(){
     return parent;
   }
-
-  public void setParent(Environment parent){
-    this.parent = parent;
-  }
   
 
-// The `lookup` method in the `Environment` class is used to search for a variable name in the current
-// scope and its parent scopes. It takes a `key` parameter, which is the variable name to be looked up.
-  public ASTNode lookup(String key){
-    ASTNode retValue = null;
-    Map<String, ASTNode> map = nameValueMap;
-    
-    retValue = map.get(key);
-    
-    if(retValue!=null)
-      return retValue.accept(new NodeCopier());
-    
-    if(parent!=null)
-      return parent.lookup(key);
-    else
-      return null;
+// The `lookup` method in the `Environment` class returns the value of the variable at a lexical
+// address: `depth` frames up from this one, at index `slot` of that frame. It returns null if
+// the slot was never bound, as a tuple too short for the variables it is bound to leaves it. Values
+// are never changed once made, so the value itself is returned, not a copy.
+  public ASTNode lookup(int depth, int slot){
+    Environment env = this;
+    for(int i = 0; i < depth; i++)
+      env = env.parent;
+    return env.values[slot];
   }
   
-  public void addMapping(String key, ASTNode value){
-    nameValueMap.put(key, value);
+  // The `capture` method makes the flat frame of a closure made in this environment: the value of
+  // each captured variable, read from this frame at depth 0 or from its parent at depth 1.
+  public Environment capture(int[] depths, int[] slots){
+    Environment captured = new Environment(null, slots.length);
+    for(int i = 0; i < slots.length; i++)
+      captured.values[i] = (depths[i]==0 ? this : parent).values[slots[i]];
+    return captured;
+  }
+
+  public void bind(int slot, ASTNode value){
+    values[slot] = value;
   }
 }
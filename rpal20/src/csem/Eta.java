@@ -22,10 +22,6 @@ public class Eta extends ASTNode{
     return "[eta closure: "+delta.getBoundVars().get(0)+": "+delta.getIndex()+"]";
   }
   
-  public Eta accept(NodeCopier nodeCopier){
-    return nodeCopier.copy(this);
-  }
-
   public Delta getDelta(){
     return delta;
   }
@@ -0,0 +1,367 @@
+package csem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Stack;
+
+import ast.ASTNode;
+import ast.ASTNodeType;
+import ast.NodeArena;
+
+
+//The LexicalAddresser class resolves every identifier in the delta bodies before evaluation. A delta's
+//variables live in an environment frame, and the frame of a delta's body links to the frame of the
+//body its lambda appears in, so where a variable is bound is known from the deltas alone: the
+//identifier is replaced by a Variable holding how many frames up the binding is and its slot there.
+//Identifiers bound nowhere must name builtins; any other is reported before evaluation starts.
+//
+//A lambda applied where it stands, as every let, where and and-definition is, runs exactly once each
+//time the body around it does, and nothing else can see its frame. Its variables are therefore given
+//slots at the end of the enclosing frame instead of a frame of their own, so a chain of lets takes one
+//frame, and one hop fewer for every let between a variable and its uses.
+//
+//Closures are converted to flat ones. Each delta that gets a frame of its own lists the variables its
+//body, and the bodies inside it, use from frames further out; a closure copies just their values when
+//it is made, and its frames link to that copy. A variable is then either in the current frame, at
+//depth 0, or among the captured values, at depth 1. A value is captured from the frame the closure is
+//made in, or from that frame's own captured values, which are extended as needed. Every variable in
+//scope is bound before a closure can be made, so capturing values then sees what a later lookup would.
+//
+//A flat tree whose nodes are each reached from one place only is resolved from the tree instead, so
+//that no delta body need be built before it is first applied. Each lambda is given a delta of its own
+//here, without a body, and each identifier node its address; bodies built later from the tree take
+//both from the addresser. The walk visits the nodes in the order their body entries would be.
+
+public final class LexicalAddresser{
+  private final Builtin[] builtins;
+  private int frameCount;
+  // Set when resolving a flat tree
+  private final NodeArena arena;
+  private Delta rootDelta;
+  private Delta[] deltas;
+  // The address of each identifier node, as slot << 1 | depth, or -1 for a builtin
+  private int[] addresses;
+  // Set by find
+  private int foundDepth;
+  private int foundSlot;
+
+  private LexicalAddresser(Builtin[] builtins, NodeArena arena){
+    this.builtins = builtins;
+    this.arena = arena;
+  }
+
+  // A delta that gets frames of its own, with the frame its closures are made in, and the values they
+  // capture, keyed by the frame and slot each is bound in.
+  private class Frame{
+    final Delta owner;
+    final Frame parent;
+    final long id = frameCount++;
+    final HashMap<Long, Integer> captures = new HashMap<Long, Integer>();
+
+    Frame(Delta owner, Frame parent){
+      this.owner = owner;
+      this.parent = parent;
+    }
+  }
+
+  // A delta being resolved, with the root of its body in a flat tree, the scope of the body its
+  // lambda appears in and the frame its variables are bound in.
+  private static class Scope{
+    final Delta delta;
+    final int bodyNode;
+    final Scope parent;
+    final Frame frame;
+
+    Scope(Delta delta, int bodyNode, Scope parent, Frame frame){
+      this.delta = delta;
+      this.bodyNode = bodyNode;
+      this.parent = parent;
+      this.frame = frame;
+    }
+  }
+
+  /**
+   * The function lays out the frames of every delta reachable from the root and gives each identifier
+   * in their bodies its lexical address.
+   *
+   * @param rootDelta The delta of the whole program, which binds no variables.
+   * @param builtins The builtin each symbol id names, or null.
+   */
+  public static void resolve(Delta rootDelta, Builtin[] builtins){
+    LexicalAddresser addresser = new LexicalAddresser(builtins, null);
+    rootDelta.setFrame(false, 0, rootDelta.getBoundSymbols().length);
+    rootDelta.setCaptures(new int[0], new int[0]);
+    // Deltas are resolved outermost first, so each frame's layout is known before the bodies inside it
+    ArrayDeque<Scope> pending = new ArrayDeque<Scope>();
+    pending.add(new Scope(rootDelta, NodeArena.NONE, null, addresser.new Frame(rootDelta, null)));
+    while(!pending.isEmpty()){
+      Scope scope = pending.poll();
+      addresser.resolveBody(scope.delta.getBody(), scope, pending);
+    }
+  }
+
+  /**
+   * The function lays out the frames of every lambda of a standardized flat tree, and gives each
+   * identifier in the tree its lexical address, without building any delta body. No node may be
+   * reached from two places, and each lambda must hold the index of its delta as its value.
+   *
+   * @param arena The arena the tree's nodes are in.
+   * @param root The root of the tree, which is the body of the root delta.
+   * @param builtins The builtin each symbol id names, or null.
+   * @return The addresser, which hands out the deltas and the body entries built from the tree.
+   */
+  public static LexicalAddresser resolve(NodeArena arena, int root, Builtin[] builtins){
+    LexicalAddresser addresser = new LexicalAddresser(builtins, arena);
+    addresser.deltas = new Delta[arena.size()];
+    addresser.addresses = new int[arena.size()];
+    Delta rootDelta = new Delta();
+    rootDelta.setIndex(0);
+    addresser.rootDelta = rootDelta;
+    ArrayDeque<Scope> pending = new ArrayDeque<Scope>();
+    pending.add(new Scope(rootDelta, root, null, addresser.new Frame(rootDelta, null)));
+    while(!pending.isEmpty()){
+      Scope scope = pending.poll();
+      addresser.resolveTree(scope.bodyNode, scope, pending);
+    }
+    return addresser;
+  }
+
+  // The delta of the whole program, laid out, with no body yet.
+  public Delta getRootDelta(){
+    return rootDelta;
+  }
+
+  // The delta made for a lambda node, laid out, with no body yet.
+  public Delta getDelta(int lambda){
+    return deltas[lambda];
+  }
+
+  /**
+   * The function makes the body entry for a node of the resolved tree that is not a lambda or a
+   * conditional: a Variable for an identifier bound in the program, else a plain node.
+   *
+   * @param node The node.
+   * @return The entry, with no child or sibling.
+   */
+  public ASTNode toEntry(int node){
+    if(arena.getType(node)!=ASTNodeType.IDENTIFIER || addresses[node] < 0)
+      return arena.toNode(node);
+    Variable variable = new Variable(arena.getValue(node), arena.getSymbol(node), arena.getSourceLineNumber(node));
+    variable.setAddress(addresses[node] & 1, addresses[node] >>> 1);
+    return variable;
+  }
+
+  // Resolves the entries of a body, or of a branch of a conditional in it, from the first evaluated on.
+  private void resolveBody(Stack<ASTNode> body, Scope scope, ArrayDeque<Scope> pending){
+    for(int i = body.size() - 1; i >= 0; i--){
+      ASTNode entry = body.get(i);
+      switch(entry.getType()){
+        case DELTA:
+          // The rator of a gamma is pushed right after it
+          boolean merged = i > 0 && body.get(i - 1).getType()==ASTNodeType.GAMMA;
+          pending.add(layOut((Delta) entry, NodeArena.NONE, scope, merged));
+          break;
+        case BETA:
+          resolveBody(((Beta) entry).getThenBody(), scope, pending);
+          resolveBody(((Beta) entry).getElseBody(), scope, pending);
+          break;
+        case IDENTIFIER:
+          body.set(i, resolve(entry, scope));
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  // Resolves the body under a node of a flat tree, or a branch of a conditional in it, as above.
+  private void resolveTree(int bodyNode, Scope scope, ArrayDeque<Scope> pending){
+    int[] entries = entriesOf(bodyNode);
+    for(int i = entries.length - 1; i >= 0; i--){
+      int node = entries[i];
+      switch(arena.getType(node)){
+        case LAMBDA:
+          boolean merged = i > 0 && arena.getType(entries[i - 1])==ASTNodeType.GAMMA;
+          Delta delta = newDelta(node);
+          deltas[node] = delta;
+          pending.add(layOut(delta, arena.getSibling(arena.getChild(node)), scope, merged));
+          break;
+        case CONDITIONAL:
+          int thenNode = arena.getSibling(arena.getChild(node));
+          resolveTree(thenNode, scope, pending);
+          resolveTree(arena.getSibling(thenNode), scope, pending);
+          break;
+        case IDENTIFIER:
+          if(find(arena.getSymbol(node), scope))
+            addresses[node] = foundSlot << 1 | foundDepth;
+          else{
+            checkBuiltin(arena.getSymbol(node), arena.getValue(node), arena.getSourceLineNumber(node));
+            addresses[node] = -1;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  // The nodes under a node of a flat tree that become entries of its body, in the order they are
+  // pushed: a lambda is one entry, and a conditional is one, followed by the entries of its condition.
+  private int[] entriesOf(int bodyNode){
+    int[] entries = new int[16];
+    int entryCount = 0;
+    int[] pending = new int[16];
+    int pendingCount = 0;
+    pending[pendingCount++] = bodyNode;
+    while(pendingCount > 0){
+      int node = pending[--pendingCount];
+      if(entryCount == entries.length)
+        entries = Arrays.copyOf(entries, entryCount * 2);
+      entries[entryCount++] = node;
+      ASTNodeType type = arena.getType(node);
+      if(type==ASTNodeType.LAMBDA)
+        continue;
+      int childCount = 0;
+      for(int c = arena.getChild(node); c != NodeArena.NONE; c = arena.getSibling(c))
+        childCount++;
+      if(type==ASTNodeType.CONDITIONAL)
+        childCount = 1;
+      if(pendingCount + childCount > pending.length)
+        pending = Arrays.copyOf(pending, pendingCount + childCount + 16);
+      // Pushed last first, so that they are taken in order
+      int c = arena.getChild(node);
+      for(int i = pendingCount + childCount - 1; i >= pendingCount; i--){
+        pending[i] = c;
+        c = arena.getSibling(c);
+      }
+      pendingCount += childCount;
+    }
+    return Arrays.copyOf(entries, entryCount);
+  }
+
+  // Makes the delta of a lambda node, with the index numberDeltas gave the lambda.
+  private Delta newDelta(int lambda){
+    Delta delta = new Delta();
+    delta.setIndex(arena.getDeltaIndex(lambda));
+    int boundVariable = arena.getChild(lambda);
+    if(arena.getType(boundVariable)==ASTNodeType.COMMA){
+      for(int childNode = arena.getChild(boundVariable); childNode != NodeArena.NONE; childNode = arena.getSibling(childNode))
+        delta.addBoundVars(arena.getValue(childNode), arena.getSymbol(childNode));
+    }
+    else
+      delta.addBoundVars(arena.getValue(boundVariable), arena.getSymbol(boundVariable));
+    return delta;
+  }
+
+  // Gives a delta its slots: at the end of the enclosing frame if it is merged, else in a new frame.
+  private Scope layOut(Delta delta, int bodyNode, Scope scope, boolean merged){
+    int variableCount = delta.getBoundSymbols().length;
+    if(!merged){
+      delta.setFrame(false, 0, variableCount);
+      return new Scope(delta, bodyNode, scope, new Frame(delta, scope.frame));
+    }
+    Delta frameOwner = scope.frame.owner;
+    delta.setFrame(true, frameOwner.getFrameSize(), 0);
+    frameOwner.setFrame(false, 0, frameOwner.getFrameSize() + variableCount);
+    return new Scope(delta, bodyNode, scope, scope.frame);
+  }
+
+  /**
+   * The function finds the binding an identifier refers to, searching the variables of the delta it
+   * appears in and then those of the deltas around it, as looking the name up at run time did.
+   *
+   * @param identifier The identifier's body entry, which may be a Variable from an earlier resolution
+   * of a reused body.
+   * @param scope The scope of the body it appears in.
+   * @return The entry to evaluate in its place: a new Variable, or for a builtin a plain identifier.
+   */
+  private ASTNode resolve(ASTNode identifier, Scope scope){
+    int symbol = identifier.getSymbol();
+    if(find(symbol, scope)){
+      Variable variable = new Variable(identifier);
+      variable.setAddress(foundDepth, foundSlot);
+      return variable;
+    }
+    checkBuiltin(symbol, identifier.getValue(), identifier.getSourceLineNumber());
+    if(!(identifier instanceof Variable))
+      return identifier;
+    ASTNode builtin = new ASTNode();
+    builtin.setType(ASTNodeType.IDENTIFIER);
+    builtin.setValue(identifier.getValue());
+    builtin.setSymbol(symbol);
+    builtin.setSourceLineNumber(identifier.getSourceLineNumber());
+    return builtin;
+  }
+
+  // Finds the binding of a symbol in a scope, and sets foundDepth and foundSlot to its address.
+  private boolean find(int symbol, Scope scope){
+    for(Scope s = scope; s != null; s = s.parent){
+      int[] boundSymbols = s.delta.getBoundSymbols();
+      // A later variable of the same name hides an earlier one
+      for(int i = boundSymbols.length - 1; i >= 0; i--){
+        if(boundSymbols[i]==symbol){
+          int slot = s.delta.getFrameOffset() + i;
+          if(s.frame==scope.frame){
+            foundDepth = 0;
+            foundSlot = slot;
+          }
+          else{
+            foundDepth = 1;
+            foundSlot = capture(scope.frame, s.frame, slot);
+          }
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // Reports a name bound nowhere that does not name a builtin.
+  private void checkBuiltin(int symbol, String name, int sourceLineNumber){
+    if(symbol >= builtins.length || builtins[symbol]==null)
+      EvaluationError.printError(sourceLineNumber, "Undeclared identifier \""+name+"\"");
+  }
+
+  /**
+   * The function has the closures of a frame's delta capture a variable bound further out, and so
+   * every delta between them that does not capture it yet.
+   *
+   * @param frame The frame the variable is used in.
+   * @param binder The frame of the delta, further out, that binds the variable.
+   * @param slot The variable's slot in that frame.
+   * @return The variable's slot among the values the frame's closures capture.
+   */
+  private int capture(Frame frame, Frame binder, int slot){
+    Long key = binder.id << 32 | slot;
+    // The frames that must start capturing the variable, innermost first
+    ArrayList<Frame> capturing = new ArrayList<Frame>();
+    int depth;
+    int sourceSlot;
+    Frame f = frame;
+    while(true){
+      Integer captured = f.captures.get(key);
+      if(captured!=null){
+        depth = 1;
+        sourceSlot = captured;
+        break;
+      }
+      capturing.add(f);
+      if(f.parent==binder){
+        depth = 0;
+        sourceSlot = slot;
+        break;
+      }
+      f = f.parent;
+    }
+    // Each frame captures the variable from the one its closures are made in, outermost first
+    for(int i = capturing.size() - 1; i >= 0; i--){
+      Frame c = capturing.get(i);
+      sourceSlot = c.owner.addCapture(depth, sourceSlot);
+      c.captures.put(key, sourceSlot);
+      depth = 1;
+    }
+    return sourceSlot;
+  }
+}
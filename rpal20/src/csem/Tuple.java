@@ -4,37 +4,46 @@ import ast.ASTNode;
 import ast.ASTNodeType;
 
 
-// The Tuple class represents a tuple in an abstract syntax tree (AST) and provides methods for
-// printing its value and accepting a NodeCopier.
+// The Tuple class represents a tuple in an abstract syntax tree (AST) and provides a method for
+// printing its value. A tuple is never changed once made, and holds its
+// elements in an array rather than linking them as siblings, so a value can be an element of any
+// number of tuples and be bound to any number of variables without being copied.
 
 public class Tuple extends ASTNode{
-  
+  private final ASTNode[] elements;
+
   public Tuple(){
+    this(new ASTNode[0]);
+  }
+
+  public Tuple(ASTNode[] elements){
     setType(ASTNodeType.TUPLE);
+    this.elements = elements;
   }
-  
-// The `getValue()` function is a method in the `Tuple` class that returns a string representation of a
-// linked list of `ASTNodes`. The method checks if there are any child nodes. If there are no child
-// nodes, it returns the string "nil". If there are child nodes, it iterates through the linked list,
-// concatenating their values with commas and wrapping them in parentheses. The resulting string is then returned.
+
+  public int size(){
+    return elements.length;
+  }
+
+  // The element at index `index`, counting from 0.
+  public ASTNode getElement(int index){
+    return elements[index];
+  }
+
+// The `getValue()` function is a method in the `Tuple` class that returns a string representation of
+// its elements. If there are no elements, it returns the string "nil". Otherwise it concatenates
+// their values with commas and wraps them in parentheses.
 
   @Override
   public String getValue(){
-    ASTNode childNode = getChild();
-    if(childNode==null)
+    if(elements.length==0)
       return "nil";
-    
+
     String printValue = "(";
-    while(childNode.getSibling()!=null){
-      printValue += childNode.getValue() + ", ";
-      childNode = childNode.getSibling();
-    }
-    printValue += childNode.getValue() + ")";
+    for(int i = 0; i < elements.length - 1; i++)
+      printValue += elements[i].getValue() + ", ";
+    printValue += elements[elements.length - 1].getValue() + ")";
     return printValue;
   }
-  
-  public Tuple accept(NodeCopier nodeCopier){
-    return nodeCopier.copy(this);
-  }
-  
+
 }
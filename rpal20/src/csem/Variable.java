@@ -0,0 +1,38 @@
+package csem;
+
+import ast.ASTNode;
+import ast.ASTNodeType;
+
+
+//The Variable class is an identifier in a delta body whose binding was found before evaluation. It
+//carries the binding's lexical address: how many environment frames up the binding is, and its slot
+//in that frame, so looking it up never searches for the name.
+
+public class Variable extends ASTNode{
+  private int depth;
+  private int slot;
+
+  public Variable(ASTNode identifier){
+    this(identifier.getValue(), identifier.getSymbol(), identifier.getSourceLineNumber());
+  }
+
+  public Variable(String name, int symbol, int sourceLineNumber){
+    setType(ASTNodeType.IDENTIFIER);
+    setValue(name);
+    setSymbol(symbol);
+    setSourceLineNumber(sourceLineNumber);
+  }
+
+  public int getDepth(){
+    return depth;
+  }
+
+  public int getSlot(){
+    return slot;
+  }
+
+  public void setAddress(int depth, int slot){
+    this.depth = depth;
+    this.slot = slot;
+  }
+}
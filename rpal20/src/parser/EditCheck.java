@@ -0,0 +1,146 @@
+package parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ast.AST;
+import scanner.Scanner;
+import scanner.SourceLoader;
+import scanner.TokenBuffer;
+import scanner.TokenType;
+
+/**
+ * The EditCheck class checks the incremental front end against the whole one. It makes small edits
+ * to a program through an IncrementalFrontEnd, undoing each before the next: every integer is given
+ * another value, every identifier another name, and a line break is put before every token. After
+ * each edit and each undo, the standardized tree the front end returns must print as the tree of the
+ * same source parsed and standardized from scratch does, and an edit the front end rejects must be
+ * one that a fresh parse rejects too.
+ *
+ * It is run on its own, not by the interpreter: java parser.EditCheck FILE... checks each file in
+ * turn, printing its report, or why it could not be parsed as written, and exits with status 1 if any
+ * edit differed or any file could not be checked.
+ */
+public class EditCheck{
+  // The most mismatched edits described in the report
+  private static final int REPORTED = 10;
+
+  private int checked;
+  private int mismatched;
+  private List<String> mismatches = new ArrayList<String>();
+
+  private EditCheck(){
+  }
+
+  public static void main(String[] args){
+    boolean failed = false;
+    for(String file : args){
+      try{
+        EditCheck check = run(SourceLoader.load(file).toString());
+        System.out.println(file + ": " + check);
+        failed |= check.getMismatchCount() > 0;
+      }
+      catch(IOException | RuntimeException e){
+        // A program that cannot be read or parsed as written is not edited, so there is nothing else to say
+        System.out.println(file + ": " + e);
+        failed = true;
+      }
+    }
+    if(failed)
+      System.exit(1);
+  }
+
+  /**
+   * The function makes the edits to the given source and compares the results.
+   *
+   * @param source The program to edit.
+   * @return The check, which reports how many edits were compared and which of them differed.
+   * @throws RuntimeException If the program cannot be scanned, parsed or standardized as written.
+   */
+  public static EditCheck run(String source){
+    EditCheck check = new EditCheck();
+    TokenBuffer tokens = Scanner.forSource(source).tokenize();
+    IncrementalFrontEnd frontEnd = new IncrementalFrontEnd(source);
+    check.compare(frontEnd, null, "the program as written");
+    for(int i = 0; i < tokens.size(); i++){
+      int start = tokens.getStart(i);
+      int length = tokens.getLength(i);
+      String value = source.substring(start, start + length);
+      if(tokens.getType(i) == TokenType.INTEGER){
+        check.edit(frontEnd, start, length, value + "7", "the integer " + value);
+        check.edit(frontEnd, start, length + 1, value, "the integer " + value + " back");
+      }
+      else if(tokens.getType(i) == TokenType.IDENTIFIER){
+        check.edit(frontEnd, start, length, value + "_", "the name " + value);
+        check.edit(frontEnd, start, length + 1, value, "the name " + value + " back");
+      }
+      check.edit(frontEnd, start, 0, "\n", "a line break before " + value);
+      check.edit(frontEnd, start, 1, "", "a line break before " + value + " back");
+    }
+    return check;
+  }
+
+  // The number of edits that gave a different tree, or were rejected by only one of the front ends.
+  public int getMismatchCount(){
+    return mismatched;
+  }
+
+  private void edit(IncrementalFrontEnd frontEnd, int offset, int removed, String text, String change){
+    RuntimeException rejection = null;
+    try{
+      frontEnd.edit(offset, removed, text);
+    }
+    catch(RuntimeException e){
+      // The front end rebuilds the program in full when it is next asked for it, so a wrong rejection
+      // would not show in the tree
+      rejection = e;
+    }
+    compare(frontEnd, rejection, "changing " + change + " on line " + lineOf(frontEnd.getSource(), offset));
+  }
+
+  // Compares the front end's tree with a fresh one, given what the edit that led to it threw, if anything.
+  private void compare(IncrementalFrontEnd frontEnd, RuntimeException rejection, String change){
+    checked++;
+    String expected;
+    try{
+      AST fresh = new Parser(Scanner.forSource(frontEnd.getSource())).buildAST();
+      fresh.standardize();
+      expected = fresh.toString();
+    }
+    catch(RuntimeException e){
+      expected = "rejected";
+    }
+    String actual;
+    try{
+      actual = rejection != null ? "rejected" : frontEnd.getStandardizedAST().toString();
+    }
+    catch(RuntimeException e){
+      actual = "rejected";
+      rejection = e;
+    }
+    if(actual.equals(expected))
+      return;
+    mismatched++;
+    if(mismatches.size() < REPORTED)
+      mismatches.add(change + (rejection != null ? " (" + rejection + ")" : ""));
+  }
+
+  private static int lineOf(String source, int offset){
+    int line = 1;
+    for(int i = 0; i < offset; i++)
+      if(source.charAt(i) == '\n')
+        line++;
+    return line;
+  }
+
+  @Override
+  public String toString(){
+    String report = "Checked " + checked + " edits: " + mismatched + " differed from a fresh parse";
+    for(String mismatch : mismatches)
+      report += System.lineSeparator() + "  " + mismatch;
+    if(mismatched > mismatches.size())
+      report += System.lineSeparator() + "  and " + (mismatched - mismatches.size()) + " more";
+    return report;
+  }
+}
@@ -0,0 +1,375 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import ast.AST;
+import ast.ASTNode;
+import scanner.Scanner;
+import scanner.SymbolTable;
+import scanner.TokenBuffer;
+import scanner.TokenEdit;
+
+/**
+ * The IncrementalFrontEnd class keeps the tokens, parse tree and standardized forms of a program
+ * between edits, so that an edit costs work in proportion to what it changed rather than to the size
+ * of the program.
+ *
+ * The parse tree is divided into regions: the expressions parsed by one call of procE, which are the
+ * let, where and fn expressions and the program as a whole. After an edit only the affected tokens are
+ * scanned again (see TokenEdit), and the smallest region around them is parsed again from its first
+ * token. That region's tree takes the place of the old one, provided it ends before the same token as
+ * before; otherwise the next region out is tried, and at worst the whole program.
+ *
+ * The standardized tree is built by copying the parse tree, which is never changed itself, and
+ * standardizing the copy bottom up. The standardized copy of each region is kept and used again while
+ * the region is unchanged, together with the delta body entries built from it; only the regions that
+ * enclose an edit are standardized and turned into deltas again.
+ *
+ * The standardized subtrees of unchanged regions are shared by every AST this class returns, but their
+ * delta body entries are not: creating the deltas of a new AST copies every reused delta and
+ * conditional before giving it its index and the lexical addresses of its variables, which differ from
+ * tree to tree. A CSE machine built from an earlier AST therefore keeps its own deltas and still gives
+ * the same result after later edits.
+ */
+public class IncrementalFrontEnd{
+  private String source;
+  private SymbolTable symbols;
+  private TokenBuffer tokens;
+  private ASTNode root;
+  // The regions in order of their first token, so each region comes before the regions inside it
+  private List<Region> regions;
+  private Map<ASTNode, Region> regionsByNode;
+  // The delta body entries of the standardized regions, keyed by the root of their standardized tree
+  private Map<ASTNode, List<ASTNode>> deltaBodyFragments;
+  // False once an edit has left the program unscannable or unparsable; it is then rebuilt in full
+  private boolean valid;
+
+  // What the last edit and the last call of getStandardizedAST had to redo
+  private int reparsedTokens;
+  private int restandardizedRegions;
+  private int reusedRegions;
+
+  public IncrementalFrontEnd(String source){
+    this.source = source;
+    rebuild();
+  }
+
+  /**
+   * The function replaces a range of the source and brings the tokens and the parse tree up to date.
+   *
+   * @param offset The offset of the first character to replace.
+   * @param removed The number of characters to replace.
+   * @param text The text to put in their place.
+   * @throws scanner.ScanException If the edited source cannot be scanned.
+   * @throws ParseException If the edited source cannot be parsed.
+   */
+  public void edit(int offset, int removed, String text){
+    if(offset < 0 || removed < 0 || offset + removed > source.length())
+      throw new IndexOutOfBoundsException("Edit of " + removed + " characters at " + offset
+                                          + " is outside a source of " + source.length());
+    String oldSource = source;
+    source = oldSource.substring(0, offset) + text + oldSource.substring(offset + removed);
+    if(!valid){
+      rebuild();
+      return;
+    }
+    try{
+      update(offset, removed, text.length());
+    }
+    catch(RuntimeException e){
+      valid = false;
+      throw e;
+    }
+  }
+
+  /**
+   * The function returns the current program in standard form, ready for the CSE machine. Regions that
+   * have not changed since the last call share their standardized trees and delta bodies with the
+   * trees returned before.
+   *
+   * @return The standardized AST of the current source.
+   */
+  public AST getStandardizedAST(){
+    ensureValid();
+    restandardizedRegions = 0;
+    reusedRegions = 0;
+    AST ast = new AST(standardizedCopy(root, null), symbols, true);
+    ast.setDeltaBodyFragments(deltaBodyFragments);
+    return ast;
+  }
+
+  /**
+   * The function returns a copy of the current parse tree, as Parser.buildAST would return it.
+   *
+   * @return An AST that the caller may print or standardize.
+   */
+  public AST getAST(){
+    ensureValid();
+    return new AST(copy(root), symbols);
+  }
+
+  public String getSource(){
+    return source;
+  }
+
+  public TokenBuffer getTokens(){
+    ensureValid();
+    return tokens;
+  }
+
+  // The number of tokens the last edit had to parse again.
+  public int getReparsedTokenCount(){
+    return reparsedTokens;
+  }
+
+  // The number of regions the last call of getStandardizedAST standardized, and the number it reused.
+  public int getRestandardizedRegionCount(){
+    return restandardizedRegions;
+  }
+
+  public int getReusedRegionCount(){
+    return reusedRegions;
+  }
+
+  private void ensureValid(){
+    if(!valid)
+      rebuild();
+  }
+
+  // Scans and parses the whole source, discarding everything kept from before.
+  private void rebuild(){
+    valid = false;
+    Scanner scanner = Scanner.forSource(source);
+    symbols = scanner.getSymbolTable();
+    tokens = scanner.tokenize();
+    List<Region> found = new ArrayList<Region>();
+    root = new Parser().parseExpression(tokens, 0, tokens.size(), found);
+    if(root == null)
+      throw new ParseException("Expected EOF.");
+    reparsedTokens = tokens.size();
+    regions = new ArrayList<Region>();
+    regionsByNode = new IdentityHashMap<ASTNode, Region>();
+    deltaBodyFragments = new IdentityHashMap<ASTNode, List<ASTNode>>();
+    addRegions(0, found, root, 0, tokens.size());
+    valid = true;
+  }
+
+  private void update(int offset, int removed, int inserted){
+    TokenEdit edit = TokenEdit.apply(tokens, symbols, source, offset, removed, inserted);
+    tokens = edit.getTokens();
+    reparsedTokens = 0;
+    int first = edit.getFirstChanged();
+    int oldEnd = edit.getOldEnd();
+    int tokenDelta = edit.getNewEnd() - oldEnd;
+    int lineDelta = edit.getLineDelta();
+    if(first == oldEnd && tokenDelta == 0 && lineDelta == 0)
+      return; // Only whitespace or comments changed
+
+    // Try the regions around the changed tokens from the innermost outwards
+    for(int i = regions.size() - 1; i >= 0; i--){
+      Region region = regions.get(i);
+      if(region.start >= first || region.end < oldEnd)
+        continue;
+      List<Region> found = new ArrayList<Region>();
+      ASTNode node;
+      try{
+        node = new Parser().parseExpression(tokens, region.start, region.end + tokenDelta, found);
+      }
+      catch(ParseException e){
+        node = null; // Perhaps the edit only makes sense with more of the program around it
+      }
+      if(node != null){
+        reparsedTokens = region.end + tokenDelta - region.start;
+        replace(i, node, found, tokenDelta, lineDelta);
+        return;
+      }
+    }
+    rebuild();
+  }
+
+  /**
+   * The function puts a re-parsed region in place of the old one, moves the spans and line numbers of
+   * everything after it, and forgets the standardized forms of the regions around it.
+   */
+  private void replace(int index, ASTNode node, List<Region> found, int tokenDelta, int lineDelta){
+    Region old = regions.get(index);
+    int oldEnd = old.end;
+    Region parent = null;
+    for(int i = 0; i < index; i++){
+      Region region = regions.get(i);
+      if(region.end >= oldEnd){
+        parent = region;
+        region.end += tokenDelta;
+        forget(region);
+      }
+    }
+    int after = index + 1;
+    while(after < regions.size() && regions.get(after).start < oldEnd)
+      after++;
+    for(int i = after; i < regions.size(); i++){
+      Region region = regions.get(i);
+      region.start += tokenDelta;
+      region.end += tokenDelta;
+      if(lineDelta != 0 && region.standardizedNodes != null){
+        for(ASTNode standardizedNode : region.standardizedNodes)
+          standardizedNode.setSourceLineNumber(standardizedNode.getSourceLineNumber() + lineDelta);
+      }
+    }
+    List<Region> dropped = regions.subList(index, after);
+    for(Region region : dropped){
+      regionsByNode.remove(region.node);
+      forget(region);
+    }
+    dropped.clear();
+    addRegions(index, found, node, old.start, oldEnd + tokenDelta);
+
+    node.setSibling(old.node.getSibling());
+    if(old.node == root)
+      root = node;
+    else
+      relink(parent.node, old.node, node);
+    if(lineDelta != 0 || node.getSourceLineNumber() != old.node.getSourceLineNumber())
+      updateLines(node, lineDelta);
+  }
+
+  // Adds the regions found by a parse at the given position, with the parsed expression itself first.
+  private void addRegions(int index, List<Region> found, ASTNode node, int start, int end){
+    List<Region> added = new ArrayList<Region>();
+    if(found.isEmpty() || found.get(found.size() - 1).node != node)
+      added.add(new Region(node, start, end));
+    // procE records an expression when it is finished, so an enclosing region follows those inside it
+    for(int i = found.size() - 1; i >= 0; i--)
+      added.add(found.get(i));
+    added.sort((a, b) -> a.start != b.start ? Integer.compare(a.start, b.start) : Integer.compare(b.end, a.end));
+    for(Region region : added)
+      regionsByNode.put(region.node, region);
+    regions.addAll(index, added);
+  }
+
+  private void forget(Region region){
+    if(region.standardized != null)
+      deltaBodyFragments.remove(region.standardized);
+    region.standardized = null;
+    region.standardizedNodes = null;
+  }
+
+  // Points the link to oldNode, which lies among the parent region's own nodes, at newNode. The
+  // regions inside the parent's are not searched, but the nodes after each of them among its siblings
+  // may still be the parent region's own.
+  private void relink(ASTNode parent, ASTNode oldNode, ASTNode newNode){
+    Stack<ASTNode> pending = new Stack<ASTNode>();
+    pending.push(parent);
+    while(!pending.isEmpty()){
+      ASTNode node = pending.pop();
+      ASTNode previous = null;
+      for(ASTNode child = node.getChild(); child != null; child = child.getSibling()){
+        if(child == oldNode){
+          if(previous == null)
+            node.setChild(newNode);
+          else
+            previous.setSibling(newNode);
+          return;
+        }
+        if(!regionsByNode.containsKey(child))
+          pending.push(child);
+        previous = child;
+      }
+    }
+    throw new IllegalStateException("Region is not inside the region that encloses it");
+  }
+
+  // Brings the line numbers of the parse tree up to date after the given subtree has replaced a
+  // region. The leaves after the subtree move by lineDelta, and every node with children takes the
+  // line of its first child again, as the parser gives it, since that child may now lie elsewhere.
+  private void updateLines(ASTNode subtree, int lineDelta){
+    List<ASTNode> pending = new ArrayList<ASTNode>();
+    List<ASTNode> children = new ArrayList<ASTNode>();
+    Stack<ASTNode> finished = new Stack<ASTNode>();
+    boolean after = false;
+    pending.add(root);
+    // A node is finished once its children are, so a node's children are done before the node is
+    while(!pending.isEmpty()){
+      ASTNode node = pending.remove(pending.size() - 1);
+      if(node == subtree){
+        after = true;
+        continue;
+      }
+      if(node.getChild() == null){
+        if(after)
+          node.setSourceLineNumber(node.getSourceLineNumber() + lineDelta);
+        continue;
+      }
+      finished.push(node);
+      children.clear();
+      for(ASTNode child = node.getChild(); child != null; child = child.getSibling())
+        children.add(child);
+      for(int i = children.size() - 1; i >= 0; i--)
+        pending.add(children.get(i));
+    }
+    while(!finished.isEmpty()){
+      ASTNode node = finished.pop();
+      node.setSourceLineNumber(node.getChild().getSourceLineNumber());
+    }
+  }
+
+  // Returns the standardized form of a parse tree node, using the kept form of an unchanged region.
+  private ASTNode standardizedCopy(ASTNode node, List<ASTNode> owner){
+    Region region = regionsByNode.get(node);
+    if(region == null)
+      return copyAndStandardize(node, owner);
+    if(region.standardized != null){
+      reusedRegions++;
+      return region.standardized;
+    }
+    restandardizedRegions++;
+    region.standardizedNodes = new ArrayList<ASTNode>();
+    region.standardized = copyAndStandardize(node, region.standardizedNodes);
+    deltaBodyFragments.put(region.standardized, null);
+    return region.standardized;
+  }
+
+  private ASTNode copyAndStandardize(ASTNode node, List<ASTNode> owner){
+    ASTNode copy = copyNode(node);
+    owner.add(copy);
+    ASTNode last = null;
+    for(ASTNode child = node.getChild(); child != null; child = child.getSibling()){
+      ASTNode childCopy = standardizedCopy(child, owner);
+      if(last == null)
+        copy.setChild(childCopy);
+      else
+        last.setSibling(childCopy);
+      last = childCopy;
+    }
+    if(last != null)
+      last.setSibling(null);
+    AST.standardizeNode(copy);
+    return copy;
+  }
+
+  private ASTNode copy(ASTNode node){
+    ASTNode copy = copyNode(node);
+    ASTNode last = null;
+    for(ASTNode child = node.getChild(); child != null; child = child.getSibling()){
+      ASTNode childCopy = copy(child);
+      if(last == null)
+        copy.setChild(childCopy);
+      else
+        last.setSibling(childCopy);
+      last = childCopy;
+    }
+    return copy;
+  }
+
+  private static ASTNode copyNode(ASTNode node){
+    ASTNode copy = new ASTNode();
+    copy.setType(node.getType());
+    copy.setValue(node.getValue());
+    copy.setSymbol(node.getSymbol());
+    copy.setSourceLineNumber(node.getSourceLineNumber());
+    return copy;
+  }
+}
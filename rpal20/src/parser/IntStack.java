@@ -0,0 +1,48 @@
+package parser;
+
+import java.util.Arrays;
+
+/**
+ * The IntStack class is a growable stack of ints. The parser keeps its own call stack in two of them,
+ * so that the depth of nesting it can parse is limited by the heap rather than by the Java stack.
+ */
+final class IntStack {
+  private int[] items;
+  private int size;
+
+  IntStack(int capacity){
+    items = new int[Math.max(capacity, 4)];
+  }
+
+  void push(int item){
+    if(size == items.length)
+      items = Arrays.copyOf(items, size * 2);
+    items[size++] = item;
+  }
+
+  int pop(){
+    return items[--size];
+  }
+
+  int peek(){
+    return items[size - 1];
+  }
+
+  // Adds one to the item on top of the stack, as a loop does to the count it keeps there.
+  void increment(){
+    items[size - 1]++;
+  }
+
+  // The item at the given depth from the bottom of the stack.
+  int get(int index){
+    return items[index];
+  }
+
+  int size(){
+    return size;
+  }
+
+  void clear(){
+    size = 0;
+  }
+}
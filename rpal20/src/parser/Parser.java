@@ -1,27 +1,97 @@
 package parser;
 
-import java.util.Stack;
+import java.util.EmptyStackException;
+import java.util.List;
 
 import ast.AST;
 import ast.ASTNode;
 import ast.ASTNodeType;
+import ast.NodeArena;
+import ast.StandardizeException;
 import scanner.Scanner;
-import scanner.Token;
+import scanner.SymbolTable;
+import scanner.TokenStream;
 import scanner.TokenType;
 
 public class Parser{
-  // The above code is declaring a private Scanner object named "s" and a private Token object named
-  // "currentToken". It also declares a Stack object named "stack" that will store ASTNode objects.
+  // The above code is declaring a private Scanner object named "s", the buffer of tokens it produces
+  // and the position of the current token in that buffer. It also declares the arena the tree is
+  // built in, and a stack named "stack" of the nodes in the arena that are waiting for a parent.
   private Scanner s;
-  private Token currentToken;
-  Stack<ASTNode> stack;
+  private TokenStream tokens;
+  private int currentToken;
+  // The type and symbol of the current token, read once by readNT; the type is null past the end
+  private TokenType currentType;
+  private int currentSymbol;
+  private NodeArena arena;
+  IntStack stack;
+  // When not null, every expression parsed by procE is recorded here with its span of tokens, and
+  // its node in the arena is kept in regionNodes until the tree is made into objects
+  private List<Region> regions;
+  private final IntStack regionNodes = new IntStack(16);
+  // Whether each node is standardized as soon as it is built, and the first error in doing so
+  private boolean standardizing;
+  private StandardizeException standardizeError;
+  // The call stack of procE: the states to return to, and the values procedures keep across calls
+  private final IntStack control = new IntStack(64);
+  private final IntStack locals = new IntStack(64);
 
   // The above code is defining a constructor for a class called Parser. The constructor takes a
-  // parameter of type Scanner and assigns it to a variable called s. It also initializes a new Stack
-  // object called stack.
+  // parameter of type Scanner and assigns it to a variable called s. It also initializes a new stack
+  // called stack.
   public Parser(Scanner s){
     this.s = s;
-    stack = new Stack<ASTNode>();
+    stack = new IntStack(64);
+  }
+
+  // The parser the incremental front end uses: it is handed its tokens by parseExpression
+  Parser(){
+    stack = new IntStack(64);
+  }
+
+  /**
+   * The function parses one expression (E) starting at the given token, as procE would if it were
+   * called there, and checks that the expression ends exactly at the given token. Each let, where and
+   * fn expression inside it is recorded with its span of tokens.
+   * 
+   * @param tokens The token stream to parse.
+   * @param start The index of the first token of the expression.
+   * @param end The index of the token the expression must end before.
+   * @param regions The list to add the let, where and fn expressions to, outermost last.
+   * @return The root of the expression's tree, or null if the expression does not end at end.
+   * @throws ParseException If the tokens do not form an expression.
+   */
+  ASTNode parseExpression(TokenStream tokens, int start, int end, List<Region> regions){
+    this.tokens = tokens;
+    this.regions = regions;
+    arena = new NodeArena();
+    stack.clear();
+    regionNodes.clear();
+    int firstRegion = regions.size();
+    currentToken = start - 1;
+    readNT();
+    procE();
+    if(currentToken != end)
+      return null;
+    // The token after the expression may have been pushed already, as readNT pushes it on reading it
+    if(hasCurrentToken() && stack.size() > 1)
+      stack.pop();
+    if(stack.size() != 1)
+      return null;
+    // The front end keeps its trees as objects, so that it can share and relink their subtrees
+    int root = stack.pop();
+    ASTNode[] objects = arena.toNodes(root);
+    for(int i = 0; i < regionNodes.size(); i++)
+      regions.get(firstRegion + i).node = objects[regionNodes.get(i)];
+    return objects[root];
+  }
+
+  // Records the expression procE has just built, which started at the given token.
+  private void recordRegion(int start){
+    if(regions != null){
+      regions.add(new Region(null, start, currentToken));
+      regionNodes.push(stack.peek());
+    }
   }
   
   /**
@@ -32,55 +102,106 @@ public class Parser{
    */
   public AST buildAST(){
     startParse();
-    return new AST(stack.pop());
+    return new AST(arena, popNode(), s.getSymbolTable());
+  }
+
+  /**
+   * The function builds the Abstract Syntax Tree already in standard form. Each node is standardized
+   * as soon as the parser builds it, which is after its children, so the tree is never walked a second
+   * time and no surface form is kept for AST.standardize to rewrite. The tree and the errors are the
+   * same as those of buildAST followed by AST.standardize.
+   * 
+   * @return The standardized AST.
+   * @throws StandardizeException If the program parses but cannot be standardized.
+   */
+  public AST buildStandardizedAST(){
+    standardizing = true;
+    standardizeError = null;
+    int root;
+    try{
+      startParse();
+      root = popNode();
+    }
+    finally{
+      standardizing = false;
+    }
+    if(standardizeError != null)
+      throw standardizeError;
+    return new AST(arena, root, s.getSymbolTable(), true);
+  }
+
+  // Pops the node on top of the stack, failing as java.util.Stack does when there is none.
+  private int popNode(){
+    if(stack.size() == 0)
+      throw new EmptyStackException();
+    return stack.pop();
   }
 
  /**
   * The startParse function reads and processes tokens until the end of the file is reached.
   */
   public void startParse(){
-    readNT();
-    procE();
-    if(currentToken!=null)
-      throw new ParseException("Expected EOF.");
+    tokens = s.openTokenStream();
+    arena = new NodeArena();
+    stack.clear();
+    currentToken = -1;
+    try {
+      readNT();
+      procE();
+      if(hasCurrentToken())
+        throw new ParseException("Expected EOF.");
+    } catch(ParseException e) {
+      // A stream still being scanned may hold a scanning error further on, which takes precedence
+      tokens.drain();
+      throw e;
+    }
   }
 
   private void readNT() {
-    // Continue reading tokens until a non-DELETE token is encountered
-    for (currentToken = s.readNextToken(); isCurrentTokenType(TokenType.DELETE); currentToken = s.readNextToken()) {
-        // Skip DELETE tokens
-    }
-
-    // Check if the currentToken is not null
-    if (null != currentToken) {
-        if (currentToken.getType() == TokenType.IDENTIFIER) {
+    // The token stream holds no DELETE tokens, so the next token is simply the next entry
+    currentToken++;
+    tokens.release(currentToken);
+
+    // Check if the end of the token stream has not been reached
+    currentType = tokens.has(currentToken) ? tokens.getType(currentToken) : null;
+    if (currentType != null) {
+        currentSymbol = tokens.getSymbol(currentToken);
+        if (currentType == TokenType.IDENTIFIER) {
             // Create a terminal AST node for an identifier
-            createTerminalASTNode(ASTNodeType.IDENTIFIER, currentToken.getValue());
-        } else if (currentToken.getType() == TokenType.INTEGER) {
+            createTerminalASTNode(ASTNodeType.IDENTIFIER, tokens.getValue(currentToken));
+        } else if (currentType == TokenType.INTEGER) {
             // Create a terminal AST node for an integer
-            createTerminalASTNode(ASTNodeType.INTEGER, currentToken.getValue());
-        } else if (currentToken.getType() == TokenType.STRING) {
+            createTerminalASTNode(ASTNodeType.INTEGER, tokens.getValue(currentToken));
+        } else if (currentType == TokenType.STRING) {
             // Create a terminal AST node for a string
-            createTerminalASTNode(ASTNodeType.STRING, currentToken.getValue());
+            createTerminalASTNode(ASTNodeType.STRING, tokens.getValue(currentToken));
         }
     }
 }
 
+  /**
+   * Checks if there is a current token, that is, if the end of the token stream has not been reached.
+   * @return True if the current position holds a token, false at the end of the stream.
+   */
+  private boolean hasCurrentToken() {
+    return currentType != null;
+  }
+
   
   /**
- * Checks if the current token matches the given TokenType and value.
+ * Checks if the current token matches the given TokenType and interned value.
  * @param type The expected TokenType to match.
- * @param value The expected value to match.
+ * @param symbol The symbol id of the expected value, one of the SymbolTable constants.
  * @return True if the current token matches the given TokenType and value, false otherwise.
  */
-private boolean isCurrentToken(TokenType type, String value) {
-    // Check if the currentToken is null, indicating no valid token is available.
-    if (currentToken == null) {
+private boolean isCurrentToken(TokenType type, int symbol) {
+    // Check if the end of the stream has been reached, indicating no valid token is available.
+    if (!hasCurrentToken()) {
         return false;
     }
 
-    // Compare the TokenType and value of the currentToken with the expected values.
-    if (currentToken.getType() != type || !currentToken.getValue().equals(value)) {
+    // Compare the TokenType and symbol id of the currentToken with the expected values.
+    if (currentType != type || currentSymbol != symbol) {
         return false; // If TokenType or value does not match, return false.
     }
 
@@ -94,13 +215,13 @@ private boolean isCurrentToken(TokenType type, String value) {
  * @return True if the current token's TokenType matches the given TokenType, false otherwise.
  */
 private boolean isCurrentTokenType(TokenType type) {
-    // Check if the currentToken is null, indicating no valid token is available.
-    if (currentToken == null) {
+    // Check if the end of the stream has been reached, indicating no valid token is available.
+    if (!hasCurrentToken()) {
         return false;
     }
 
     // Compare the TokenType of the currentToken with the expected TokenType.
-    if (currentToken.getType() == type) {
+    if (currentType == type) {
         return true; // If TokenType matches, return true.
     }
 
@@ -115,32 +236,49 @@ private boolean isCurrentTokenType(TokenType type) {
  * @param ariness The arity or number of children the N-ary node should have.
  */
 private void buildNAryASTNode(ASTNodeType type, int ariness) {
-    // Create a new ASTNode to represent the N-ary node.
-    ASTNode node = new ASTNode();
-    node.setType(type);
+    // Add a new node to the arena to represent the N-ary node.
+    int node = arena.add(type);
 
     for (int i = 0; i < ariness; i++) {
         // Pop the topmost 'ariness' number of nodes from the stack as children of the current node.
-        ASTNode child = stack.pop();
+        int child = popNode();
 
         // Link the child to the current node by setting its sibling pointer.
         // This allows us to create a linked list of children with the same parent.
-        if (node.getChild() != null) {
-            child.setSibling(node.getChild());
+        if (arena.getChild(node) != NodeArena.NONE) {
+            arena.setSibling(child, arena.getChild(node));
         }
 
         // Set the current child as the new first child of the N-ary node.
-        node.setChild(child);
+        arena.setChild(node, child);
 
         // Set the source line number of the N-ary node to that of its first child.
         // This ensures consistency in the source line information for the entire N-ary node.
-        node.setSourceLineNumber(child.getSourceLineNumber());
+        arena.setSourceLineNumber(node, arena.getSourceLineNumber(child));
     }
 
     // Push the newly built N-ary node back onto the stack to be used as a parent in further processing.
     stack.push(node);
+
+    if (standardizing)
+        standardizeBuiltNode(node);
 }
 
+  // Standardizes a node that has just been built. The first error is kept until the parse is over, so
+  // that a syntax error later in the source is still reported first, and nothing is standardized after
+  // it, as AST.standardize would have stopped there too. Nodes are built in the order AST.standardize
+  // visits them, so the error kept is the one it would throw.
+  private void standardizeBuiltNode(int node){
+    if(standardizeError != null)
+      return;
+    try{
+      AST.standardizeNode(arena, node);
+    }
+    catch(StandardizeException e){
+      standardizeError = e;
+    }
+  }
+
 
   /**
  * Creates a terminal AST node with the given type and value from the current token.
@@ -149,511 +287,544 @@ private void buildNAryASTNode(ASTNodeType type, int ariness) {
  * @param value The value of the terminal AST node.
  */
 private void createTerminalASTNode(ASTNodeType type, String value) {
-    // Create a new ASTNode to represent the terminal node.
-    ASTNode node = new ASTNode();
-    node.setType(type);
-    node.setValue(value);
-
-    // Set the source line number of the terminal node from the current token.
-    node.setSourceLineNumber(currentToken.getSourceLineNumber());
+    // Add a new node to the arena to represent the terminal node, with the source line number of the
+    // current token.
+    int node = arena.add(type, value, type == ASTNodeType.IDENTIFIER ? currentSymbol : SymbolTable.NONE,
+                         tokens.getSourceLineNumber(currentToken));
 
     // Push the newly created terminal node onto the stack for further processing.
     stack.push(node);
 }
 
   
-  private void procE() {
-    // Check if the current token is 'let'
-    if (isCurrentToken(TokenType.RESERVED, "let")) {
-        readNT(); // Read the 'let' token
-        procD(); // Process the declarations
-        if (!isCurrentToken(TokenType.RESERVED, "in"))
-            throw new ParseException("E: 'in' expected");
-        readNT(); // Read the 'in' token
-        procE(); // Process the expression
-        buildNAryASTNode(ASTNodeType.LET, 2); // Build the AST node for 'let' expression with 2 children
-    }
-    // Check if the current token is 'fn'
-    else if (isCurrentToken(TokenType.RESERVED, "fn")) {
-        int treesToPop = 0;
-        readNT(); // Read the 'fn' token
-
-        // Process variable bindings
-        for (; isCurrentTokenType(TokenType.IDENTIFIER) || isCurrentTokenType(TokenType.L_PAREN); treesToPop++) {
-            procVB();
-        }
-
-        // Check if at least one 'Vb' is expected
-        if (treesToPop == 0)
-            throw new ParseException("E: at least one 'Vb' expected");
-
-        // Check if the next token is '.'
-        if (!isCurrentToken(TokenType.OPERATOR, "."))
-            throw new ParseException("E: '.' expected");
-
-        readNT(); // Read the '.' token
-        procE(); // Process the expression
-        buildNAryASTNode(ASTNodeType.LAMBDA, treesToPop + 1); // Build the AST node for lambda expression with appropriate children
-    }
-    // If neither 'let' nor 'fn', then process the expression with postfix operators and other expressions
-    else
-        procEW();
-}
-  
-  /**
-   * The function procEW processes a token and checks if it is a reserved word "where", and if so, it
-   * reads the next token and processes it as a DR (data retrieval) token, and then builds an n-ary AST
-   * (abstract syntax tree) node with the type WHERE and 2 children.
-   */
-  private void procEW(){
-    procT();
-    if(isCurrentToken(TokenType.RESERVED, "where")){ 
-      readNT();
-      procDR(); 
-      buildNAryASTNode(ASTNodeType.WHERE, 2);
-    }
+  // The states of procE(). A state names either the start of a grammar procedure (E, T, ..., DB) or the
+  // point in a procedure that a call to another procedure returns to. Calling a procedure pushes the
+  // state to return to on the control stack; the procedure returns by popping it. Counts, starting
+  // tokens and operator symbols that a procedure needs after such a call are kept on the locals stack.
+  private static final int DONE = 0;
+  private static final int E = 1;
+  private static final int E_LET_IN = 2;
+  private static final int E_LET_END = 3;
+  private static final int E_FN_END = 4;
+  private static final int EW_AFTER_T = 5;
+  private static final int EW_END = 6;
+  private static final int T = 7;
+  private static final int T_LOOP = 8;
+  private static final int TA = 9;
+  private static final int TA_LOOP = 10;
+  private static final int TA_BUILD = 11;
+  private static final int TC = 12;
+  private static final int TC_AFTER_B = 13;
+  private static final int TC_BAR = 14;
+  private static final int TC_END = 15;
+  private static final int B = 16;
+  private static final int OPERAND = 17;
+  private static final int OPERATOR = 18;
+  private static final int INFIX_END = 19;
+  private static final int NOT_END = 20;
+  private static final int NEG_END = 21;
+  private static final int PAREN_CLOSE = 22;
+  private static final int APPLY_CLOSE = 23;
+  private static final int D = 24;
+  private static final int D_AFTER_DA = 25;
+  private static final int D_END = 26;
+  private static final int DA = 27;
+  private static final int DA_LOOP = 28;
+  private static final int DR = 29;
+  private static final int DR_END = 30;
+  private static final int DB = 31;
+  private static final int DB_CLOSE = 32;
+  private static final int DB_EQUAL = 33;
+  private static final int DB_FCN = 34;
+
+  // The precedence levels of B, from the loosest to the tightest binding. An operand is parsed at a
+  // level and takes in every operator that binds tighter; the level of a tree is that of the operator
+  // at its root, or APPLY for an application or a single Rn.
+  private static final int OR_LEVEL = 1;
+  private static final int AND_LEVEL = 2;
+  private static final int RELATIONAL_LEVEL = 3;
+  private static final int ADD_LEVEL = 4;
+  private static final int MULTIPLY_LEVEL = 5;
+  private static final int POWER_LEVEL = 6;
+  private static final int AT_LEVEL = 7;
+  private static final int APPLY_LEVEL = 8;
+
+  // The prefix operators an operand may start with: 'not' where the grammar expects Bs, a sign where
+  // it expects A, and neither where it expects At or anything tighter.
+  private static final int NO_PREFIX = 0;
+  private static final int SIGN_PREFIX = 1;
+  private static final int NOT_OR_SIGN_PREFIX = 2;
+
+  // The infix operators of B, indexed by symbol id. An operator applies when it binds tighter than the
+  // level the operand is parsed at and the tree to its left is at least its left level; its right
+  // operand is parsed at its right level. A right level below the operator's own makes it right
+  // associative, and a left level above it makes it non-associative.
+  private static final ASTNodeType[] INFIX_TYPES = new ASTNodeType[SymbolTable.EQUALS + 1];
+  private static final int[] INFIX_LEVELS = new int[SymbolTable.EQUALS + 1];
+  private static final int[] LEFT_LEVELS = new int[SymbolTable.EQUALS + 1];
+  private static final int[] RIGHT_LEVELS = new int[SymbolTable.EQUALS + 1];
+  private static final int[] RIGHT_PREFIXES = new int[SymbolTable.EQUALS + 1];
+
+  static {
+    infix(SymbolTable.OR, ASTNodeType.OR, OR_LEVEL, OR_LEVEL, OR_LEVEL, NOT_OR_SIGN_PREFIX);
+    infix(SymbolTable.AMPERSAND, ASTNodeType.AND, AND_LEVEL, AND_LEVEL, AND_LEVEL, NOT_OR_SIGN_PREFIX);
+    infix(SymbolTable.GR, ASTNodeType.GR, RELATIONAL_LEVEL, ADD_LEVEL, RELATIONAL_LEVEL, SIGN_PREFIX);
+    infix(SymbolTable.GREATER, ASTNodeType.GR, RELATIONAL_LEVEL, ADD_LEVEL, RELATIONAL_LEVEL, SIGN_PREFIX);
+    infix(SymbolTable.GE, ASTNodeType.GE, RELATIONAL_LEVEL, ADD_LEVEL, RELATIONAL_LEVEL, SIGN_PREFIX);
+    infix(SymbolTable.GREATER_EQUAL, ASTNodeType.GE, RELATIONAL_LEVEL, ADD_LEVEL, RELATIONAL_LEVEL, SIGN_PREFIX);
+    infix(SymbolTable.LS, ASTNodeType.LS, RELATIONAL_LEVEL, ADD_LEVEL, RELATIONAL_LEVEL, SIGN_PREFIX);
+    infix(SymbolTable.LESS, ASTNodeType.LS, RELATIONAL_LEVEL, ADD_LEVEL, RELATIONAL_LEVEL, SIGN_PREFIX);
+    infix(SymbolTable.LE, ASTNodeType.LE, RELATIONAL_LEVEL, ADD_LEVEL, RELATIONAL_LEVEL, SIGN_PREFIX);
+    infix(SymbolTable.LESS_EQUAL, ASTNodeType.LE, RELATIONAL_LEVEL, ADD_LEVEL, RELATIONAL_LEVEL, SIGN_PREFIX);
+    infix(SymbolTable.EQ, ASTNodeType.EQ, RELATIONAL_LEVEL, ADD_LEVEL, RELATIONAL_LEVEL, SIGN_PREFIX);
+    infix(SymbolTable.NE, ASTNodeType.NE, RELATIONAL_LEVEL, ADD_LEVEL, RELATIONAL_LEVEL, SIGN_PREFIX);
+    infix(SymbolTable.PLUS, ASTNodeType.PLUS, ADD_LEVEL, ADD_LEVEL, ADD_LEVEL, NO_PREFIX);
+    infix(SymbolTable.MINUS, ASTNodeType.MINUS, ADD_LEVEL, ADD_LEVEL, ADD_LEVEL, NO_PREFIX);
+    infix(SymbolTable.TIMES, ASTNodeType.MULT, MULTIPLY_LEVEL, MULTIPLY_LEVEL, MULTIPLY_LEVEL, NO_PREFIX);
+    infix(SymbolTable.DIVIDE, ASTNodeType.DIV, MULTIPLY_LEVEL, MULTIPLY_LEVEL, MULTIPLY_LEVEL, NO_PREFIX);
+    infix(SymbolTable.POWER, ASTNodeType.EXP, POWER_LEVEL, AT_LEVEL, MULTIPLY_LEVEL, NO_PREFIX);
+    infix(SymbolTable.AT, ASTNodeType.AT, AT_LEVEL, AT_LEVEL, AT_LEVEL, NO_PREFIX);
   }
-   
- 
-  private void procT() {
-    // Process the first term in the expression
-    procTA();
-
-    int treesToPop = 0; // Counter to keep track of the number of terms
-
-    // Iterate over each ',' separated term in the expression
-    for (; isCurrentToken(TokenType.OPERATOR, ","); treesToPop++) {
-        readNT(); // Read the ',' token
-        procTA(); // Process the next term
-    }
-
-    // If there are multiple terms, build the NAry AST node for the 'tau' expression
-    if (treesToPop > 0) {
-        buildNAryASTNode(ASTNodeType.TAU, treesToPop + 1);
-    }
-}
- 
-private void procTA() {
-    procTC();
-
-    // Iterate over each 'aug' separated term in the expression
-    for (; isCurrentToken(TokenType.RESERVED, "aug"); ) {
-        readNT(); // Read the 'aug' token
-        procTC(); // Process the next term
-        buildNAryASTNode(ASTNodeType.AUG, 2); // Build the AST node for 'aug' expression with 2 children
-    }
-}
-
- private void procTC() {
-    // Process the first expression
-    procB();
-
-    // Check if the current token is '->', indicating a conditional expression
-    if (isCurrentToken(TokenType.OPERATOR, "->")) {
-        readNT(); // Read the '->' token
-
-        // Process the expression on the right-hand side of '->'
-        procTC();
 
-        // Check if the current token is '|', which separates the two branches of the conditional expression
-        if (!isCurrentToken(TokenType.OPERATOR, "|"))
-            throw new ParseException("TC: '|' expected");
-        
-        readNT(); // Read the '|' token
-
-        // Process the expression on the right-hand side of '|'
-        procTC();
-
-        // Build the AST node for the 'conditional' expression with 3 children
-        buildNAryASTNode(ASTNodeType.CONDITIONAL, 3);
-    }
-}
-
-  
-  
- private void procB() {
-    procBT();
-
-    // Iterate over each 'or' separated term in the expression
-    for (; isCurrentToken(TokenType.RESERVED, "or"); ) {
-        readNT(); // Read the 'or' token
-        procBT(); // Process the next term
-        buildNAryASTNode(ASTNodeType.OR, 2); // Build the AST node for 'or' expression with 2 children
-    }
-}
-
-private void procBT() {
-    procBS();
-
-    // Iterate over each '&' separated factor in the expression
-    for (; isCurrentToken(TokenType.OPERATOR, "&"); ) {
-        readNT(); // Read the '&' token
-        procBS(); // Process the next factor
-        buildNAryASTNode(ASTNodeType.AND, 2); // Build the AST node for 'and' expression with 2 children
-    }
-}
-
-private void procBS() {
-    // Check if the current token is 'not'
-    if (isCurrentToken(TokenType.RESERVED, "not")) {
-        readNT(); // Read the 'not' token
-        procBP(); // Process the next term
-        buildNAryASTNode(ASTNodeType.NOT, 1); // Build the AST node for 'not' expression with 1 child
-    } else {
-        procBP(); // Process the term
-    }
-}
-
-  private void procBP(){
-    procA(); // Process the left-hand side expression
-
-    // Check for greater than (>) or 'gr' reserved token
-    if(isCurrentToken(TokenType.RESERVED,"gr")||isCurrentToken(TokenType.OPERATOR,">")){ 
-        readNT(); // Consume the 'gr' or '>' token
-        procA(); // Process the right-hand side expression
-        buildNAryASTNode(ASTNodeType.GR, 2); // Build AST node for 'greater than' operation
-    }
-    // Check for greater than or equal (>=) or 'ge' reserved token
-    else if(isCurrentToken(TokenType.RESERVED,"ge")||isCurrentToken(TokenType.OPERATOR,">=")){ 
-        readNT(); // Consume the 'ge' or '>=' token
-        procA(); // Process the right-hand side expression
-        buildNAryASTNode(ASTNodeType.GE, 2); // Build AST node for 'greater than or equal' operation
-    }
-    // Check for less than (<) or 'ls' reserved token
-    else if(isCurrentToken(TokenType.RESERVED,"ls")||isCurrentToken(TokenType.OPERATOR,"<")){ 
-        readNT(); // Consume the 'ls' or '<' token
-        procA(); // Process the right-hand side expression
-        buildNAryASTNode(ASTNodeType.LS, 2); // Build AST node for 'less than' operation
-    }
-    // Check for less than or equal (<=) or 'le' reserved token
-    else if(isCurrentToken(TokenType.RESERVED,"le")||isCurrentToken(TokenType.OPERATOR,"<=")){ 
-        readNT(); // Consume the 'le' or '<=' token
-        procA(); // Process the right-hand side expression
-        buildNAryASTNode(ASTNodeType.LE, 2); // Build AST node for 'less than or equal' operation
-    }
-    // Check for equal (eq) reserved token
-    else if(isCurrentToken(TokenType.RESERVED,"eq")){ 
-        readNT(); // Consume the 'eq' token
-        procA(); // Process the right-hand side expression
-        buildNAryASTNode(ASTNodeType.EQ, 2); // Build AST node for 'equal' operation
-    }
-    // Check for not equal (ne) reserved token
-    else if(isCurrentToken(TokenType.RESERVED,"ne")){
-        readNT(); // Consume the 'ne' token
-        procA(); // Process the right-hand side expression
-        buildNAryASTNode(ASTNodeType.NE, 2); // Build AST node for 'not equal' operation
-    }
-}
-
-  
-private void procA() {
-  // Check if the current token is '+'
-  if (isCurrentToken(TokenType.OPERATOR, "+")) {
-    readNT(); // Consume the '+' token
-    procAT(); // Process the next term
-  } 
-  // Check if the current token is '-'
-  else if (isCurrentToken(TokenType.OPERATOR, "-")) {
-    readNT(); // Consume the '-' token
-    procAT(); // Process the next term
-    buildNAryASTNode(ASTNodeType.NEG, 1); // Build AST node for unary minus
-  } 
-  // If the current token is neither '+' nor '-', process the term
-  else {
-    procAT(); // Process the term
+  private static void infix(int symbol, ASTNodeType type, int level, int leftLevel, int rightLevel, int rightPrefixes){
+    INFIX_TYPES[symbol] = type;
+    INFIX_LEVELS[symbol] = level;
+    LEFT_LEVELS[symbol] = leftLevel;
+    RIGHT_LEVELS[symbol] = rightLevel;
+    RIGHT_PREFIXES[symbol] = rightPrefixes;
   }
 
-  // A flag to keep track of whether the last operator encountered was a '+' or '-'
-  boolean plus = true;
-
-  // Loop to handle consecutive '+' or '-' operators
-  while (isCurrentToken(TokenType.OPERATOR, "+") || isCurrentToken(TokenType.OPERATOR, "-")) {
-    // Check the current operator and set the flag accordingly
-    if (currentToken.getValue().equals("+"))
-      plus = true; // Set flag for '+' operator
-    else if (currentToken.getValue().equals("-"))
-      plus = false; // Set flag for '-' operator
-
-    readNT(); // Consume the '+' or '-' token
-    procAT(); // Process the next term
-
-    // Build the appropriate AST node based on whether it is a plus or minus operator
-    if (plus)
-      buildNAryASTNode(ASTNodeType.PLUS, 2); // Build AST node for '+' operation
-    else
-      buildNAryASTNode(ASTNodeType.MINUS, 2); // Build AST node for '-' operation
-  }
-}
-
-  
-  
- private void procAT() {
-    // Process the left-hand side factor.
-    procAF();
-
-    // A flag to keep track of whether the last operator encountered was '*' or '/'.
-    boolean mult = true;
-
-    // Iterate over the consecutive '*' or '/' operators.
-    while (isCurrentToken(TokenType.OPERATOR, "*") || isCurrentToken(TokenType.OPERATOR, "/")) {
-        // Check the current operator and set the flag accordingly.
-        if (currentToken.getValue().equals("*")) {
-            mult = true;
-        } else if (currentToken.getValue().equals("/")) {
-            mult = false;
+  /**
+   * The function parses one expression (E) from the current token. Each grammar procedure, from E
+   * down to Tc and from D down to Db, is a group of states in the loop below, as is the precedence
+   * parsing of B, which covers Bt down to Rn in a single loop over the operators. A call from one
+   * procedure to another is kept on the control and locals stacks rather than the Java stack, so that
+   * no depth of nesting in the source can overflow the Java stack.
+   */
+  private void procE(){
+    control.clear();
+    locals.clear();
+    control.push(DONE);
+    int state = E;
+    // While B is parsed: the level of the operand being parsed, the level of the tree to the left of
+    // the current token, and the prefix operators the operand may start with
+    int level = 0;
+    int left = 0;
+    int prefixes = NO_PREFIX;
+    while(state != DONE){
+      switch(state){
+        // E -> 'let' D 'in' E | 'fn' Vb+ '.' E | Ew
+        case E: {
+          int start = currentToken;
+          if(isCurrentToken(TokenType.RESERVED, SymbolTable.LET)){
+            readNT();
+            locals.push(start);
+            control.push(E_LET_IN);
+            state = D;
+            break;
+          }
+          if(isCurrentToken(TokenType.RESERVED, SymbolTable.FN)){
+            int treesToPop = 0;
+            readNT();
+            for(; isCurrentTokenType(TokenType.IDENTIFIER) || isCurrentTokenType(TokenType.L_PAREN); treesToPop++)
+              procVB();
+            if(treesToPop == 0)
+              throw new ParseException("E: at least one 'Vb' expected");
+            if(!isCurrentToken(TokenType.OPERATOR, SymbolTable.DOT))
+              throw new ParseException("E: '.' expected");
+            readNT();
+            locals.push(start);
+            locals.push(treesToPop);
+            control.push(E_FN_END);
+            state = E;
+            break;
+          }
+          // Ew -> T 'where' Dr | T
+          locals.push(start);
+          control.push(EW_AFTER_T);
+          state = T;
+          break;
         }
-
-        // Consume the current token.
-        readNT();
-
-        // Process the next factor.
-        procAF();
-
-        // Build the appropriate AST node based on the operator.
-        if (mult) {
-            buildNAryASTNode(ASTNodeType.MULT, 2);
-        } else {
-            buildNAryASTNode(ASTNodeType.DIV, 2);
+        // Each procedure from T down to Rn starts by calling the next, so their first states run
+        // straight on from one to the next.
+        // T -> Ta (',' Ta)*
+        case T:
+          locals.push(0);
+          control.push(T_LOOP);
+          state = TA;
+          break;
+        // Ta -> Tc ('aug' Tc)*
+        case TA:
+          control.push(TA_LOOP);
+          state = TC;
+          break;
+        // Tc -> B '->' Tc '|' Tc | B
+        case TC:
+          control.push(TC_AFTER_B);
+          state = B;
+          break;
+        // B is parsed by precedence: an operand, then every operator that binds tighter than the level
+        // the operand is parsed at. B itself is an operand parsed at level 0, so it takes in every
+        // operator; the locals stack holds the level of each operand being parsed.
+        case B:
+          locals.push(level = 0);
+          prefixes = NOT_OR_SIGN_PREFIX;
+          state = OPERAND;
+          break;
+        // An operand: 'not' Bp, '+' At, '-' At, or an Rn
+        case OPERAND:
+          if(prefixes == NOT_OR_SIGN_PREFIX && isCurrentToken(TokenType.RESERVED, SymbolTable.NOT)){
+            readNT();
+            control.push(NOT_END);
+            locals.push(level = AND_LEVEL);
+            prefixes = SIGN_PREFIX;
+            state = OPERAND;
+            break;
+          }
+          if(prefixes != NO_PREFIX && isCurrentToken(TokenType.OPERATOR, SymbolTable.PLUS)){
+            readNT();
+            prefixes = NO_PREFIX;
+            state = OPERAND;
+            break;
+          }
+          if(prefixes != NO_PREFIX && isCurrentToken(TokenType.OPERATOR, SymbolTable.MINUS)){
+            readNT();
+            control.push(NEG_END);
+            locals.push(level = ADD_LEVEL);
+            prefixes = NO_PREFIX;
+            state = OPERAND;
+            break;
+          }
+          // Identifiers, integers and strings were pushed by readNT as they were read. Any other token
+          // is passed over, as the grammar has always done.
+          if(isCurrentTokenType(TokenType.L_PAREN)){
+            readNT();
+            control.push(PAREN_CLOSE);
+            state = E;
+            break;
+          }
+          createReservedTerminal();
+          readNT();
+          left = APPLY_LEVEL;
+          state = OPERATOR;
+          break;
+        // The operator after an operand, if it binds tighter than the operand's level
+        case OPERATOR:
+          if(left == APPLY_LEVEL && isApplicationStart()){
+            // Rn Rn: the application binds tightest, and needs no operator token
+            if(isCurrentTokenType(TokenType.L_PAREN)){
+              readNT();
+              control.push(APPLY_CLOSE);
+              state = E;
+              break;
+            }
+            createReservedTerminal();
+            buildNAryASTNode(ASTNodeType.GAMMA, 2);
+            readNT();
+            state = OPERATOR;
+            break;
+          }
+          if(currentType != null && currentSymbol <= SymbolTable.EQUALS){
+            int symbol = currentSymbol;
+            if(INFIX_TYPES[symbol] != null && INFIX_LEVELS[symbol] > level && left >= LEFT_LEVELS[symbol]){
+              readNT();
+              if(symbol == SymbolTable.AT){
+                if(!isCurrentTokenType(TokenType.IDENTIFIER))
+                  throw new ParseException("AP: expected Identifier");
+                readNT();
+              }
+              locals.push(symbol);
+              control.push(INFIX_END);
+              locals.push(level = RIGHT_LEVELS[symbol]);
+              prefixes = RIGHT_PREFIXES[symbol];
+              state = OPERAND;
+              break;
+            }
+          }
+          locals.pop();
+          state = control.pop();
+          break;
+        case INFIX_END: {
+          int symbol = locals.pop();
+          buildNAryASTNode(INFIX_TYPES[symbol], symbol == SymbolTable.AT ? 3 : 2);
+          left = INFIX_LEVELS[symbol];
+          level = locals.peek();
+          state = OPERATOR;
+          break;
         }
-    }
-}
-
-// Comments:
-// The `procAF()` method is used to process the left-hand side factor.
-// The `isCurrentToken()` method is used to check if the current token is of the specified type.
-// The `readNT()` method is used to consume the current token.
-// The `buildNAryASTNode()` method is used to build the appropriate AST node based on the operator.
-
-  
- /**
-  * The function procAF checks if the current token is an operator "**" and if so, it reads the next
-  * token and recursively calls itself to build an n-ary AST node of type EXP with 2 children.
-  */
-  private void procAF(){
-    procAP();
-    if(isCurrentToken(TokenType.OPERATOR, "**")){
-      readNT();
-      procAF();
-      buildNAryASTNode(ASTNodeType.EXP, 2);
-    }
-  }
-  
-  private void procAP() {
-    // Process the argument predicate.
-    procR();
-
-    // Iterate over the consecutive '@' operators.
-    while (isCurrentToken(TokenType.OPERATOR, "@")) {
-        // Consume the current token.
-        readNT();
-
-        // Check if the next token is an identifier.
-        if (!isCurrentTokenType(TokenType.IDENTIFIER)) {
-            throw new ParseException("AP: expected Identifier");
+        case NOT_END:
+          buildNAryASTNode(ASTNodeType.NOT, 1);
+          left = AND_LEVEL;
+          level = locals.peek();
+          state = OPERATOR;
+          break;
+        case NEG_END:
+          buildNAryASTNode(ASTNodeType.NEG, 1);
+          left = ADD_LEVEL;
+          level = locals.peek();
+          state = OPERATOR;
+          break;
+        case PAREN_CLOSE:
+          if(!isCurrentTokenType(TokenType.R_PAREN))
+            throw new ParseException("RN: ')' expected");
+          readNT();
+          left = APPLY_LEVEL;
+          level = locals.peek();
+          state = OPERATOR;
+          break;
+        case APPLY_CLOSE:
+          if(!isCurrentTokenType(TokenType.R_PAREN))
+            throw new ParseException("RN: ')' expected");
+          buildNAryASTNode(ASTNodeType.GAMMA, 2);
+          readNT();
+          left = APPLY_LEVEL;
+          level = locals.peek();
+          state = OPERATOR;
+          break;
+
+        case E_LET_IN:
+          if(!isCurrentToken(TokenType.RESERVED, SymbolTable.IN))
+            throw new ParseException("E: 'in' expected");
+          readNT();
+          control.push(E_LET_END);
+          state = E;
+          break;
+        case E_LET_END:
+          buildNAryASTNode(ASTNodeType.LET, 2);
+          recordRegion(locals.pop());
+          state = control.pop();
+          break;
+        case E_FN_END: {
+          int treesToPop = locals.pop();
+          buildNAryASTNode(ASTNodeType.LAMBDA, treesToPop + 1);
+          recordRegion(locals.pop());
+          state = control.pop();
+          break;
         }
-
-        // Consume the identifier token.
-        readNT();
-
-        // Process the next predicate.
-        procR();
-
-        // Build the appropriate AST node based on the operator.
-        buildNAryASTNode(ASTNodeType.AT, 3);
+        case EW_AFTER_T:
+          if(isCurrentToken(TokenType.RESERVED, SymbolTable.WHERE)){
+            readNT();
+            control.push(EW_END);
+            state = DR;
+          }
+          else{
+            locals.pop();
+            state = control.pop();
+          }
+          break;
+        case EW_END:
+          buildNAryASTNode(ASTNodeType.WHERE, 2);
+          recordRegion(locals.pop());
+          state = control.pop();
+          break;
+
+        case T_LOOP:
+          if(isCurrentToken(TokenType.OPERATOR, SymbolTable.COMMA)){
+            readNT();
+            locals.increment();
+            control.push(T_LOOP);
+            state = TA;
+          }
+          else{
+            int treesToPop = locals.pop();
+            if(treesToPop > 0)
+              buildNAryASTNode(ASTNodeType.TAU, treesToPop + 1);
+            state = control.pop();
+          }
+          break;
+
+        case TA_BUILD:
+          buildNAryASTNode(ASTNodeType.AUG, 2);
+          state = TA_LOOP;
+          break;
+        case TA_LOOP:
+          if(isCurrentToken(TokenType.RESERVED, SymbolTable.AUG)){
+            readNT();
+            control.push(TA_BUILD);
+            state = TC;
+          }
+          else
+            state = control.pop();
+          break;
+
+        case TC_AFTER_B:
+          if(isCurrentToken(TokenType.OPERATOR, SymbolTable.ARROW)){
+            readNT();
+            control.push(TC_BAR);
+            state = TC;
+          }
+          else
+            state = control.pop();
+          break;
+        case TC_BAR:
+          if(!isCurrentToken(TokenType.OPERATOR, SymbolTable.BAR))
+            throw new ParseException("TC: '|' expected");
+          readNT();
+          control.push(TC_END);
+          state = TC;
+          break;
+        case TC_END:
+          buildNAryASTNode(ASTNodeType.CONDITIONAL, 3);
+          state = control.pop();
+          break;
+
+        // D -> Da 'within' D | Da
+        case D:
+          control.push(D_AFTER_DA);
+          state = DA;
+          break;
+        // Da -> Dr ('and' Dr)*
+        case DA:
+          locals.push(0);
+          control.push(DA_LOOP);
+          state = DR;
+          break;
+        // Dr -> 'rec' Db | Db
+        case DR:
+          if(isCurrentToken(TokenType.RESERVED, SymbolTable.REC)){
+            readNT();
+            control.push(DR_END);
+          }
+          state = DB;
+          break;
+        // Db -> '(' D ')' | identifier Vl '=' E | identifier '=' E | identifier Vb+ '=' E
+        case DB:
+          state = procDB();
+          break;
+
+        case D_AFTER_DA:
+          if(isCurrentToken(TokenType.RESERVED, SymbolTable.WITHIN)){
+            readNT();
+            control.push(D_END);
+            state = D;
+          }
+          else
+            state = control.pop();
+          break;
+        case D_END:
+          buildNAryASTNode(ASTNodeType.WITHIN, 2);
+          state = control.pop();
+          break;
+
+        case DA_LOOP:
+          if(isCurrentToken(TokenType.RESERVED, SymbolTable.AND)){
+            readNT();
+            locals.increment();
+            control.push(DA_LOOP);
+            state = DR;
+          }
+          else{
+            int treesToPop = locals.pop();
+            if(treesToPop > 0)
+              buildNAryASTNode(ASTNodeType.SIMULTDEF, treesToPop + 1);
+            state = control.pop();
+          }
+          break;
+
+        case DR_END:
+          buildNAryASTNode(ASTNodeType.REC, 1);
+          state = control.pop();
+          break;
+
+        case DB_CLOSE:
+          if(!isCurrentTokenType(TokenType.R_PAREN))
+            throw new ParseException("DB: ')' expected");
+          readNT();
+          state = control.pop();
+          break;
+        case DB_EQUAL:
+          buildNAryASTNode(ASTNodeType.EQUAL, 2);
+          state = control.pop();
+          break;
+        case DB_FCN:
+          buildNAryASTNode(ASTNodeType.FCNFORM, locals.pop() + 2);
+          state = control.pop();
+          break;
+
+        default:
+          throw new IllegalStateException("Parser: unknown state " + state);
+      }
     }
-}
-
-private void procR() {
-    // Process the right operand.
-    procRN();
-
-    // Consume the next token.
-    readNT();
+  }
 
-    // Iterate over the consecutive gamma operators.
-    while (isCurrentTokenType(TokenType.INTEGER) ||
+  /**
+   * The function tells whether the current token can start an Rn, which after another Rn makes an
+   * application.
+   * 
+   * @return True if the current token is an identifier, integer, string, 'true', 'false', 'nil',
+   *         'dummy' or '('.
+   */
+  private boolean isApplicationStart(){
+    return isCurrentTokenType(TokenType.INTEGER) ||
            isCurrentTokenType(TokenType.STRING) ||
            isCurrentTokenType(TokenType.IDENTIFIER) ||
-           isCurrentToken(TokenType.RESERVED, "true") ||
-           isCurrentToken(TokenType.RESERVED, "false") ||
-           isCurrentToken(TokenType.RESERVED, "nil") ||
-           isCurrentToken(TokenType.RESERVED, "dummy") ||
-           isCurrentTokenType(TokenType.L_PAREN)) {
-        // Process the next operand.
-        procRN();
-
-        // Build the appropriate AST node based on the operator.
-        buildNAryASTNode(ASTNodeType.GAMMA, 2);
-
-        // Consume the next token.
-        readNT();
-    }
-}
-
-private void procRN() {
-    // Check if the current token is an identifier, integer, or string.
-    if (isCurrentTokenType(TokenType.IDENTIFIER) ||
-        isCurrentTokenType(TokenType.INTEGER) ||
-        isCurrentTokenType(TokenType.STRING)) {
-        // Do nothing.
-    }
-    // Check if the current token is the keyword "true".
-    else if (isCurrentToken(TokenType.RESERVED, "true")) {
-        // Create a terminal AST node with the value "true".
-        createTerminalASTNode(ASTNodeType.TRUE, "true");
-    }
-    // Check if the current token is the keyword "false".
-    else if (isCurrentToken(TokenType.RESERVED, "false")) {
-        // Create a terminal AST node with the value "false".
-        createTerminalASTNode(ASTNodeType.FALSE, "false");
-    }
-    // Check if the current token is the keyword "nil".
-    else if (isCurrentToken(TokenType.RESERVED, "nil")) {
-        // Create a terminal AST node with the value "nil".
-        createTerminalASTNode(ASTNodeType.NIL, "nil");
-    }
-    // Check if the current token is a left parenthesis.
-    else if (isCurrentTokenType(TokenType.L_PAREN)) {
-        // Consume the current token.
-        readNT();
-
-        // Process the expression.
-        procE();
-
-        // Check if the current token is a right parenthesis.
-        if (!isCurrentTokenType(TokenType.R_PAREN)) {
-            throw new ParseException("RN: ')' expected");
-        }
-    }
-    // Check if the current token is the keyword "dummy".
-    else if (isCurrentToken(TokenType.RESERVED, "dummy")) {
-        // Create a terminal AST node with the value "dummy".
-        createTerminalASTNode(ASTNodeType.DUMMY, "dummy");
-    }
-}
-
+           isCurrentToken(TokenType.RESERVED, SymbolTable.TRUE) ||
+           isCurrentToken(TokenType.RESERVED, SymbolTable.FALSE) ||
+           isCurrentToken(TokenType.RESERVED, SymbolTable.NIL) ||
+           isCurrentToken(TokenType.RESERVED, SymbolTable.DUMMY) ||
+           isCurrentTokenType(TokenType.L_PAREN);
+  }
 
-/**
- * The function `procD` processes a specific syntax rule and builds an AST node if a certain condition
- * is met.
- */
-private void procD() {
-    procDA();
-    if (isCurrentToken(TokenType.RESERVED, "within")) {
-        readNT();
-        procD();
-        buildNAryASTNode(ASTNodeType.WITHIN, 2);
-    }
-}
+  /**
+   * The function pushes the terminal node of an Rn that is a reserved word: 'true', 'false', 'nil' or
+   * 'dummy'. Other tokens push nothing here.
+   */
+  private void createReservedTerminal(){
+    if(isCurrentToken(TokenType.RESERVED, SymbolTable.TRUE))
+      createTerminalASTNode(ASTNodeType.TRUE, "true");
+    else if(isCurrentToken(TokenType.RESERVED, SymbolTable.FALSE))
+      createTerminalASTNode(ASTNodeType.FALSE, "false");
+    else if(isCurrentToken(TokenType.RESERVED, SymbolTable.NIL))
+      createTerminalASTNode(ASTNodeType.NIL, "nil");
+    else if(isCurrentToken(TokenType.RESERVED, SymbolTable.DUMMY))
+      createTerminalASTNode(ASTNodeType.DUMMY, "dummy");
+  }
 
-/**
- * The function procDA processes a series of "and" statements by calling procDR and building an n-ary
- * AST node.
- */
-private void procDA() {
-    procDR();
-    int treesToPop = 0;
-    while (isCurrentToken(TokenType.RESERVED, "and")) {
-        readNT();
-        procDR();
-        treesToPop++;
+  /**
+   * The function starts a definition (Db). The variable lists it reads are parsed directly, as they
+   * cannot nest; where an expression or a nested definition follows, the function pushes the state
+   * that finishes the definition and returns the state that parses the nested part.
+   * 
+   * @return The state procE continues in.
+   */
+  private int procDB(){
+    if(isCurrentTokenType(TokenType.L_PAREN)){
+      readNT();
+      control.push(DB_CLOSE);
+      return D;
     }
-    if (treesToPop > 0) buildNAryASTNode(ASTNodeType.SIMULTDEF, treesToPop + 1);
-}
-
-  
- /**
-  * The function procDR checks if the current token is "rec" and if so, reads the next token and
-  * processes the database, otherwise it just processes the database.
-  */
-  private void procDR(){
-    if(isCurrentToken(TokenType.RESERVED, "rec")){
+    if(!isCurrentTokenType(TokenType.IDENTIFIER))
+      return control.pop();
+    readNT();
+    if(isCurrentToken(TokenType.OPERATOR, SymbolTable.COMMA)){
       readNT();
-      procDB();
-      buildNAryASTNode(ASTNodeType.REC, 1);
+      procVL();
+      if(!isCurrentToken(TokenType.OPERATOR, SymbolTable.EQUALS))
+        throw new ParseException("DB: = expected.");
+      readNT();
+      control.push(DB_EQUAL);
+      return E;
     }
-    else{
-      procDB();
+    if(isCurrentToken(TokenType.OPERATOR, SymbolTable.EQUALS)){
+      readNT();
+      control.push(DB_EQUAL);
+      return E;
     }
+    int treesToPop = 0;
+    while(isCurrentTokenType(TokenType.IDENTIFIER) || isCurrentTokenType(TokenType.L_PAREN)){
+      procVB();
+      treesToPop++;
+    }
+    if(treesToPop == 0)
+      throw new ParseException("E: at least one 'Vb' expected");
+    if(!isCurrentToken(TokenType.OPERATOR, SymbolTable.EQUALS))
+      throw new ParseException("DB: = expected.");
+    readNT();
+    locals.push(treesToPop);
+    control.push(DB_FCN);
+    return E;
   }
 
-  private void procDB() {
-    // Process the database.
-    if (isCurrentTokenType(TokenType.L_PAREN)) {
-        // Consume the left parenthesis.
-        readNT();
-
-        // Process the definition.
-        procD();
-
-        // Consume the right parenthesis.
-        if (!isCurrentTokenType(TokenType.R_PAREN)) {
-            throw new ParseException("DB: ')' expected");
-        }
-
-        readNT();
-    } else if (isCurrentTokenType(TokenType.IDENTIFIER)) {
-        // Consume the identifier.
-        readNT();
-
-        // Check if the next token is a comma.
-        if (isCurrentToken(TokenType.OPERATOR, ",")) {
-            // Consume the comma.
-            readNT();
-
-            // Process the value list.
-            procVL();
-
-            // Check if the next token is an equal sign.
-            if (!isCurrentToken(TokenType.OPERATOR, "=")) {
-                throw new ParseException("DB: = expected.");
-            }
-
-            // Consume the equal sign.
-            readNT();
-
-            // Process the expression.
-            procE();
-
-            // Build the appropriate AST node based on the operators.
-            buildNAryASTNode(ASTNodeType.EQUAL, 2);
-        } else {
-            // Check if the next token is an equal sign.
-            if (isCurrentToken(TokenType.OPERATOR, "=")) {
-                // Consume the equal sign.
-                readNT();
-
-                // Process the expression.
-                procE();
-
-                // Build the appropriate AST node based on the operators.
-                buildNAryASTNode(ASTNodeType.EQUAL, 2);
-            } else {
-                // Process the value list.
-                int treesToPop = 0;
-
-                while (isCurrentTokenType(TokenType.IDENTIFIER) || isCurrentTokenType(TokenType.L_PAREN)) {
-                    procVB();
-                    treesToPop++;
-                }
-
-                if (treesToPop == 0) {
-                    throw new ParseException("E: at least one 'Vb' expected");
-                }
-
-                if (!isCurrentToken(TokenType.OPERATOR, "=")) {
-                    throw new ParseException("DB: = expected.");
-                }
-
-                readNT();
-                procE();
-
-                buildNAryASTNode(ASTNodeType.FCNFORM, treesToPop + 2);
-            }
-        }
-    }
-}
-
 private void procVB() {
     // Process the value.
     if (isCurrentTokenType(TokenType.IDENTIFIER)) {
@@ -695,7 +866,7 @@ private void procVB() {
     int treesToPop = 0;
 
     // Iterate over the consecutive commas.
-    while (isCurrentToken(TokenType.OPERATOR, ",")) {
+    while (isCurrentToken(TokenType.OPERATOR, SymbolTable.COMMA)) {
         // Consume the comma.
         readNT();
 
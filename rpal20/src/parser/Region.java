@@ -0,0 +1,28 @@
+package parser;
+
+import java.util.List;
+
+import ast.ASTNode;
+
+// A Region is an expression parsed by one call of procE, with the span of tokens it was parsed from:
+// the tokens from start up to, but not including, end. The incremental front end re-parses an edited
+// program one region at a time, and keeps the region's standardized form so that it can be reused
+// while the region is unchanged.
+
+class Region{
+  ASTNode node;
+  int start;
+  int end;
+
+  // The standardized copy of the region's tree, or null until it is needed. The copied nodes that
+  // belong to this region rather than to a region nested inside it are kept, so that their line
+  // numbers can be moved when an edit above them adds or removes lines.
+  ASTNode standardized;
+  List<ASTNode> standardizedNodes;
+
+  Region(ASTNode node, int start, int end){
+    this.node = node;
+    this.start = start;
+    this.end = end;
+  }
+}
@@ -1,60 +1,188 @@
 import ast.AST;
+import ast.ConstantFolder;
+import ast.Inliner;
+import ast.NodeInterner;
+import ast.ProgramCache;
+import ast.TypeInferencer;
 import csem.*;
 import scanner.*;
 import parser.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
 
 public class rpal20 {
+    // The number of tokens the scanner thread may run ahead of the parser with -pipeline
+    private static final int PIPELINE_CAPACITY = 4096;
+
     public static void main(String[] args) throws Exception {
-        // Check if the correct number of arguments is provided (2)
-        if (args.length == 2) {
-            // First argument is the test file name
-            String test_file_name = args[0];
-            
-            // Build the Abstract Syntax Tree (AST) from the test file
-            AST abstract_syntax_tree = Ast_Build(test_file_name);
-            
-            // Check the second argument to determine the action (-ast or -st)
-            if (args[1].equals("-ast")) {
-                // Print the AST and standardize it
-                abstract_syntax_tree.print();
-                abstract_syntax_tree.standardize();
-            } else if (args[1].equals("-st")) {
-                // Standardize the AST and then print it
-                abstract_syntax_tree.standardize();
+        // First argument is the test file name, or - to read the program from standard input
+        String test_file_name = args[0];
+
+        // The remaining arguments select what is printed (-ast or -st) and how the work is done
+        boolean print_ast = false;
+        boolean print_st = false;
+        boolean parallel = false;
+        boolean pipelined = false;
+        boolean use_cache = true;
+        boolean share = false;
+        boolean fold = false;
+        boolean inline = false;
+        boolean types = false;
+        int inline_size = Inliner.DEFAULT_MAX_LAMBDA_SIZE;
+        int inline_budget = -1;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-ast")) {
+                print_ast = true;
+            } else if (args[i].equals("-st")) {
+                print_st = true;
+            } else if (args[i].equals("-parallel")) {
+                // Scan large source files in parallel chunks, and standardize large trees in parallel
+                parallel = true;
+            } else if (args[i].equals("-pipeline")) {
+                // Scan on a separate thread while the parser consumes the tokens
+                pipelined = true;
+            } else if (args[i].equals("-nocache")) {
+                // Neither use nor write the compiled program cache
+                use_cache = false;
+            } else if (args[i].equals("-share")) {
+                // Store equal parts of the standardized tree once, and report how much was shared
+                share = true;
+            } else if (args[i].equals("-inline") || args[i].startsWith("-inline=")) {
+                // Inline let-bound values and small lambdas, and report the rewrites made. The limits
+                // are given as -inline=SIZE or -inline=SIZE,BUDGET: the most nodes of a lambda copied
+                // to its calls, and the most nodes all the copies may add
+                inline = true;
+                if (args[i].startsWith("-inline=")) {
+                    String[] limits = args[i].substring("-inline=".length()).split(",");
+                    inline_size = Integer.parseInt(limits[0]);
+                    if (limits.length > 1)
+                        inline_budget = Integer.parseInt(limits[1]);
+                }
+            } else if (args[i].equals("-fold")) {
+                // Fold the constant parts of the standardized tree, and report the rewrites made
+                fold = true;
+            } else if (args[i].equals("-types")) {
+                // Infer types, skip the run-time checks of the operations they prove, and report them
+                types = true;
+            }
+        }
+
+        // A program read from a file is kept in standard form in a cache file next to it, and an
+        // unchanged program is loaded from there. The cache holds no parse tree, so -ast bypasses it.
+        boolean cached = use_cache && !print_ast && !test_file_name.equals("-");
+        ByteBuffer source = null;
+        AST abstract_syntax_tree = null;
+        if (cached) {
+            source = Read_Source(test_file_name);
+            abstract_syntax_tree = ProgramCache.load(test_file_name, source);
+        }
+
+        boolean built = abstract_syntax_tree == null;
+        if (built) {
+            // Build the Abstract Syntax Tree (AST) from the test file. Unless it is to be printed or
+            // standardized in parallel, the parser standardizes it as it goes.
+            abstract_syntax_tree = Ast_Build(test_file_name, source, parallel, pipelined, !print_ast && !parallel);
+
+            if (print_ast) {
+                // Print the AST before it is standardized
                 abstract_syntax_tree.print();
             }
 
-            // Evaluate the AST using the CSEMachine
-            Evaluate_ST(abstract_syntax_tree);
-        } else {
-            // If only one argument is provided, assume it's the test file name
-            String test_file_name = args[0];
-            
-            // Build the Abstract Syntax Tree (AST) from the test file
-            AST abstract_syntax_tree = Ast_Build(test_file_name);
-            
-            // Standardize the AST
-            abstract_syntax_tree.standardize();
-
-            // Evaluate the AST using the CSEMachine
-            Evaluate_ST(abstract_syntax_tree);
+            if (print_ast || parallel) {
+                // Standardize the AST
+                if (parallel)
+                    abstract_syntax_tree.standardizeInParallel();
+                else
+                    abstract_syntax_tree.standardize();
+            }
+        }
+
+        if (inline) {
+            // Inline bindings before constants are folded, so that the values put in fold further
+            Inliner inlining = abstract_syntax_tree.inline(inline_size, inline_budget);
+            if (inlining != null)
+                System.err.println(inlining);
+            else
+                System.err.println("Not inlined: the tree shares nodes or uses an undeclared name");
+        }
+
+        if (fold) {
+            // Fold constants before the tree is shared, printed or evaluated
+            ConstantFolder folding = abstract_syntax_tree.foldConstants();
+            if (folding != null)
+                System.err.println(folding);
+            else
+                System.err.println("Not folded: the tree shares nodes");
+        }
+
+        if (types) {
+            // Type the tree as it will be evaluated, after the rewrites above and before it is shared
+            TypeInferencer typing = abstract_syntax_tree.inferTypes();
+            if (typing != null)
+                System.err.println(typing);
+            else
+                System.err.println("Not typed: the tree shares nodes");
+        }
+
+        if (share) {
+            // Hash-cons the standardized tree before it is cached or evaluated
+            NodeInterner sharing = abstract_syntax_tree.share();
+            if (sharing != null)
+                System.err.println(sharing);
+        }
+
+        // A folded, inlined or typed tree is not kept, as the cache holds the program as written, and
+        // nor is a shared one, which the passes above could not rewrite when it is loaded again
+        if (built && cached && !fold && !inline && !types && !share) {
+            ProgramCache.store(test_file_name, source, abstract_syntax_tree);
+        }
+
+        if (print_st) {
+            // Print the standardized tree
+            abstract_syntax_tree.print();
+        }
+
+        // Evaluate the AST using the CSEMachine
+        Evaluate_ST(abstract_syntax_tree);
+    }
+
+    // Load the bytes of the input file, which the cache is keyed by and the scanner then scans
+    private static ByteBuffer Read_Source(String test_file_name) {
+        try {
+            return SourceLoader.loadBytes(test_file_name);
+        } catch (NoSuchFileException e) {
+            throw new ParseException("There is no file " + test_file_name);
+        } catch (IOException e) {
+            throw new ParseException("Cannot read " + test_file_name + ": " + e.getMessage());
         }
     }
 
-    // Build the Abstract Syntax Tree (AST) from the input file
-    private static AST Ast_Build(String test_file_name) {
+    // Build the Abstract Syntax Tree (AST) from the input file, or from its bytes if they have been loaded
+    private static AST Ast_Build(String test_file_name, ByteBuffer source, boolean parallel, boolean pipelined,
+            boolean standardized) {
         AST abstract_syntax_tree = null;
         try {
             // Create a Scanner and Parser to process the input file
-            Scanner scanner = new Scanner(test_file_name);
+            Scanner scanner = source != null
+                    ? Scanner.forBytes(source, Charset.defaultCharset())
+                    : test_file_name.equals("-")
+                    ? Scanner.forInput(System.in, Charset.defaultCharset())
+                    : new Scanner(test_file_name);
+            scanner.setParallel(parallel);
+            if (pipelined)
+                scanner.setPipelined(PIPELINE_CAPACITY);
             Parser parser = new Parser(scanner);
-            // Build the AST
-            abstract_syntax_tree = parser.buildAST();
+            // Build the AST, standardized as it is parsed if asked
+            abstract_syntax_tree = standardized ? parser.buildStandardizedAST() : parser.buildAST();
+        } catch (NoSuchFileException e) {
+            // If the file does not exist, throw a ParseException
+            throw new ParseException("There is no file " + test_file_name);
         } catch (IOException e) {
-            // If an error occurs while processing the file, throw a ParseException
-            throw new ParseException("There is no " + test_file_name + " in the bin folder");
+            // If the file exists but cannot be read, throw a ParseException saying why
+            throw new ParseException("Cannot read " + test_file_name + ": " + e.getMessage());
         }
         // Return the built AST
         return abstract_syntax_tree;
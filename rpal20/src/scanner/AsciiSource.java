@@ -0,0 +1,78 @@
+package scanner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The AsciiSource class presents a buffer of ASCII bytes as a CharSequence. Every byte is one
+ * character, so the scanner can work directly over a memory-mapped file or a bulk-read buffer
+ * without decoding it first.
+ */
+final class AsciiSource implements CharSequence {
+    private final ByteBuffer bytes;
+    private final int offset;
+    private final int length;
+
+    /**
+     * Wraps the bytes between the buffer's position and limit. The caller must have checked that
+     * none of them is outside the ASCII range.
+     *
+     * @param bytes The buffer holding the source.
+     */
+    AsciiSource(ByteBuffer bytes) {
+        this(bytes, bytes.position(), bytes.remaining());
+    }
+
+    private AsciiSource(ByteBuffer bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) bytes.get(offset + index);
+    }
+
+    /**
+     * Copies the requested range out of the buffer. Token values are the only slices the scanner
+     * takes, and they are always turned into Strings, so the copy is made here directly.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        byte[] slice = new byte[end - start];
+        bytes.get(offset + start, slice);
+        return new String(slice, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    /**
+     * Checks whether every byte between the buffer's position and limit is an ASCII character. The
+     * bytes are tested eight at a time.
+     *
+     * @param bytes The buffer to check. Its position is left unchanged.
+     * @return true if no byte has its high bit set.
+     */
+    static boolean isAscii(ByteBuffer bytes) {
+        int i = bytes.position();
+        int end = bytes.limit();
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            if ((bytes.getLong(i) & 0x8080808080808080L) != 0)
+                return false;
+        }
+        for (; i < end; i++) {
+            if (bytes.get(i) < 0)
+                return false;
+        }
+        return true;
+    }
+}
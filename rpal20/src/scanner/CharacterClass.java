@@ -0,0 +1,65 @@
+package scanner;
+
+/**
+ * The CharacterClass class holds a precomputed table that maps every ASCII character to the set of
+ * lexical classes it belongs to. The table is built once from the patterns in
+ * {@link LexicalRegexPatterns}, so the scanner classifies a character with a single array lookup
+ * instead of running a regular expression over a one-character String.
+ */
+public final class CharacterClass {
+    // Bit flags for the lexical classes a character can belong to.
+    public static final int LETTER = 1;
+    public static final int IDENTIFIER = 1 << 1;
+    public static final int DIGIT = 1 << 2;
+    public static final int OPERATOR = 1 << 3;
+    public static final int SPACE = 1 << 4;
+    public static final int PUNCTUATION = 1 << 5;
+    public static final int STRING = 1 << 6;
+    public static final int COMMENT = 1 << 7;
+
+    // None of the lexical patterns match a character outside the ASCII range.
+    private static final int TABLE_SIZE = 128;
+    private static final byte[] TABLE = buildTable();
+
+    private CharacterClass() {
+    }
+
+    /**
+     * Returns the class flags of the given character.
+     *
+     * @param c The character to classify.
+     * @return The bitwise OR of the class flags the character belongs to, or 0 if it belongs to none.
+     */
+    public static int of(char c) {
+        return c < TABLE_SIZE ? TABLE[c] & 0xff : 0;
+    }
+
+    /**
+     * Checks whether the given character belongs to any of the given classes.
+     *
+     * @param c    The character to classify.
+     * @param mask The class flags to test against.
+     * @return true if the character belongs to at least one of the classes in the mask.
+     */
+    public static boolean is(char c, int mask) {
+        return (of(c) & mask) != 0;
+    }
+
+    private static byte[] buildTable() {
+        byte[] table = new byte[TABLE_SIZE];
+        for (int c = 0; c < TABLE_SIZE; c++) {
+            String s = Character.toString((char) c);
+            int flags = 0;
+            if (LexicalRegexPatterns.LetterPattern.matcher(s).matches()) flags |= LETTER;
+            if (LexicalRegexPatterns.IdentifierPattern.matcher(s).matches()) flags |= IDENTIFIER;
+            if (LexicalRegexPatterns.DigitPattern.matcher(s).matches()) flags |= DIGIT;
+            if (LexicalRegexPatterns.OpSymbolPattern.matcher(s).matches()) flags |= OPERATOR;
+            if (LexicalRegexPatterns.SpacePattern.matcher(s).matches()) flags |= SPACE;
+            if (LexicalRegexPatterns.PunctuationPattern.matcher(s).matches()) flags |= PUNCTUATION;
+            if (LexicalRegexPatterns.StringPattern.matcher(s).matches()) flags |= STRING;
+            if (LexicalRegexPatterns.CommentPattern.matcher(s).matches()) flags |= COMMENT;
+            table[c] = (byte) flags;
+        }
+        return table;
+    }
+}
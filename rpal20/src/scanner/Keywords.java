@@ -0,0 +1,97 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * The Keywords class recognises the reserved identifiers of RPAL with a perfect hash. Every keyword
+ * lands in its own slot of a small table, so a candidate identifier is checked with one hash
+ * computation and a comparison against a single keyword instead of a scan over a list of Strings.
+ */
+public final class Keywords {
+    // The reserved identifiers, in the order they were historically declared by the scanner.
+    private static final String[] WORDS = {"let", "in", "within", "fn", "where", "aug", "or",
+                                           "not", "gr", "ge", "ls", "le", "eq", "ne", "true",
+                                           "false", "nil", "dummy", "rec", "and"};
+
+    private static final int MIN_LENGTH = 2;
+    private static final int MAX_LENGTH = 6;
+    private static final int TABLE_MASK = 63;
+
+    // Maps a hash slot to the index of the keyword stored there, or -1 if the slot is empty.
+    private static final int[] SLOTS = buildSlots();
+
+    private Keywords() {
+    }
+
+    /**
+     * Returns the number of reserved identifiers.
+     *
+     * @return The number of keywords known to the scanner.
+     */
+    public static int count() {
+        return WORDS.length;
+    }
+
+    /**
+     * Returns the spelling of the keyword with the given index.
+     *
+     * @param index The keyword index, as returned by {@link #lookup(CharSequence, int, int)}.
+     * @return The keyword as a String.
+     */
+    public static String get(int index) {
+        return WORDS[index];
+    }
+
+    /**
+     * Looks up a slice of the source in the keyword table.
+     *
+     * @param source The characters being scanned.
+     * @param start  The offset of the first character of the candidate identifier.
+     * @param length The number of characters in the candidate identifier.
+     * @return The index of the matching keyword, or -1 if the slice is not a reserved identifier.
+     */
+    public static int lookup(CharSequence source, int start, int length) {
+        if (length < MIN_LENGTH || length > MAX_LENGTH)
+            return -1;
+        int index = SLOTS[hash(source.charAt(start), source.charAt(start + 1), length)];
+        if (index < 0)
+            return -1;
+        String word = WORDS[index];
+        if (word.length() != length)
+            return -1;
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) != source.charAt(start + i))
+                return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Checks if the given String is a reserved identifier.
+     *
+     * @param value The candidate identifier.
+     * @return true if the value is a keyword, false otherwise.
+     */
+    public static boolean isKeyword(String value) {
+        return lookup(value, 0, value.length()) >= 0;
+    }
+
+    // The hash depends on the first two characters and the length only; the constants were chosen so
+    // that no two keywords share a slot.
+    private static int hash(char first, char second, int length) {
+        return (first + 5 * second + 3 * length) & TABLE_MASK;
+    }
+
+    private static int[] buildSlots() {
+        int[] slots = new int[TABLE_MASK + 1];
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < WORDS.length; i++) {
+            String word = WORDS[i];
+            int slot = hash(word.charAt(0), word.charAt(1), word.length());
+            if (slots[slot] >= 0)
+                throw new IllegalStateException("Keyword hash collision between " + WORDS[slots[slot]] + " and " + word);
+            slots[slot] = i;
+        }
+        return slots;
+    }
+}
@@ -0,0 +1,200 @@
+package scanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The ParallelTokenizer class scans a large source in chunks on the common fork-join pool and stitches
+ * the chunks back into the token stream a sequential scan would produce.
+ *
+ * Each chunk is scanned speculatively, as if a token started at the beginning of the chunk, into its
+ * own token buffer and symbol table. That guess is wrong when a string literal or a comment crosses
+ * into the chunk, so the chunks are stitched in order: the true scan position is carried from one chunk
+ * to the next, and tokens are re-scanned sequentially from there until a token starts at the same
+ * offset as a token of the speculative scan. Scanning is deterministic from a token start, so from
+ * that token on the speculative tokens are exactly the sequential ones and are copied across.
+ *
+ * Line numbers inside a chunk are counted from the chunk's first line and are offset by the number of
+ * newlines in the chunks before it. Symbol ids are remapped into the shared symbol table in token
+ * order, so every name gets the same id it would get from a sequential scan.
+ */
+class ParallelTokenizer {
+    // Chunks smaller than this cost more to schedule and stitch than they save.
+    private static final int MIN_CHUNK = 256 * 1024;
+    // More chunks than workers, so that a chunk dense with long tokens does not hold up the rest.
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private final CharSequence source;
+    private final int sourceLength;
+    private final SymbolTable symbols;
+    private final int start;
+    private final int startLineNumber;
+
+    ParallelTokenizer(CharSequence source, SymbolTable symbols, int start, int startLineNumber) {
+        this.source = source;
+        this.sourceLength = source.length();
+        this.symbols = symbols;
+        this.start = start;
+        this.startLineNumber = startLineNumber;
+    }
+
+    /**
+     * Tells whether a source of the given length is large enough to be split into chunks.
+     *
+     * @param length The number of characters left to scan.
+     * @return true if at least two chunks would be scanned.
+     */
+    static boolean isWorthSplitting(int length) {
+        return length >= 2 * MIN_CHUNK && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * Scans the source from the start offset to its end.
+     *
+     * @return The buffer holding every token, identical to the buffer a sequential scan produces.
+     */
+    TokenBuffer tokenize() {
+        List<Chunk> chunks = split();
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                invokeAll(chunks);
+            }
+        });
+        return stitch(chunks);
+    }
+
+    // Chunks end just after a newline where possible, since few tokens run across a line break.
+    private List<Chunk> split() {
+        int workers = ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_WORKER;
+        int chunkSize = Math.max(MIN_CHUNK, (sourceLength - start) / workers + 1);
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        int chunkStart = start;
+        while (chunkStart < sourceLength) {
+            int chunkEnd = (int) Math.min(sourceLength, (long) chunkStart + chunkSize);
+            while (chunkEnd < sourceLength && source.charAt(chunkEnd - 1) != '\n')
+                chunkEnd++;
+            chunks.add(new Chunk(chunkStart, chunkEnd));
+            chunkStart = chunkEnd;
+        }
+        return chunks;
+    }
+
+    private TokenBuffer stitch(List<Chunk> chunks) {
+        int expectedTokens = 0;
+        for (Chunk chunk : chunks)
+            expectedTokens += chunk.tokens.size();
+        TokenBuffer tokens = new TokenBuffer(source, expectedTokens);
+
+        // The sequential scanner only runs where the speculative scans cannot be trusted.
+        Scanner scanner = new Scanner(source, symbols, start, startLineNumber);
+        int linesBefore = startLineNumber - 1;
+        for (Chunk chunk : chunks) {
+            int index = 0;
+            while (scanner.getPosition() < chunk.end) {
+                int position = scanner.getPosition();
+                if (position == chunk.start) {
+                    index = 0;
+                } else {
+                    while (index < chunk.tokens.size() && chunk.tokens.getRawStart(index) < position)
+                        index++;
+                    if (index == chunk.tokens.size() || chunk.tokens.getRawStart(index) != position) {
+                        scanner.scanToken();
+                        scanner.addScannedToken(tokens);
+                        continue;
+                    }
+                }
+                // In step with the speculative scan: copy the rest of the chunk's tokens.
+                chunk.copyTokens(index, tokens, linesBefore);
+                scanner = new Scanner(source, symbols, chunk.endPosition, chunk.endLineNumber + linesBefore);
+                if (chunk.failed)
+                    scanner.scanInto(tokens, chunk.end); // Raises the scanning error at its true line number
+                break;
+            }
+            linesBefore += chunk.newlines;
+        }
+        return tokens;
+    }
+
+    private class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // Tokens starting in [start, end) belong to this chunk.
+        private final int start;
+        private final int end;
+        private TokenBuffer tokens;
+        private SymbolTable chunkSymbols;
+        private int newlines;
+        // Where the speculative scan stopped, with the line number counted from the chunk's first line.
+        private int endPosition;
+        private int endLineNumber;
+        // Whether the speculative scan stopped at endPosition because of a scanning error.
+        private boolean failed;
+
+        Chunk(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = start; i < end; i++) {
+                if (source.charAt(i) == '\n')
+                    newlines++;
+            }
+            chunkSymbols = new SymbolTable();
+            tokens = new TokenBuffer(source, (end - start) / 4);
+            Scanner scanner = new Scanner(source, chunkSymbols, start, 1);
+            try {
+                scanner.scanInto(tokens, end);
+            } catch (ScanException e) {
+                // A string or comment from an earlier chunk may make this chunk unscannable on its own.
+                // The error is only real if stitching reaches the same position.
+                failed = true;
+            }
+            endPosition = scanner.getPosition();
+            endLineNumber = scanner.getSourceLineNumber();
+            if (failed) {
+                // scanToken() has consumed part of the failed token; back up to the end of the last token kept.
+                endPosition = tokens.size() == 0 ? start : tokenEnd(tokens.size() - 1);
+                endLineNumber = 1 + countNewlines(start, endPosition);
+            }
+        }
+
+        private int tokenEnd(int index) {
+            int tokenEnd = tokens.getStart(index) + tokens.getLength(index);
+            return tokens.getType(index) == TokenType.STRING ? tokenEnd + 1 : tokenEnd;
+        }
+
+        private int countNewlines(int from, int to) {
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (source.charAt(i) == '\n')
+                    count++;
+            }
+            return count;
+        }
+
+        /**
+         * Appends the chunk's tokens from the given index on, moving their line numbers and symbol ids
+         * into the numbering of the whole source.
+         */
+        void copyTokens(int from, TokenBuffer into, int linesBefore) {
+            int[] remap = new int[chunkSymbols.size()];
+            for (int i = from; i < tokens.size(); i++) {
+                int symbol = tokens.getSymbol(i);
+                if (symbol > SymbolTable.EQUALS) {
+                    if (remap[symbol] == SymbolTable.NONE)
+                        remap[symbol] = symbols.intern(chunkSymbols.getName(symbol));
+                    symbol = remap[symbol];
+                }
+                into.add(tokens.getType(i), tokens.getStart(i), tokens.getLength(i),
+                         tokens.getSourceLineNumber(i) + linesBefore, symbol);
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package scanner;
+
+/**
+ * The ScanException class is a subclass of RuntimeException that represents an exception that occurs
+ * while breaking the source into tokens.
+ */
+public class ScanException extends RuntimeException{
+  private static final long serialVersionUID = 1L;
+
+  public ScanException(String message){
+    super(message);
+  }
+}
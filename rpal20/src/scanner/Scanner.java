@@ -1,294 +1,354 @@
 package scanner;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 public class Scanner {
-    private BufferedReader buffer;
-    private String extraCharRead;
-   // The line `private final List<String> reservedIdentifiers = Arrays.asList("let", "in", "within",
-   // "fn", "where", "aug", "or", "not", "gr", "ge", "ls", "le", "eq", "ne", "true", "false", "nil",
-   // "dummy", "rec", "and");` is declaring and initializing a list of reserved identifiers. These
-   // reserved identifiers are keywords or special words in the programming language that have a
-   // specific meaning and cannot be used as regular identifiers (variable names, function names,
-   // etc.). The list is created using the `Arrays.asList()` method, which takes a variable number of
-   // arguments and returns a fixed-size list containing those elements.
-    private final List<String> reservedIdentifiers = Arrays.asList("let", "in", "within", "fn", "where", "aug", "or",
-                                                                    "not", "gr", "ge", "ls", "le", "eq", "ne", "true",
-                                                                    "false", "nil", "dummy", "rec", "and");
+    // The whole source is held in memory and scanned by offset. Characters are classified through the
+    // CharacterClass table. A scanned token is described by its type, start offset, length and line
+    // number; a String is only cut out of the source when a caller asks for the token's value.
+    private final CharSequence source;
+    private final int sourceLength;
+    private final SymbolTable symbols;
+    private int position;
     private int sourceLineNumber;
 
+    // The token most recently scanned by scanToken().
+    private TokenType tokenType;
+    private int tokenStart;
+    private int tokenLength;
+    private int tokenLineNumber;
+    private int tokenSymbol;
+
+    // Whether tokenize() may split a large source into chunks that are scanned in parallel.
+    private boolean parallel;
+    // The capacity of the ring openTokenStream() scans into on its own thread, or 0 to scan up front.
+    private int pipelineCapacity;
+
     public Scanner(String inputFile) throws IOException {
-        sourceLineNumber = 1;
-        buffer = new BufferedReader(new InputStreamReader(new FileInputStream(new File(inputFile))));
+        this(SourceLoader.load(inputFile));
     }
 
-    public Token readNextToken() {
-        Token nextToken = null;
-        String nextChar;
-        if (extraCharRead != null) {
-            nextChar = extraCharRead;
-            extraCharRead = null;
-        } else
-            nextChar = readNextChar();
-        if (nextChar != null)
-            nextToken = buildToken(nextChar);
-        return nextToken;
+    private Scanner(CharSequence source) {
+        this(source, new SymbolTable(), 0, 1);
     }
 
-    private String readNextChar() {
-        String nextChar = null;
-        try {
-            int c = buffer.read();
-            if (c != -1) {
-                nextChar = Character.toString((char) c);
-                if (nextChar.equals("\n")) sourceLineNumber++;
-            } else
-                buffer.close();
-        } catch (IOException e) {
-        }
-        return nextChar;
+    /**
+     * Creates a scanner over source text that is already in memory. This is a factory rather than a
+     * constructor because Scanner(String) takes the name of a file.
+     *
+     * @param source The characters to scan. They must not change while the scanner or its tokens are in use.
+     * @return A scanner positioned at the start of the text.
+     */
+    public static Scanner forSource(CharSequence source) {
+        return new Scanner(source);
     }
 
-/**
- * The function `buildToken` takes a character as input and returns a token based on the type of
- * character.
- * 
- * @param currentChar The `currentChar` parameter is a string that represents the current character
- * being processed. It is used to determine the type of token to build based on the character's
- * properties.
- * @return The method `buildToken` returns the `nextToken` object.
- */
-    private Token buildToken(String currentChar) {
-        Token nextToken = null;
-        if (LexicalRegexPatterns.LetterPattern.matcher(currentChar).matches()) {
-            nextToken = buildIdentifierToken(currentChar);
-        } else if (LexicalRegexPatterns.DigitPattern.matcher(currentChar).matches()) {
-            nextToken = buildIntegerToken(currentChar);
-        } else if (LexicalRegexPatterns.OpSymbolPattern.matcher(currentChar).matches()) {
-            nextToken = buildOperatorToken(currentChar);
-        } else if (currentChar.equals("\'")) {
-            nextToken = buildStringToken(currentChar);
-        } else if (LexicalRegexPatterns.SpacePattern.matcher(currentChar).matches()) {
-            nextToken = buildSpaceToken(currentChar);
-        } else if (LexicalRegexPatterns.PunctuationPattern.matcher(currentChar).matches()) {
-            nextToken = buildPunctuationToken(currentChar);
-        }
-        return nextToken;
+    /**
+     * Creates a scanner over the source read from a byte stream, such as standard input. The stream is
+     * read to the end but not closed.
+     *
+     * @param in      The stream to read the source from.
+     * @param charset The charset the source is encoded in.
+     * @return A scanner positioned at the start of the source.
+     * @throws IOException If the stream cannot be read.
+     */
+    public static Scanner forInput(InputStream in, Charset charset) throws IOException {
+        return new Scanner(SourceLoader.load(in, charset));
     }
 
-    private Token buildIdentifierToken(String currentChar) {
-        Token identifierToken = new Token();
-        identifierToken.setType(TokenType.IDENTIFIER);
-        identifierToken.setSourceLineNumber(sourceLineNumber);
-        StringBuilder sBuilder = new StringBuilder(currentChar);
-
-        String nextChar = readNextChar();
-        while (nextChar != null) {
-            if (LexicalRegexPatterns.IdentifierPattern.matcher(nextChar).matches()) {
-                sBuilder.append(nextChar);
-                nextChar = readNextChar();
-            } else {
-                extraCharRead = nextChar;
-                break;
-            }
+    /**
+     * Creates a scanner over source bytes already in memory, such as a file SourceLoader.loadBytes
+     * mapped. Plain ASCII bytes are scanned where they are; the buffer's position is not changed.
+     *
+     * @param bytes   The bytes of the source, between the buffer's position and limit.
+     * @param charset The charset the source is encoded in.
+     * @return A scanner positioned at the start of the source.
+     */
+    public static Scanner forBytes(ByteBuffer bytes, Charset charset) {
+        return new Scanner(SourceLoader.decode(bytes.duplicate(), charset));
+    }
+
+    /**
+     * Creates a scanner over the source read from a Reader. The reader is read to the end but not
+     * closed.
+     *
+     * @param reader The reader to read the source from.
+     * @return A scanner positioned at the start of the source.
+     * @throws IOException If the reader cannot be read.
+     */
+    public static Scanner forReader(Reader reader) throws IOException {
+        return new Scanner(SourceLoader.load(reader));
+    }
+
+    /**
+     * Creates a scanner that starts part way through a source, as the parallel tokenizer does for each
+     * chunk.
+     *
+     * @param source           The characters being scanned.
+     * @param symbols          The table to intern identifiers and operators into.
+     * @param position         The offset to start scanning at. It must be the start of a token.
+     * @param sourceLineNumber The line number of the character at that offset.
+     */
+    Scanner(CharSequence source, SymbolTable symbols, int position, int sourceLineNumber) {
+        this.source = source;
+        this.sourceLength = source.length();
+        this.symbols = symbols;
+        this.position = position;
+        this.sourceLineNumber = sourceLineNumber;
+    }
+
+    /**
+     * Allows tokenize() to scan large sources in parallel chunks on the common fork-join pool. The
+     * resulting token stream is identical to the one a sequential scan produces.
+     *
+     * @param parallel true to allow parallel scanning, false to always scan sequentially.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Makes openTokenStream() scan on a thread of its own into a bounded ring, so that the parser can
+     * start on the first tokens while the rest of the source is still being scanned. The ring is
+     * scanned sequentially, whatever setParallel() says.
+     *
+     * @param capacity The number of tokens the scanner may run ahead of the parser, or 0 to scan the
+     *                 whole source before parsing starts.
+     */
+    public void setPipelined(int capacity) {
+        this.pipelineCapacity = capacity;
+    }
+
+    /**
+     * Returns the table the scanner interns identifiers and operators into.
+     *
+     * @return The symbol table shared by every token this scanner produces.
+     */
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    /**
+     * Scans the rest of the source into a token buffer. Whitespace and comments are dropped.
+     *
+     * @return The buffer holding every remaining token.
+     */
+    public TokenBuffer tokenize() {
+        if (parallel && ParallelTokenizer.isWorthSplitting(sourceLength - position)) {
+            TokenBuffer tokens = new ParallelTokenizer(source, symbols, position, sourceLineNumber).tokenize();
+            position = sourceLength;
+            return tokens;
         }
+        TokenBuffer tokens = new TokenBuffer(source, (sourceLength - position) / 4);
+        scanInto(tokens, sourceLength);
+        return tokens;
+    }
 
-        String value = sBuilder.toString();
-        if (reservedIdentifiers.contains(value))
-            identifierToken.setType(TokenType.RESERVED);
+    /**
+     * Returns the rest of the source as a token stream for the parser: a ring being filled by a
+     * scanner thread if setPipelined() asked for one, otherwise the buffer tokenize() returns.
+     *
+     * @return The stream of every remaining token.
+     */
+    public TokenStream openTokenStream() {
+        if (pipelineCapacity > 0)
+            return TokenRing.start(this, source, pipelineCapacity);
+        return tokenize();
+    }
+
+    /**
+     * Scans tokens into the buffer until the next token would start at or after the limit. The last
+     * token scanned may run past the limit.
+     *
+     * @param tokens The buffer to append the tokens to. Whitespace and comments are dropped.
+     * @param limit  The offset at which no further token is started.
+     */
+    void scanInto(TokenBuffer tokens, int limit) {
+        while (position < limit && scanToken())
+            addScannedToken(tokens);
+    }
 
-        identifierToken.setValue(value);
-        return identifierToken;
+    /**
+     * Appends the token most recently scanned to the buffer, unless it is whitespace or a comment.
+     *
+     * @param tokens The buffer to append to.
+     */
+    void addScannedToken(TokenBuffer tokens) {
+        if (tokenType != TokenType.DELETE)
+            tokens.add(tokenType, tokenStart, tokenLength, tokenLineNumber, tokenSymbol);
     }
 
     /**
-     * The function builds an integer token by reading consecutive digits from the input string.
-     * 
-     * @param currentChar The `currentChar` parameter is a string that represents the current character
-     * being processed by the `buildIntegerToken` method.
-     * @return The method is returning an instance of the Token class, specifically a Token
-     * representing an integer value.
+     * Scans every remaining token into the ring. This runs on the ring's scanner thread.
+     *
+     * @param ring The ring to add the tokens to. Whitespace and comments are dropped.
      */
-    private Token buildIntegerToken(String currentChar) {
-        Token integerToken = new Token();
-        integerToken.setType(TokenType.INTEGER);
-        integerToken.setSourceLineNumber(sourceLineNumber);
-        StringBuilder sBuilder = new StringBuilder(currentChar);
-
-        String nextChar = readNextChar();
-        while (nextChar != null) {
-            if (LexicalRegexPatterns.DigitPattern.matcher(nextChar).matches()) {
-                sBuilder.append(nextChar);
-                nextChar = readNextChar();
-            } else {
-                extraCharRead = nextChar;
-                break;
-            }
+    void scanInto(TokenRing ring) {
+        while (scanToken()) {
+            if (tokenType != TokenType.DELETE)
+                ring.add(tokenType, tokenStart, tokenLength, tokenLineNumber, tokenSymbol);
         }
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    int getSourceLineNumber() {
+        return sourceLineNumber;
+    }
 
-        integerToken.setValue(sBuilder.toString());
-        return integerToken;
+    public Token readNextToken() {
+        if (!scanToken())
+            return null;
+        Token nextToken = new Token();
+        nextToken.setType(tokenType);
+        nextToken.setValue(source.subSequence(tokenStart, tokenStart + tokenLength).toString());
+        nextToken.setSourceLineNumber(tokenLineNumber);
+        return nextToken;
+    }
+
+    /**
+     * Consumes the character at the current position and keeps the source line number in step with it.
+     *
+     * @return The consumed character.
+     */
+    private char readNextChar() {
+        char c = source.charAt(position++);
+        if (c == '\n') sourceLineNumber++;
+        return c;
     }
 
 /**
- * The function builds an operator token by reading characters and appending them to a StringBuilder
- * until a non-operator character is encountered.
- * 
- * @param currentChar The `currentChar` parameter is a string representing the current character being
- * processed by the `buildOperatorToken` method.
- * @return The method is returning a Token object with the type set to TokenType.OPERATOR, the source
- * line number set to the current source line number, and the value set to the concatenated string of
- * operator symbols.
+ * The function `scanToken` consumes the next token and records its type, position and line number.
+ * Every branch consumes at least one character, and no character is ever examined twice, so scanning
+ * takes time linear in the length of the source.
+ *
+ * @return false if the end of the source has been reached, true otherwise.
  */
-    private Token buildOperatorToken(String currentChar) {
-        Token opSymbolToken = new Token();
-        opSymbolToken.setType(TokenType.OPERATOR);
-        opSymbolToken.setSourceLineNumber(sourceLineNumber);
-        StringBuilder sBuilder = new StringBuilder(currentChar);
-
-        String nextChar = readNextChar();
-
-        if (currentChar.equals("/") && nextChar.equals("/"))
-            return buildCommentToken(currentChar + nextChar);
-
-        while (nextChar != null) {
-            if (LexicalRegexPatterns.OpSymbolPattern.matcher(nextChar).matches()) {
-                sBuilder.append(nextChar);
-                nextChar = readNextChar();
-            } else {
-                extraCharRead = nextChar;
-                break;
-            }
+    boolean scanToken() {
+        if (position >= sourceLength)
+            return false;
+
+        int start = position;
+        char currentChar = readNextChar();
+        int flags = CharacterClass.of(currentChar);
+        tokenStart = start;
+        tokenLineNumber = sourceLineNumber;
+        tokenSymbol = SymbolTable.NONE;
+
+        if ((flags & CharacterClass.LETTER) != 0) {
+            scanIdentifier();
+        } else if ((flags & CharacterClass.DIGIT) != 0) {
+            scanRun(TokenType.INTEGER, CharacterClass.DIGIT);
+        } else if ((flags & CharacterClass.OPERATOR) != 0) {
+            scanOperator(currentChar);
+        } else if (currentChar == '\'') {
+            scanString();
+        } else if ((flags & CharacterClass.SPACE) != 0) {
+            scanRun(TokenType.DELETE, CharacterClass.SPACE);
+        } else if ((flags & CharacterClass.PUNCTUATION) != 0) {
+            scanPunctuation(currentChar);
+        } else {
+            throw new ScanException(":" + sourceLineNumber + ": Unexpected character '" + currentChar + "'");
         }
+        return true;
+    }
 
-        opSymbolToken.setValue(sBuilder.toString());
-        return opSymbolToken;
+    /**
+     * Advances past every character, starting at the current position, that belongs to one of the
+     * given classes, and ends the current token there.
+     *
+     * @param type The type of the token being scanned.
+     * @param mask The class flags that the consumed characters must match.
+     */
+    private void scanRun(TokenType type, int mask) {
+        while (position < sourceLength && CharacterClass.is(source.charAt(position), mask))
+            readNextChar();
+        tokenType = type;
+        tokenLength = position - tokenStart;
+    }
+
+    private void scanIdentifier() {
+        scanRun(TokenType.IDENTIFIER, CharacterClass.IDENTIFIER);
+        int keyword = Keywords.lookup(source, tokenStart, tokenLength);
+        if (keyword >= 0) {
+            // Keywords are interned first, so their ids follow directly from the keyword index
+            tokenType = TokenType.RESERVED;
+            tokenSymbol = keyword + 1;
+        } else {
+            tokenSymbol = symbols.intern(source, tokenStart, tokenLength);
+        }
     }
 
 /**
- * The function `buildStringToken` reads characters from a source and builds a string token until it
- * encounters a closing single quote character.
- * 
- * @param currentChar The `currentChar` parameter is a string that represents the current character
- * being processed in the code.
- * @return The method is returning a Token object.
+ * The function scans an operator by consuming characters until a non-operator character is
+ * encountered. An operator that starts with "//" begins a comment instead.
+ *
+ * @param currentChar The first character of the operator, which has already been consumed.
  */
-    private Token buildStringToken(String currentChar) {
-        Token stringToken = new Token();
-        stringToken.setType(TokenType.STRING);
-        stringToken.setSourceLineNumber(sourceLineNumber);
-        StringBuilder sBuilder = new StringBuilder();
-
-        String nextChar = readNextChar();
-        while (nextChar != null) {
-            if (nextChar.equals("\'")) {
-                stringToken.setValue(sBuilder.toString());
-                return stringToken;
-            } else if (LexicalRegexPatterns.StringPattern.matcher(nextChar).matches()) {
-                sBuilder.append(nextChar);
-                nextChar = readNextChar();
-            }
+    private void scanOperator(char currentChar) {
+        if (currentChar == '/' && position < sourceLength && source.charAt(position) == '/') {
+            scanComment();
+        } else {
+            scanRun(TokenType.OPERATOR, CharacterClass.OPERATOR);
+            tokenSymbol = symbols.intern(source, tokenStart, tokenLength);
         }
-
-        return null;
     }
 
 /**
- * The function builds a space token by reading consecutive space characters from the input.
- * 
- * @param currentChar The `currentChar` parameter is a string that represents the current character
- * being processed in the code.
- * @return The method is returning a Token object.
+ * The function `scanString` consumes characters until it encounters the closing single quote
+ * character. The quotes are not part of the token's value.
  */
-    private Token buildSpaceToken(String currentChar) {
-        Token deleteToken = new Token();
-        deleteToken.setType(TokenType.DELETE);
-        deleteToken.setSourceLineNumber(sourceLineNumber);
-        StringBuilder sBuilder = new StringBuilder(currentChar);
-
-        String nextChar = readNextChar();
-        while (nextChar != null) {
-            if (LexicalRegexPatterns.SpacePattern.matcher(nextChar).matches()) {
-                sBuilder.append(nextChar);
-                nextChar = readNextChar();
-            } else {
-                extraCharRead = nextChar;
-                break;
+    private void scanString() {
+        tokenStart = position;
+
+        while (position < sourceLength) {
+            char nextChar = readNextChar();
+            if (nextChar == '\'') {
+                tokenType = TokenType.STRING;
+                tokenLength = position - 1 - tokenStart;
+                return;
+            } else if (!CharacterClass.is(nextChar, CharacterClass.STRING)) {
+                throw new ScanException(":" + sourceLineNumber + ": Unexpected character in string");
             }
         }
 
-        deleteToken.setValue(sBuilder.toString());
-        return deleteToken;
+        throw new ScanException(":" + tokenLineNumber + ": Unterminated string");
     }
+
 /**
- * The function builds a comment token by reading characters until it encounters a newline character or
- * a character that does not match the comment pattern.
- * 
- * @param currentChar The `currentChar` parameter is a string that represents the current character
- * being processed in the code.
- * @return The method is returning a Token object.
+ * The function scans a comment by consuming characters up to the end of the line. The newline is
+ * consumed but is not part of the token's value. Any character may appear in a comment.
  */
+    private void scanComment() {
+        while (position < sourceLength && source.charAt(position) != '\n')
+            position++;
 
-    private Token buildCommentToken(String currentChar) {
-        Token commentToken = new Token();
-        commentToken.setType(TokenType.DELETE);
-        commentToken.setSourceLineNumber(sourceLineNumber);
-        StringBuilder sBuilder = new StringBuilder(currentChar);
-
-        String nextChar = readNextChar();
-        while (nextChar != null) {
-            if (LexicalRegexPatterns.CommentPattern.matcher(nextChar).matches()) {
-                sBuilder.append(nextChar);
-                nextChar = readNextChar();
-            } else if (nextChar.equals("\n"))
-                break;
-        }
-
-        commentToken.setValue(sBuilder.toString());
-        return commentToken;
+        tokenType = TokenType.DELETE;
+        tokenLength = position - tokenStart;
+        if (position < sourceLength)
+            readNextChar();
     }
 
   /**
-   * The function builds a punctuation token based on the current character and sets its type
-   * accordingly.
-   * 
-   * @param currentChar The `currentChar` parameter is a string that represents the current character
-   * being processed.
-   * @return The method is returning a Token object.
+   * The function scans a punctuation token and sets its type according to the character.
+   *
+   * @param currentChar The `currentChar` parameter is the punctuation character being processed.
    */
-    private Token buildPunctuationToken(String currentChar) {
-        Token punctuationToken = new Token();
-        punctuationToken.setSourceLineNumber(sourceLineNumber);
-        punctuationToken.setValue(currentChar);
-        if (currentChar.equals("("))
-            punctuationToken.setType(TokenType.L_PAREN);
-        else if (currentChar.equals(")"))
-            punctuationToken.setType(TokenType.R_PAREN);
-        else if (currentChar.equals(";"))
-            punctuationToken.setType(TokenType.SEMICOLON);
-        else if (currentChar.equals(","))
-            punctuationToken.setType(TokenType.COMMA);
-
-        return punctuationToken;
-    }
-
-    /**
-     * The function checks if a given token is a reserved identifier.
-     * 
-     * @param token The parameter "token" is of type Token. It represents a token in a programming
-     * language, which typically consists of a type and a value. In this case, the token is being
-     * checked to see if it is a reserved identifier.
-     * @return The method isReservedIdentifier is returning a boolean value.
-     */
-    private boolean isReservedIdentifier(Token token) {
-        // New function: To check if a given token is a reserved identifier
-        return token.getType() == TokenType.IDENTIFIER && reservedIdentifiers.contains(token.getValue());
+    private void scanPunctuation(char currentChar) {
+        tokenLength = 1;
+        if (currentChar == '(')
+            tokenType = TokenType.L_PAREN;
+        else if (currentChar == ')')
+            tokenType = TokenType.R_PAREN;
+        else if (currentChar == ';')
+            tokenType = TokenType.SEMICOLON;
+        else
+            tokenType = TokenType.COMMA;
     }
 }
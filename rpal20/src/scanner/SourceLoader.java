@@ -0,0 +1,119 @@
+package scanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The SourceLoader class brings an RPAL source file into memory for the scanner. Large files are
+ * memory-mapped and small ones are read with a single bulk read. When the file is plain ASCII, the
+ * scanner works straight over its bytes; only a file containing a non-ASCII byte is decoded.
+ *
+ * Sources that do not live in a file, such as standard input or text produced by another program, are
+ * read from a stream or a Reader straight into memory, without being written to a file first.
+ */
+public final class SourceLoader {
+    // Below this size, mapping the file costs more than simply reading it.
+    private static final int MAP_THRESHOLD = 64 * 1024;
+
+    private SourceLoader() {
+    }
+
+    /**
+     * Loads the given file.
+     *
+     * @param inputFile The path of the file to load.
+     * @return The characters of the file.
+     * @throws IOException If the file cannot be opened or read.
+     */
+    public static CharSequence load(String inputFile) throws IOException {
+        return decode(loadBytes(inputFile), Charset.defaultCharset());
+    }
+
+    /**
+     * Brings the bytes of the given file into memory without decoding them, mapped or read as load
+     * does, for a caller that needs the bytes themselves as well as the characters, such as the
+     * program cache, which is keyed by them. Scanner.forBytes then scans the same buffer.
+     *
+     * @param inputFile The path of the file to load.
+     * @return The bytes of the file, between the buffer's position and limit.
+     * @throws IOException If the file cannot be opened or read.
+     */
+    public static ByteBuffer loadBytes(String inputFile) throws IOException {
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(inputFile + " is too large to scan");
+            if (size >= MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+                }
+                bytes.flip();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Loads a source from a byte stream, reading it to the end. The stream is not closed.
+     *
+     * @param in      The stream to read, such as System.in.
+     * @param charset The charset the source is encoded in.
+     * @return The characters of the source.
+     * @throws IOException If the stream cannot be read.
+     */
+    public static CharSequence load(InputStream in, Charset charset) throws IOException {
+        return decode(ByteBuffer.wrap(in.readAllBytes()), charset);
+    }
+
+    /**
+     * Loads a source from a character stream, reading it to the end. The reader is not closed.
+     *
+     * @param reader The reader to read.
+     * @return The characters of the source.
+     * @throws IOException If the reader cannot be read.
+     */
+    public static CharSequence load(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        int count;
+        while ((count = reader.read(buffer)) != -1)
+            text.append(buffer, 0, count);
+        return text;
+    }
+
+    /**
+     * Turns raw source bytes into characters, without copying them when they are plain ASCII.
+     *
+     * @param bytes   The bytes of the source, between the buffer's position and limit.
+     * @param charset The charset to decode with if the bytes are not plain ASCII.
+     * @return The characters of the source.
+     */
+    static CharSequence decode(ByteBuffer bytes, Charset charset) {
+        if (isAsciiCompatible(charset) && AsciiSource.isAscii(bytes))
+            return new AsciiSource(bytes);
+        return charset.decode(bytes);
+    }
+
+    // A charset is ASCII compatible when it encodes each of the 128 ASCII characters as that same byte.
+    private static boolean isAsciiCompatible(Charset charset) {
+        if (charset.equals(StandardCharsets.US_ASCII) || charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.ISO_8859_1))
+            return true;
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++)
+            ascii[i] = (byte) i;
+        return charset.canEncode()
+                && Arrays.equals(ascii, new String(ascii, StandardCharsets.US_ASCII).getBytes(charset));
+    }
+}
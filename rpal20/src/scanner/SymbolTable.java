@@ -0,0 +1,190 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * The SymbolTable class interns identifiers and operators to dense integer ids. The scanner assigns
+ * an id to every identifier, keyword and operator token, and the id travels with the token into the
+ * AST and on to the runtime environment, so names are compared as integers instead of Strings.
+ *
+ * Id 0 ({@link #NONE}) is never assigned. The keywords and the operators the parser looks for are
+ * interned first, in a fixed order, so their ids are the constants declared below.
+ */
+public class SymbolTable {
+    public static final int NONE = 0;
+
+    // Keywords, in the order of the Keywords table: the id of keyword i is i + 1.
+    public static final int LET = 1;
+    public static final int IN = 2;
+    public static final int WITHIN = 3;
+    public static final int FN = 4;
+    public static final int WHERE = 5;
+    public static final int AUG = 6;
+    public static final int OR = 7;
+    public static final int NOT = 8;
+    public static final int GR = 9;
+    public static final int GE = 10;
+    public static final int LS = 11;
+    public static final int LE = 12;
+    public static final int EQ = 13;
+    public static final int NE = 14;
+    public static final int TRUE = 15;
+    public static final int FALSE = 16;
+    public static final int NIL = 17;
+    public static final int DUMMY = 18;
+    public static final int REC = 19;
+    public static final int AND = 20;
+
+    // Operators the parser looks for.
+    public static final int DOT = 21;
+    public static final int COMMA = 22;
+    public static final int ARROW = 23;
+    public static final int BAR = 24;
+    public static final int AMPERSAND = 25;
+    public static final int GREATER = 26;
+    public static final int GREATER_EQUAL = 27;
+    public static final int LESS = 28;
+    public static final int LESS_EQUAL = 29;
+    public static final int PLUS = 30;
+    public static final int MINUS = 31;
+    public static final int TIMES = 32;
+    public static final int DIVIDE = 33;
+    public static final int POWER = 34;
+    public static final int AT = 35;
+    public static final int EQUALS = 36;
+
+    private static final String[] OPERATORS = {".", ",", "->", "|", "&", ">", ">=", "<", "<=",
+                                               "+", "-", "*", "/", "**", "@", "="};
+
+    private String[] names;
+    private int[] nameHashes;
+    private int size;
+    // Open-addressing hash table of ids; 0 marks an empty slot.
+    private int[] slots;
+
+    public SymbolTable() {
+        names = new String[256];
+        nameHashes = new int[256];
+        slots = new int[512];
+        size = 1;
+        for (int i = 0; i < Keywords.count(); i++)
+            intern(Keywords.get(i));
+        for (String operator : OPERATORS)
+            intern(operator);
+        if (!getName(LET).equals(Keywords.get(0)) || !getName(EQUALS).equals(OPERATORS[OPERATORS.length - 1]))
+            throw new IllegalStateException("Predefined symbol ids are out of step");
+    }
+
+    /**
+     * Returns the id of the given name, interning it if it has not been seen before.
+     *
+     * @param name The identifier or operator.
+     * @return The symbol id of the name.
+     */
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Returns the id of a slice of the source, interning it if it has not been seen before. A String
+     * is only made for the slice the first time it is seen.
+     *
+     * @param source The characters being scanned.
+     * @param start  The offset of the first character of the name.
+     * @param length The number of characters in the name.
+     * @return The symbol id of the name.
+     */
+    public int intern(CharSequence source, int start, int length) {
+        int hash = hash(source, start, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (id == NONE) {
+                id = add(source.subSequence(start, start + length).toString(), hash);
+                slots[slot] = id;
+                if (size * 2 > slots.length)
+                    rehash();
+                return id;
+            }
+            if (nameHashes[id] == hash && matches(names[id], source, start, length))
+                return id;
+        }
+    }
+
+    /**
+     * Returns the id of the given name without interning it.
+     *
+     * @param name The identifier or operator.
+     * @return The symbol id of the name, or {@link #NONE} if it has not been interned.
+     */
+    public int lookup(String name) {
+        int hash = hash(name, 0, name.length());
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != NONE; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (nameHashes[id] == hash && names[id].equals(name))
+                return id;
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the name a symbol id was assigned to.
+     *
+     * @param id The symbol id.
+     * @return The interned name.
+     */
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns one more than the largest id assigned so far, so that arrays indexed by symbol id can be
+     * sized from it.
+     *
+     * @return The number of ids in use, counting the unused id 0.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int add(String name, int hash) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            nameHashes = Arrays.copyOf(nameHashes, size * 2);
+        }
+        names[size] = name;
+        nameHashes[size] = hash;
+        return size++;
+    }
+
+    private void rehash() {
+        int[] newSlots = new int[slots.length * 2];
+        int mask = newSlots.length - 1;
+        for (int id = 1; id < size; id++) {
+            int slot = nameHashes[id] & mask;
+            while (newSlots[slot] != NONE)
+                slot = (slot + 1) & mask;
+            newSlots[slot] = id;
+        }
+        slots = newSlots;
+    }
+
+    private static int hash(CharSequence source, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++)
+            hash = 31 * hash + source.charAt(i);
+        // Spread the high bits, since only the low bits select a slot.
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int length) {
+        if (name.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != source.charAt(start + i))
+                return false;
+        }
+        return true;
+    }
+}
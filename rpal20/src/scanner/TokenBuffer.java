@@ -0,0 +1,186 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * The TokenBuffer class holds a scanned token stream as parallel primitive arrays: the kind, start
+ * offset, length, source line number and symbol id of each token. A token's value is a slice of the
+ * source, and a String is only made for it when {@link #getValue(int)} is called, so the stream can
+ * be walked and compared against expected values without creating objects.
+ *
+ * Whitespace and comments are not stored; the buffer only holds the tokens the parser consumes.
+ */
+public class TokenBuffer implements TokenStream {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final CharSequence source;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] sourceLineNumbers;
+    private int[] symbols;
+    private int size;
+
+    public TokenBuffer(CharSequence source, int expectedTokens) {
+        this.source = source;
+        int capacity = Math.max(16, expectedTokens);
+        types = new byte[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        sourceLineNumbers = new int[capacity];
+        symbols = new int[capacity];
+    }
+
+    /**
+     * Appends a token to the buffer.
+     *
+     * @param type             The type of the token.
+     * @param start            The offset of the token's value in the source.
+     * @param length           The number of characters in the token's value.
+     * @param sourceLineNumber The line number in the source code where the token was found.
+     * @param symbol           The interned id of an identifier, keyword or operator, or
+     *                         SymbolTable.NONE for other tokens.
+     */
+    public void add(TokenType type, int start, int length, int sourceLineNumber, int symbol) {
+        if (size == types.length)
+            grow();
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        sourceLineNumbers[size] = sourceLineNumber;
+        symbols[size] = symbol;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = types.length + (types.length >> 1);
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        sourceLineNumbers = Arrays.copyOf(sourceLineNumbers, capacity);
+        symbols = Arrays.copyOf(symbols, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Drops the tokens from the given position on.
+    void truncate(int newSize) {
+        size = newSize;
+    }
+
+    /**
+     * Appends a run of tokens from another buffer, moving them by the given number of characters and
+     * lines, as when the text before them has been edited.
+     *
+     * @param from        The buffer to copy from. Its symbol ids must come from the same table.
+     * @param start       The position of the first token to copy.
+     * @param end         The position after the last token to copy.
+     * @param offsetDelta The amount to add to each token's start offset.
+     * @param lineDelta   The amount to add to each token's line number.
+     */
+    void appendShifted(TokenBuffer from, int start, int end, int offsetDelta, int lineDelta) {
+        int count = end - start;
+        while (size + count > types.length)
+            grow();
+        System.arraycopy(from.types, start, types, size, count);
+        System.arraycopy(from.lengths, start, lengths, size, count);
+        System.arraycopy(from.symbols, start, symbols, size, count);
+        for (int i = 0; i < count; i++) {
+            starts[size + i] = from.starts[start + i] + offsetDelta;
+            sourceLineNumbers[size + i] = from.sourceLineNumbers[start + i] + lineDelta;
+        }
+        size += count;
+    }
+
+    // The whole stream is scanned before the buffer is handed out, so nothing is ever waited for.
+    @Override
+    public boolean has(int index) {
+        return index < size;
+    }
+
+    @Override
+    public void release(int index) {
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    public CharSequence getSource() {
+        return source;
+    }
+
+    @Override
+    public TokenType getType(int index) {
+        return TOKEN_TYPES[types[index]];
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    // The offset the token's text starts at, which for a string is its opening quote.
+    int getRawStart(int index) {
+        return types[index] == TokenType.STRING.ordinal() ? starts[index] - 1 : starts[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    @Override
+    public int getSourceLineNumber(int index) {
+        return sourceLineNumbers[index];
+    }
+
+    @Override
+    public int getSymbol(int index) {
+        return symbols[index];
+    }
+
+    /**
+     * Makes a String of the token's value.
+     *
+     * @param index The position of the token in the stream.
+     * @return The value of the token.
+     */
+    @Override
+    public String getValue(int index) {
+        return source.subSequence(starts[index], starts[index] + lengths[index]).toString();
+    }
+
+    /**
+     * Compares the token's value with the given String without making a String of the token.
+     *
+     * @param index The position of the token in the stream.
+     * @param value The expected value.
+     * @return true if the token's value is exactly the given value.
+     */
+    public boolean valueEquals(int index, String value) {
+        int length = lengths[index];
+        if (length != value.length())
+            return false;
+        int start = starts[index];
+        for (int i = 0; i < length; i++) {
+            if (source.charAt(start + i) != value.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Builds a Token object for the token at the given position.
+     *
+     * @param index The position of the token in the stream.
+     * @return A Token with the type, value and source line number of the buffered token.
+     */
+    public Token getToken(int index) {
+        Token token = new Token();
+        token.setType(getType(index));
+        token.setValue(getValue(index));
+        token.setSourceLineNumber(sourceLineNumbers[index]);
+        return token;
+    }
+}
@@ -0,0 +1,181 @@
+package scanner;
+
+/**
+ * The TokenEdit class brings a token buffer up to date after an edit to its source, scanning only the
+ * text the edit can have affected.
+ *
+ * Scanning resumes at the last token that starts before the edit, since that token may run on into the
+ * edited text; everything before it is scanned exactly as before. It stops at the first token after
+ * the edit that starts where a token of the old buffer started, since scanning from there sees the same
+ * characters as before. The old tokens after that point are copied across, moved by the change in
+ * length and in line count of the edited text.
+ *
+ * The tokens that really differ are then narrowed down by comparing the rescanned tokens with the old
+ * ones from both ends, so that, for example, an edit inside a comment changes no tokens at all.
+ */
+public final class TokenEdit {
+    private final TokenBuffer tokens;
+    private final int firstChanged;
+    private final int oldEnd;
+    private final int newEnd;
+    private final int lineDelta;
+
+    private TokenEdit(TokenBuffer tokens, int firstChanged, int oldEnd, int newEnd, int lineDelta) {
+        this.tokens = tokens;
+        this.firstChanged = firstChanged;
+        this.oldEnd = oldEnd;
+        this.newEnd = newEnd;
+        this.lineDelta = lineDelta;
+    }
+
+    /**
+     * Rescans the part of a source affected by replacing a range of its characters.
+     *
+     * @param old       The tokens of the source before the edit, which is their getSource().
+     * @param symbols   The table the old tokens were interned into. New names are added to it.
+     * @param source    The source after the edit.
+     * @param offset    The offset of the first character replaced.
+     * @param removed   The number of characters replaced.
+     * @param inserted  The number of characters that replaced them.
+     * @return The tokens of the edited source, with the range of tokens that changed.
+     * @throws ScanException If the rescanned text contains an error.
+     */
+    public static TokenEdit apply(TokenBuffer old, SymbolTable symbols, CharSequence source,
+                                  int offset, int removed, int inserted) {
+        int offsetDelta = inserted - removed;
+        int lineDelta = countNewlines(source, offset, offset + inserted)
+                - countNewlines(old.getSource(), offset, offset + removed);
+
+        // The last token starting before the edit is the first that can change
+        int first = lastTokenBefore(old, offset);
+        int position = first < 0 ? 0 : old.getRawStart(first);
+        int line = first < 0 ? 1 : old.getSourceLineNumber(first);
+        first = Math.max(first, 0);
+
+        Scanner scanner = new Scanner(source, symbols, position, line);
+        TokenBuffer rescanned = new TokenBuffer(source, 16);
+        int resume = first;
+        int oldSize = old.size();
+        while (true) {
+            int tokenStart = scanner.getPosition();
+            if (!scanner.scanToken()) {
+                resume = oldSize;
+                break;
+            }
+            int count = rescanned.size();
+            scanner.addScannedToken(rescanned);
+            if (rescanned.size() == count || tokenStart < offset + inserted)
+                continue;
+            while (resume < oldSize && old.getRawStart(resume) + offsetDelta < tokenStart)
+                resume++;
+            if (resume < oldSize && old.getRawStart(resume) + offsetDelta == tokenStart) {
+                // In step with the old tokens again: the token just scanned is the old one, moved
+                rescanned.truncate(count);
+                break;
+            }
+        }
+
+        // Narrow the change down to the tokens that differ
+        int same = 0;
+        while (same < rescanned.size() && first + same < resume
+               && sameToken(rescanned, same, old, first + same, 0))
+            same++;
+        int sameAfter = 0;
+        while (sameAfter < rescanned.size() - same && sameAfter < resume - first - same
+               && rescanned.getRawStart(rescanned.size() - 1 - sameAfter) >= offset + inserted
+               && sameToken(rescanned, rescanned.size() - 1 - sameAfter, old, resume - 1 - sameAfter, lineDelta))
+            sameAfter++;
+
+        TokenBuffer tokens = new TokenBuffer(source, oldSize + rescanned.size() - (resume - first));
+        tokens.appendShifted(old, 0, first, 0, 0);
+        tokens.appendShifted(rescanned, 0, rescanned.size(), 0, 0);
+        tokens.appendShifted(old, resume, oldSize, offsetDelta, lineDelta);
+        return new TokenEdit(tokens, first + same, resume - sameAfter,
+                             first + rescanned.size() - sameAfter, lineDelta);
+    }
+
+    // The index of the last token that starts before the offset, or -1 if there is none.
+    private static int lastTokenBefore(TokenBuffer tokens, int offset) {
+        int low = 0;
+        int high = tokens.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (tokens.getRawStart(middle) < offset)
+                low = middle + 1;
+            else
+                high = middle - 1;
+        }
+        return high;
+    }
+
+    // Whether two tokens have the same kind, text and symbol, and lines that differ by lineDelta.
+    private static boolean sameToken(TokenBuffer a, int i, TokenBuffer b, int j, int lineDelta) {
+        if (a.getType(i) != b.getType(j) || a.getSymbol(i) != b.getSymbol(j)
+                || a.getLength(i) != b.getLength(j)
+                || a.getSourceLineNumber(i) != b.getSourceLineNumber(j) + lineDelta)
+            return false;
+        CharSequence aSource = a.getSource();
+        CharSequence bSource = b.getSource();
+        for (int k = 0; k < a.getLength(i); k++) {
+            if (aSource.charAt(a.getStart(i) + k) != bSource.charAt(b.getStart(j) + k))
+                return false;
+        }
+        return true;
+    }
+
+    private static int countNewlines(CharSequence text, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n')
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the tokens of the edited source.
+     *
+     * @return A buffer over the edited source.
+     */
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Returns the index of the first token that differs from the old tokens. Tokens before it are the
+     * same in both buffers.
+     *
+     * @return The index, which is the same in the old and the new buffer.
+     */
+    public int getFirstChanged() {
+        return firstChanged;
+    }
+
+    /**
+     * Returns the index in the old buffer after the last token that differs. The old tokens from here
+     * on are in the new buffer from getNewEnd() on, moved by getLineDelta() lines.
+     *
+     * @return The end of the changed tokens in the old buffer.
+     */
+    public int getOldEnd() {
+        return oldEnd;
+    }
+
+    /**
+     * Returns the index in the new buffer after the last token that differs.
+     *
+     * @return The end of the changed tokens in the new buffer.
+     */
+    public int getNewEnd() {
+        return newEnd;
+    }
+
+    /**
+     * Returns the number of lines the edit added, negative if it removed lines.
+     *
+     * @return The change in the line numbers of the tokens after the edit.
+     */
+    public int getLineDelta() {
+        return lineDelta;
+    }
+}
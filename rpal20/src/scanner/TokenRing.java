@@ -0,0 +1,164 @@
+package scanner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The TokenRing class is a bounded token stream filled by a scanner on its own thread while the
+ * parser reads it. It is a single-producer, single-consumer ring: the scanner thread is the only
+ * writer of the slots and of the published count, the parser is the only writer of the released
+ * count, and neither side takes a lock.
+ *
+ * Token i lives in slot i modulo the capacity. The scanner waits when the ring is full, that is, when
+ * the token it wants to add would overwrite one the parser has not released, so memory stays bounded
+ * however far the scanner could run ahead.
+ */
+public class TokenRing implements TokenStream {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+    // Spins before a waiting side yields, and yields before it parks.
+    private static final int SPINS = 100;
+    private static final int YIELDS = 10;
+    private static final long PARK_NANOS = 50_000;
+
+    private final CharSequence source;
+    private final int mask;
+    private final byte[] types;
+    private final int[] starts;
+    private final int[] lengths;
+    private final int[] sourceLineNumbers;
+    private final int[] symbols;
+
+    // Tokens [0, published) have been written; tokens [0, released) may be overwritten.
+    private final AtomicInteger published = new AtomicInteger();
+    private final AtomicInteger released = new AtomicInteger();
+    private volatile boolean finished;
+    private volatile boolean drained;
+    private volatile ScanException failure;
+
+    // Each side's last view of the other side's count, so the shared counters are read only when
+    // the cached view says the ring is empty or full.
+    private int knownPublished;
+    private int knownReleased;
+
+    private TokenRing(CharSequence source, int capacity) {
+        this.source = source;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        types = new byte[size];
+        starts = new int[size];
+        lengths = new int[size];
+        sourceLineNumbers = new int[size];
+        symbols = new int[size];
+    }
+
+    /**
+     * Starts a thread that scans the rest of the source into a new ring.
+     *
+     * @param scanner  The scanner to run. It must not be used by the caller afterwards.
+     * @param source   The characters the scanner is reading, which token values are cut from.
+     * @param capacity The number of tokens the ring holds; it is rounded up to a power of two.
+     * @return The ring the scanner thread is filling.
+     */
+    static TokenRing start(Scanner scanner, CharSequence source, int capacity) {
+        TokenRing ring = new TokenRing(source, capacity);
+        Thread producer = new Thread(() -> ring.fill(scanner), "rpal-scanner");
+        producer.setDaemon(true);
+        producer.start();
+        return ring;
+    }
+
+    private void fill(Scanner scanner) {
+        try {
+            scanner.scanInto(this);
+        } catch (ScanException e) {
+            failure = e;
+        } finally {
+            finished = true;
+        }
+    }
+
+    /**
+     * Adds a token, waiting while the ring is full. Only the scanner thread calls this.
+     */
+    void add(TokenType type, int start, int length, int sourceLineNumber, int symbol) {
+        int index = published.get();
+        if (index - knownReleased > mask) {
+            for (int waits = 0; index - (knownReleased = released.get()) > mask; waits++) {
+                if (drained)
+                    return; // Nobody reads the tokens any more; scan on only to find errors
+                pause(waits);
+            }
+        }
+        int slot = index & mask;
+        types[slot] = (byte) type.ordinal();
+        starts[slot] = start;
+        lengths[slot] = length;
+        sourceLineNumbers[slot] = sourceLineNumber;
+        symbols[slot] = symbol;
+        // The release store publishes the slot writes to the parser thread.
+        published.lazySet(index + 1);
+    }
+
+    @Override
+    public boolean has(int index) {
+        if (index < knownPublished)
+            return true;
+        for (int waits = 0; ; waits++) {
+            // Read finished before published, so a scanner that has stopped has published everything.
+            boolean done = finished;
+            knownPublished = published.get();
+            if (index < knownPublished)
+                return true;
+            if (done) {
+                if (failure != null)
+                    throw failure;
+                return false;
+            }
+            pause(waits);
+        }
+    }
+
+    @Override
+    public void release(int index) {
+        released.lazySet(index);
+    }
+
+    @Override
+    public void drain() {
+        drained = true;
+        for (int waits = 0; !finished; waits++)
+            pause(waits);
+        if (failure != null)
+            throw failure;
+    }
+
+    private static void pause(int waits) {
+        if (waits < SPINS)
+            Thread.onSpinWait();
+        else if (waits < SPINS + YIELDS)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(PARK_NANOS);
+    }
+
+    @Override
+    public TokenType getType(int index) {
+        return TOKEN_TYPES[types[index & mask]];
+    }
+
+    @Override
+    public int getSymbol(int index) {
+        return symbols[index & mask];
+    }
+
+    @Override
+    public int getSourceLineNumber(int index) {
+        return sourceLineNumbers[index & mask];
+    }
+
+    @Override
+    public String getValue(int index) {
+        int slot = index & mask;
+        return source.subSequence(starts[slot], starts[slot] + lengths[slot]).toString();
+    }
+}
@@ -0,0 +1,51 @@
+package scanner;
+
+/**
+ * The TokenStream interface is the parser's view of the scanned tokens. Tokens are numbered from 0 in
+ * source order and are read by number; whitespace and comments are never part of the stream.
+ *
+ * A stream may still be filling while the parser reads it. {@link #has(int)} waits until the token is
+ * available or the end of the source is known, and {@link #release(int)} tells the stream the parser
+ * will not read the earlier tokens again, so that a bounded stream can reuse their room.
+ */
+public interface TokenStream {
+    /**
+     * Tells whether the stream holds the given token, waiting for the scanner if it has not got that
+     * far yet.
+     *
+     * @param index The number of the token.
+     * @return true if the token exists, false if the source ends before it.
+     * @throws ScanException If the scanner failed before reaching the token.
+     */
+    boolean has(int index);
+
+    /**
+     * Tells the stream that no token before the given one will be read again.
+     *
+     * @param index The number of the first token still needed.
+     */
+    void release(int index);
+
+    /**
+     * Waits until the whole source has been scanned, discarding the tokens nobody has read. This is
+     * used on the error path, so that a scanning error later in the source is reported in preference
+     * to the parse error it caused, just as it would be if the source had been scanned up front.
+     *
+     * @throws ScanException If the scanner failed anywhere in the source.
+     */
+    void drain();
+
+    TokenType getType(int index);
+
+    int getSymbol(int index);
+
+    int getSourceLineNumber(int index);
+
+    /**
+     * Makes a String of the token's value.
+     *
+     * @param index The number of the token.
+     * @return The value of the token.
+     */
+    String getValue(int index);
+}